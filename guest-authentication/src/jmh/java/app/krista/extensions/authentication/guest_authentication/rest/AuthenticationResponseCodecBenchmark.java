@@ -0,0 +1,76 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import app.krista.extension.common.AuthenticationResponse;
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the Gson JSON previously stored by {@link AccountManagerImpl} with {@link AuthenticationResponseCodec} on
+ * the response of a typical guest login.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AuthenticationResponseCodecBenchmark {
+
+    private Gson gson;
+    private AuthenticationResponse response;
+    private String json;
+    private String encoded;
+
+    @Setup
+    public void setUp() {
+        gson = new Gson();
+        response = new AuthenticationResponse("4f5b1c2e-9d7a-4e31-8c6f-0a2b3c4d5e6f", "Guest User",
+                "https://cdn.krista.app/avatars/guest.png", "account_7c1e9a52-3b4d-4f6e-a8c0-91d2e3f4a5b6",
+                "account_0d2c8b41-6a5f-4e3d-9c7b-81a0f2e3d4c5", "person_5e6f7a8b-9c0d-4e1f-a2b3-c4d5e6f7a8b9",
+                List.of("Krista Guest User"), "inbox_1a2b3c4d-5e6f-4a7b-8c9d-0e1f2a3b4c5d", false, false,
+                Map.of("email", "guest_3e8f1a2b-4c5d-4e6f-8a9b-0c1d2e3f4a5b@guest.krista.app"),
+                Map.of("creationTime", "2025-06-01 10:15:30", "newSession", true));
+        json = gson.toJson(response);
+        encoded = AuthenticationResponseCodec.encode(response);
+    }
+
+    @Benchmark
+    public String gsonEncode() {
+        return gson.toJson(response);
+    }
+
+    @Benchmark
+    public String codecEncode() {
+        return AuthenticationResponseCodec.encode(response);
+    }
+
+    @Benchmark
+    public AuthenticationResponse gsonDecode() {
+        return gson.fromJson(json, AuthenticationResponse.class);
+    }
+
+    @Benchmark
+    public AuthenticationResponse codecDecode() {
+        return AuthenticationResponseCodec.decode(encoded);
+    }
+
+}
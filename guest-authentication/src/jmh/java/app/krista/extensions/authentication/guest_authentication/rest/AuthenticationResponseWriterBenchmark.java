@@ -0,0 +1,75 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.MediaType;
+import app.krista.extension.common.AuthenticationResponse;
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the Gson string previously returned as the login entity, encoded to UTF-8 as JAX-RS did, with
+ * {@link AuthenticationResponseWriter} streaming the same response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AuthenticationResponseWriterBenchmark {
+
+    private Gson gson;
+    private AuthenticationResponseWriter writer;
+    private AuthenticationResponse response;
+    private ByteArrayOutputStream output;
+
+    @Setup
+    public void setUp() {
+        gson = new Gson();
+        writer = new AuthenticationResponseWriter();
+        response = new AuthenticationResponse("4f5b1c2e-9d7a-4e31-8c6f-0a2b3c4d5e6f", "Guest User",
+                "https://cdn.krista.app/avatars/guest.png", "account_7c1e9a52-3b4d-4f6e-a8c0-91d2e3f4a5b6",
+                "account_0d2c8b41-6a5f-4e3d-9c7b-81a0f2e3d4c5", "person_5e6f7a8b-9c0d-4e1f-a2b3-c4d5e6f7a8b9",
+                List.of("Krista Guest User"), "inbox_1a2b3c4d-5e6f-4a7b-8c9d-0e1f2a3b4c5d", false, false,
+                Map.of("email", "guest_3e8f1a2b-4c5d-4e6f-8a9b-0c1d2e3f4a5b@guest.krista.app"),
+                Map.of("creationTime", "2025-06-01 10:15:30", "newSession", true));
+        output = new ByteArrayOutputStream(1024);
+    }
+
+    @Benchmark
+    public int gsonString() throws IOException {
+        output.reset();
+        output.write(gson.toJson(response).getBytes(StandardCharsets.UTF_8));
+        return output.size();
+    }
+
+    @Benchmark
+    public int writer() throws IOException {
+        output.reset();
+        writer.writeTo(response, AuthenticationResponse.class, AuthenticationResponse.class, null,
+                MediaType.APPLICATION_JSON_TYPE, null, output);
+        return output.size();
+    }
+
+}
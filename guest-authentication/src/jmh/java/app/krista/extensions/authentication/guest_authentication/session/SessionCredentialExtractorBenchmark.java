@@ -0,0 +1,117 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+package app.krista.extensions.authentication.guest_authentication.session;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the split-based cookie and query parsing previously used by the authenticator with
+ * {@link SessionCredentialExtractor} on realistic headers of 20+ cookies.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SessionCredentialExtractorBenchmark {
+
+    private static final String SESSION_COOKIE = "chatbotSessionId";
+
+    /**
+     * Where the session cookie sits in the header: first, last or not present at all.
+     */
+    @Param({"FIRST", "LAST", "ABSENT"})
+    public String position;
+
+    @Param({"20", "40"})
+    public int cookieCount;
+
+    private String cookieHeader;
+    private String rawQuery;
+    private SessionCredentialExtractor extractor;
+
+    @Setup
+    public void setUp() {
+        List<String> cookies = new ArrayList<>();
+        for (int i = 0; i < cookieCount; i++) {
+            cookies.add("_ga_" + i + "=GA1.1." + (1_000_000_000L + i * 7919L) + "." + (1_700_000_000L + i));
+        }
+        cookies.add(cookieCount / 2, "X-Krista-Context=%7B%22clientSessionId%22%3A%22"
+                + UUID.randomUUID() + "%22%7D");
+        String session = SESSION_COOKIE + "=" + UUID.randomUUID();
+        if ("FIRST".equals(position)) {
+            cookies.add(0, session);
+        } else if ("LAST".equals(position)) {
+            cookies.add(session);
+        }
+        cookieHeader = String.join("; ", cookies);
+        rawQuery = "utm_source=newsletter&utm_medium=email&utm_campaign=spring&lang=en-US"
+                + "&clientSessionId=" + UUID.randomUUID() + "&ref=home";
+        extractor = SessionCredentialExtractor.DEFAULT;
+    }
+
+    @Benchmark
+    public String legacyCookie() {
+        return legacyGetCookie(cookieHeader, SESSION_COOKIE);
+    }
+
+    @Benchmark
+    public String extractorCookie() {
+        return extractor.fromCookieHeader(cookieHeader);
+    }
+
+    @Benchmark
+    public String legacyQuery() {
+        List<String> values = legacyQueryParameters(rawQuery).get("clientSessionId");
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    @Benchmark
+    public String extractorQuery() {
+        return extractor.fromQueryString(rawQuery);
+    }
+
+    // Copy of the former GuestAuthenticationRequestAuthenticator#getCookie.
+    private static String legacyGetCookie(String cookie, String key) {
+        if (!Objects.isNull(cookie)) {
+            String[] cookies = cookie.split(";");
+            for (String c : cookies) {
+                if (c.trim().startsWith(key)) {
+                    return c.split("=")[1];
+                }
+            }
+        }
+        return null;
+    }
+
+    // Equivalent of the MultivaluedMap materialized by HttpRequest#getQueryParameters.
+    private static Map<String, List<String>> legacyQueryParameters(String rawQuery) {
+        Map<String, List<String>> parameters = new LinkedHashMap<>();
+        for (String pair : rawQuery.split("&")) {
+            String[] parts = pair.split("=", 2);
+            String name = URLDecoder.decode(parts[0], StandardCharsets.UTF_8);
+            String value = parts.length > 1 ? URLDecoder.decode(parts[1], StandardCharsets.UTF_8) : "";
+            parameters.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+        }
+        return parameters;
+    }
+
+}
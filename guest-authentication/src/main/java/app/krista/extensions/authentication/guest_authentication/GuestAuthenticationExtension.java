@@ -24,9 +24,6 @@ import javax.inject.Inject;
 import app.krista.extension.authorization.RequestAuthenticator;
 import app.krista.extension.impl.anno.*;
 import app.krista.ksdk.accounts.*;
-import app.krista.ksdk.authentication.AuthenticationSettings;
-import app.krista.ksdk.authentication.SessionManager;
-import app.krista.ksdk.context.AuthorizationContext;
 import app.krista.omni.sdk.medium.text.util.CommonInvokerParameters;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
@@ -38,6 +35,16 @@ import org.slf4j.LoggerFactory;
 @Field(name = GuestAuthenticationExtension.DEFAULT_ROLE_KEY, type = "Text", required = false)
 @Field(name = CommonInvokerParameters.SESSION_TIMEOUT, type = "Number", required = false)
 @Field(name = GuestAuthenticationExtension.ATTRIBUTE_PARAMETERS, type = "Text", required = false)
+@Field(name = GuestAuthenticationExtension.ACCOUNT_POOL_LOW_WATERMARK, type = "Number", required = false)
+@Field(name = GuestAuthenticationExtension.ACCOUNT_POOL_HIGH_WATERMARK, type = "Number", required = false)
+@Field(name = GuestAuthenticationExtension.ACCOUNT_RETENTION_DAYS, type = "Number", required = false)
+@Field(name = GuestAuthenticationExtension.RESUME_TOKEN_DAYS, type = "Number", required = false)
+@Field(name = GuestAuthenticationExtension.LOGIN_RATE_PER_MINUTE, type = "Number", required = false)
+@Field(name = GuestAuthenticationExtension.LOGIN_RATE_LIMIT_KEY, type = "Text", required = false)
+@Field(name = GuestAuthenticationExtension.MAX_CONCURRENT_LOGINS, type = "Number", required = false)
+@Field(name = GuestAuthenticationExtension.TRUSTED_PROXY_HOPS, type = "Number", required = false)
+@Field(name = GuestAuthenticationExtension.SESSION_VALIDATION_TOKEN, type = "Text", required = false)
+@Field(name = GuestAuthenticationExtension.DEBUG_SESSION_IDS, type = "Text", required = false)
 @Java(version = Java.Version.JAVA_21)
 @Domain(id = "catEntryDomain_db053e8f-a194-4dde-aa6f-701ef7a6b3a7",
         name = "Authentication",
@@ -52,27 +59,29 @@ public final class GuestAuthenticationExtension {
 
     public static final String DEFAULT_ROLE_KEY = "default_role";
     public static final String ATTRIBUTE_PARAMETERS = "attribute_parameters";
-    private final AuthorizationContext authorizationContext;
-    private final SessionManager sessionManager;
-    private final AuthenticationSettings authenticationSettings;
-    private final AccountProvider accountProvider;
+    public static final String ACCOUNT_POOL_LOW_WATERMARK = "account_pool_low_watermark";
+    public static final String ACCOUNT_POOL_HIGH_WATERMARK = "account_pool_high_watermark";
+    public static final String ACCOUNT_RETENTION_DAYS = "account_retention_days";
+    public static final String RESUME_TOKEN_DAYS = "resume_token_days";
+    public static final String LOGIN_RATE_PER_MINUTE = "login_rate_per_minute";
+    public static final String LOGIN_RATE_LIMIT_KEY = "login_rate_limit_key";
+    public static final String MAX_CONCURRENT_LOGINS = "max_concurrent_logins";
+    public static final String TRUSTED_PROXY_HOPS = "trusted_proxy_hops";
+    public static final String SESSION_VALIDATION_TOKEN = "session_validation_token";
+    public static final String DEBUG_SESSION_IDS = "debug_session_ids";
+    private final GuestAuthenticationRequestAuthenticator requestAuthenticator;
     private final AttributeManager attributeManager;
 
     @Inject
-    public GuestAuthenticationExtension(AuthorizationContext authorizationContext, SessionManager sessionManager,
-            AuthenticationSettings authenticationSettings, AccountProvider accountProvider,
+    public GuestAuthenticationExtension(GuestAuthenticationRequestAuthenticator requestAuthenticator,
             AttributeManager attributeManager) {
-        this.authorizationContext = authorizationContext;
-        this.sessionManager = sessionManager;
-        this.authenticationSettings = authenticationSettings;
-        this.accountProvider = accountProvider;
+        this.requestAuthenticator = requestAuthenticator;
         this.attributeManager = attributeManager;
     }
 
     @InvokerRequest(InvokerRequest.Type.AUTHENTICATOR)
     public RequestAuthenticator getAuthenticatedAccountId() {
-        return new GuestAuthenticationRequestAuthenticator(authorizationContext, sessionManager, authenticationSettings,
-                accountProvider);
+        return requestAuthenticator;
     }
 
     @InvokerRequest(InvokerRequest.Type.PREPARE_CHANGE_ROUTING_ID)
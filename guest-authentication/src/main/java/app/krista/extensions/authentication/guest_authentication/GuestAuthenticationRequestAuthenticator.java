@@ -19,6 +19,8 @@
 package app.krista.extensions.authentication.guest_authentication;
 
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import javax.inject.Inject;
 import app.krista.extension.authorization.MustAuthenticateException;
 import app.krista.extension.authorization.MustAuthorizeException;
 import app.krista.extension.authorization.RequestAuthenticator;
@@ -27,33 +29,140 @@ import app.krista.extension.common.EmailAddresses;
 import app.krista.extension.request.ProtoRequest;
 import app.krista.extension.request.ProtoResponse;
 import app.krista.extension.request.protos.http.HttpRequest;
+import app.krista.extensions.authentication.guest_authentication.session.AccountExistenceCache;
+import app.krista.extensions.authentication.guest_authentication.session.GatewayCredentials;
+import app.krista.extensions.authentication.guest_authentication.session.RouteClassifier;
+import app.krista.extensions.authentication.guest_authentication.session.RouteClassifier.Route;
+import app.krista.extensions.authentication.guest_authentication.session.SessionAccountCache;
+import app.krista.extensions.authentication.guest_authentication.session.SessionCredentialExtractor;
+import app.krista.extensions.authentication.guest_authentication.session.SessionDebugSettings;
+import app.krista.extensions.authentication.guest_authentication.util.AuthEventLogger;
 import app.krista.extensions.authentication.guest_authentication.util.Constants;
-import app.krista.ksdk.accounts.AccountProvider;
+import app.krista.extensions.authentication.guest_authentication.util.SingleFlight;
 import app.krista.ksdk.authentication.AuthenticationSettings;
 import app.krista.ksdk.authentication.SessionManager;
 import app.krista.ksdk.context.AuthorizationContext;
 import app.krista.model.field.NamedField;
+import org.glassfish.hk2.api.PostConstruct;
+import org.glassfish.hk2.api.PreDestroy;
+import org.jvnet.hk2.annotations.ContractsProvided;
+import org.jvnet.hk2.annotations.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import javax.ws.rs.core.MultivaluedMap;
 
+import static app.krista.extensions.authentication.guest_authentication.util.AuthEventLogger.Event.*;
+
+/**
+ * Resolves the account of guest requests from their client session id.
+ * <p>
+ * A single instance serves all requests of the invoker; it owns the session lookup coalescing and the request
+ * metrics, so nothing is rebuilt per request. {@link #start()} and {@link #stop()} are invoked by the service locator.
+ */
+@Service
+@ContractsProvided(GuestAuthenticationRequestAuthenticator.class)
 @SuppressWarnings("deprecation")
-public class GuestAuthenticationRequestAuthenticator implements RequestAuthenticator {
+public class GuestAuthenticationRequestAuthenticator implements RequestAuthenticator, PostConstruct, PreDestroy {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(GuestAuthenticationRequestAuthenticator.class);
+    private static final AuthEventLogger EVENTS = new AuthEventLogger(GuestAuthenticationRequestAuthenticator.class);
 
     private final AuthorizationContext authorizationContext;
     private final SessionManager sessionManager;
     private final AuthenticationSettings authenticationSettings;
-    private final AccountProvider accountProvider;
+    private final AccountExistenceCache accountExistenceCache;
+    private final SessionAccountCache sessionAccountCache;
+    private final GatewayCredentials gatewayCredentials;
+    private final SessionDebugSettings sessionDebugSettings;
+    private final boolean streamingSafe;
+    // Parallel requests of a freshly loaded chat page carry the same session id; resolve it only once.
+    private final SingleFlight<String, String> sessionLookups = new SingleFlight<>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder sessionCacheHits = new LongAdder();
+    private final LongAdder anonymousRoutes = new LongAdder();
+    private final LongAdder loginRoutes = new LongAdder();
+    private final LongAdder unauthenticated = new LongAdder();
+    private final LongAdder failures = new LongAdder();
 
+    @Inject
     public GuestAuthenticationRequestAuthenticator(AuthorizationContext authorizationContext,
             SessionManager sessionManager, AuthenticationSettings authenticationSettings,
-            AccountProvider accountProvider) {
+            AccountExistenceCache accountExistenceCache, SessionAccountCache sessionAccountCache,
+            GatewayCredentials gatewayCredentials, SessionDebugSettings sessionDebugSettings) {
+        this(authorizationContext, sessionManager, authenticationSettings, accountExistenceCache, sessionAccountCache,
+                gatewayCredentials, sessionDebugSettings, true);
+    }
+
+    /**
+     * @param streamingSafe when true, credentials are resolved from headers, cookies and the query string only and
+     *         the request body is buffered solely for routes that read it; when false the body of every request
+     *         that needs session resolution is buffered
+     */
+    public GuestAuthenticationRequestAuthenticator(AuthorizationContext authorizationContext,
+            SessionManager sessionManager, AuthenticationSettings authenticationSettings,
+            AccountExistenceCache accountExistenceCache, SessionAccountCache sessionAccountCache,
+            GatewayCredentials gatewayCredentials, SessionDebugSettings sessionDebugSettings, boolean streamingSafe) {
         this.authorizationContext = authorizationContext;
         this.sessionManager = sessionManager;
         this.authenticationSettings = authenticationSettings;
-        this.accountProvider = accountProvider;
+        this.accountExistenceCache = accountExistenceCache;
+        this.sessionAccountCache = sessionAccountCache;
+        this.gatewayCredentials = gatewayCredentials;
+        this.sessionDebugSettings = sessionDebugSettings;
+        this.streamingSafe = streamingSafe;
+    }
+
+    @Override
+    public void postConstruct() {
+        start();
+    }
+
+    @Override
+    public void preDestroy() {
+        stop();
+    }
+
+    public void start() {
+        LOGGER.info("Guest authenticator started, streaming safe: {}", streamingSafe);
+    }
+
+    public void stop() {
+        LOGGER.info("Guest authenticator stopped after {} requests: {} session cache hits, {} session lookups "
+                        + "({} coalesced), {} anonymous routes, {} login routes, {} unauthenticated, {} failures",
+                getRequestCount(), getSessionCacheHitCount(), sessionLookups.getLoadCount(),
+                sessionLookups.getCoalescedCount(), getAnonymousRouteCount(), getLoginRouteCount(),
+                getUnauthenticatedCount(), getFailureCount());
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    public long getSessionCacheHitCount() {
+        return sessionCacheHits.sum();
+    }
+
+    public long getSessionLookupCount() {
+        return sessionLookups.getLoadCount();
+    }
+
+    public long getCoalescedLookupCount() {
+        return sessionLookups.getCoalescedCount();
+    }
+
+    public long getAnonymousRouteCount() {
+        return anonymousRoutes.sum();
+    }
+
+    public long getLoginRouteCount() {
+        return loginRoutes.sum();
+    }
+
+    public long getUnauthenticatedCount() {
+        return unauthenticated.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
     }
 
     @Override
@@ -68,67 +177,61 @@ public class GuestAuthenticationRequestAuthenticator implements RequestAuthentic
 
     @Override
     public String getAuthenticatedAccountId(ProtoRequest protoRequest) {
+        requests.increment();
         try {
             HttpRequest httpRequest = (HttpRequest) protoRequest;
-            if (Objects.equals("/upsertPersonAttributes", httpRequest.getUri().getPath())) {
+            Route route = RouteClassifier.DEFAULT.classify(httpRequest);
+            if (route == Route.ANONYMOUS || route == Route.PREFLIGHT) {
+                // Widget loaders, static content and preflights never need an account.
+                anonymousRoutes.increment();
+                return null;
+            }
+            if (route == Route.APPLIANCE) {
                 // Because to update user attributes, we need Krista Appliance's account
                 return authorizationContext.getAuthorizedAccount().getAccountId();
             }
+            if (route == Route.GATEWAY) {
+                if (gatewayCredentials.isAuthorized(httpRequest.getHeader(Constants.GATEWAY_TOKEN))) {
+                    return authorizationContext.getAuthorizedAccount().getAccountId();
+                }
+                unauthenticated.increment();
+                return null;
+            }
 
-            httpRequest.bufferBody();
-            String cookie = httpRequest.getHeader(Constants.COOKIE);
-            String clientSessionId = getCookie(cookie, Constants.CHATBOT_SESSION_ID);
-            if (clientSessionId == null) {
-                clientSessionId = getClientSessionIdFromHeaderOrQueryParams(httpRequest);
+            sessionDebugSettings.refresh();
+            if (!streamingSafe || route.requiresBody()) {
+                httpRequest.bufferBody();
             }
+            String clientSessionId = SessionCredentialExtractor.DEFAULT.extract(httpRequest);
             if (!Objects.isNull(clientSessionId)) {
-                String authenticatedAccountId = sessionManager.lookupAccountId(clientSessionId);
-                if (!Objects.isNull(authenticatedAccountId)) {
-                    try {
-                        accountProvider.getAccount(authenticatedAccountId);
-                        LOGGER.info("Got Authenticated AccountId: {}", authenticatedAccountId);
-                        return authenticatedAccountId;
-                    } catch (NoSuchElementException cause) {
-                        LOGGER.error("No such account Id exist: {} with exception: {}", authenticatedAccountId, cause);
+                String cachedAccountId = sessionAccountCache.getAccountId(clientSessionId);
+                if (!Objects.isNull(cachedAccountId)) {
+                    if (accountExistenceCache.exists(cachedAccountId)) {
+                        sessionCacheHits.increment();
+                        return cachedAccountId;
                     }
+                    EVENTS.logSession(ACCOUNT_MISSING, clientSessionId,
+                            "Cached account of clientSessionId: {} no longer exists", clientSessionId);
+                    sessionAccountCache.recordMissing(clientSessionId);
+                    return handleLoginRequest(route);
+                }
+                if (sessionAccountCache.isKnownMissing(clientSessionId)) {
+                    return handleLoginRequest(route);
+                }
+                String authenticatedAccountId =
+                        sessionLookups.run(clientSessionId, () -> resolveAccountId(clientSessionId));
+                if (!Objects.isNull(authenticatedAccountId)) {
+                    return authenticatedAccountId;
                 }
-                LOGGER.info("No account found for clientSessionId: {}", clientSessionId);
             }
-            return handleLoginRequest((HttpRequest) protoRequest);
+            return handleLoginRequest(route);
         } catch (Exception cause) {
+            failures.increment();
             throw new IllegalStateException("Failed to authenticate : Reason: " + cause.getMessage(), cause);
         }
 
     }
 
-    private static String getClientSessionIdFromHeaderOrQueryParams(HttpRequest httpRequest) {
-        String clientSessionId;
-        clientSessionId = httpRequest.getHeader(Constants.CHATBOT_SESSION_ID_HEADER);
-        LOGGER.info("Client Session Id from query param: {}", clientSessionId);
-        if (Objects.isNull(clientSessionId)) {
-            MultivaluedMap<String, String> queryParameters = httpRequest.getQueryParameters();
-            LOGGER.info("queryParams: {}", queryParameters);
-            if (!queryParameters.isEmpty()) {
-                List<String> queryParamSessionId = queryParameters.get("clientSessionId");
-                clientSessionId = (Objects.isNull(queryParamSessionId) || queryParamSessionId.isEmpty()) ? null
-                        : queryParamSessionId.get(0);
-            }
-        }
-        return clientSessionId;
-    }
-
-    private String getCookie(String cookie, String key) {
-        if (!Objects.isNull(cookie)) {
-            String[] cookies = cookie.split(";");
-            for (String c : cookies) {
-                if (c.trim().startsWith(key)) {
-                    return c.split("=")[1];
-                }
-            }
-        }
-        return null;
-    }
-
     @Override
     public boolean setServiceAuthorization(String s) {
         return false;
@@ -159,11 +262,31 @@ public class GuestAuthenticationRequestAuthenticator implements RequestAuthentic
         return null;
     }
 
-    private String handleLoginRequest(HttpRequest protoRequest) {
-        if (Objects.equals("/login", protoRequest.getUri().getPath())) {
-            LOGGER.info("Authorization Context: {}", authorizationContext.getAuthorizedAccount().getAccountId());
-            return authorizationContext.getAuthorizedAccount().getAccountId();
+    private String resolveAccountId(String clientSessionId) {
+        String authenticatedAccountId = sessionManager.lookupAccountId(clientSessionId);
+        if (!Objects.isNull(authenticatedAccountId)) {
+            if (accountExistenceCache.exists(authenticatedAccountId)) {
+                EVENTS.logSession(SESSION_RESOLVED, clientSessionId, "Got Authenticated AccountId: {}",
+                        authenticatedAccountId);
+                sessionAccountCache.put(clientSessionId, authenticatedAccountId);
+                return authenticatedAccountId;
+            }
+            EVENTS.logSession(ACCOUNT_MISSING, clientSessionId, "No such account Id exist: {}", authenticatedAccountId);
+        }
+        EVENTS.logSession(SESSION_UNKNOWN, clientSessionId, "No account found for clientSessionId: {}",
+                clientSessionId);
+        sessionAccountCache.recordMissing(clientSessionId);
+        return null;
+    }
+
+    private String handleLoginRequest(Route route) {
+        if (route == Route.LOGIN) {
+            String accountId = authorizationContext.getAuthorizedAccount().getAccountId();
+            EVENTS.log(LOGIN_ROUTED, "Authorization Context: {}", accountId);
+            loginRoutes.increment();
+            return accountId;
         }
+        unauthenticated.increment();
         return null;
     }
 
@@ -18,6 +18,8 @@
 
 package app.krista.extensions.authentication.guest_authentication.rest;
 
+import java.util.Collection;
+import java.util.Map;
 import app.krista.extension.common.AuthenticationResponse;
 
 
@@ -25,8 +27,39 @@ public interface AccountManager {
 
     void put(String sessionId, AuthenticationResponse authenticationResponse);
 
+    /**
+     * Stores the response in the background. Until the write completes, {@link #get(String)} on this instance
+     * already returns it. If the write is given up, the session has no stored response; callers that find a live
+     * session without one store it again with {@link #put(String, AuthenticationResponse)}.
+     */
+    void putDeferred(String sessionId, AuthenticationResponse authenticationResponse);
+
     AuthenticationResponse get(String sessionId);
 
+    /**
+     * @return account id of the session without decoding its response, or null when the session is unknown
+     */
+    String getAccountId(String sessionId);
+
     void delete(String sessionId);
 
+    /**
+     * Reads the responses of many sessions at once; sessions that are not found are absent from the result.
+     *
+     * @throws IllegalArgumentException if a session id is null; no session is read
+     */
+    BatchResult<AuthenticationResponse> getAll(Collection<String> sessionIds);
+
+    /**
+     * Stores the responses of many sessions at once, each as by {@link #put(String, AuthenticationResponse)}.
+     *
+     * @throws IllegalArgumentException if a session id is null; no session is stored
+     */
+    BatchResult<Void> putAll(Map<String, AuthenticationResponse> authenticationResponses);
+
+    /**
+     * @throws IllegalArgumentException if a session id is null; no session is deleted
+     */
+    BatchResult<Void> deleteAll(Collection<String> sessionIds);
+
 }
@@ -18,41 +18,513 @@
 
 package app.krista.extensions.authentication.guest_authentication.rest;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 import app.krista.extension.common.AuthenticationResponse;
+import app.krista.extension.util.InvokerAttributeProvider;
+import app.krista.extensions.authentication.guest_authentication.util.ExpiringCache;
+import app.krista.extensions.authentication.guest_authentication.util.SessionTimeouts;
 import app.krista.extensions.util.KeyValueStore;
-import com.google.gson.Gson;
+import org.glassfish.hk2.api.PostConstruct;
+import org.glassfish.hk2.api.PreDestroy;
 import org.jvnet.hk2.annotations.ContractsProvided;
 import org.jvnet.hk2.annotations.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
 
+/**
+ * Stores the authentication response of each session in the KeyValueStore, encoded by
+ * {@link AuthenticationResponseCodec}.
+ * <p>
+ * Next to each record, a small account id record under {@value #ACCOUNT_ID_KEY_PREFIX} and the session id lets
+ * {@link #getAccountId(String)} skip decoding the response. Both are written and deleted together.
+ * <p>
+ * Records expire with the session cookie: each is stored as {@value #EXPIRING_RECORD}, its expiry in epoch millis and
+ * the encoded response. Expired records are never returned and are deleted in the background by a
+ * {@link SessionRecordSweeper}. Records written before expiries existed, or while the session timeout is zero, do not
+ * expire.
+ * <p>
+ * Decoded responses are kept in a near cache, populated by writes and reads and invalidated by deletes, for at most
+ * the session cookie max-age. Returned responses are shared and must not be modified. A session deleted through
+ * another extension instance stays in this instance's near cache until the entry expires.
+ * <p>
+ * Every write and delete is first recorded as the pending state of its session, and reads are answered from there
+ * until it lands in the KeyValueStore. Responses stored through {@link #putDeferred(String, AuthenticationResponse)}
+ * stay pending until the background write completes. No lock is held around KeyValueStore calls: an operation that
+ * replaces a pending state links itself to it, and a write that finds itself replaced once it lands writes the latest
+ * state again, so a late background write never brings back a session that was deleted or overwritten meanwhile.
+ * <p>
+ * Batch operations fan out over at most {@value #BATCH_PARALLELISM} threads shared by all batches, with the calling
+ * thread taking part, since the KeyValueStore has no batch calls of its own.
+ */
 @Service
 @ContractsProvided(AccountManager.class)
-public class AccountManagerImpl implements AccountManager {
+public class AccountManagerImpl implements AccountManager, PostConstruct, PreDestroy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccountManagerImpl.class);
 
+    static final String EXPIRING_RECORD = "e1:";
+    static final String ACCOUNT_ID_KEY_PREFIX = "accountId:";
+    private static final int GENERATION_STRIPES = 64;
+    static final int NEAR_CACHE_MAX_ENTRIES = 20_000;
+    // Weight is measured in chars of the response, roughly 8 MB of string data.
+    static final long NEAR_CACHE_MAX_WEIGHT = 4L * 1024 * 1024;
+    static final int BATCH_PARALLELISM = 8;
 
     private final KeyValueStore keyValueStore;
-    private final Gson gson;
+    private final DeferredTasks deferredTasks;
+    private final InvokerAttributeProvider<Double> sessionTimeout;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService batchExecutor;
+    private final LongSupplier millisClock;
+    private final SessionRecordSweeper sweeper;
+    private final ConcurrentMap<String, Pending> pendingWrites = new ConcurrentHashMap<>();
+    private final ExpiringCache<String, AuthenticationResponse> nearCache;
+    // Bumped by every write and delete once it is pending, so a read racing them does not cache a stale response.
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
     @Inject
-    public AccountManagerImpl(KeyValueStore keyValueStore) {
+    public AccountManagerImpl(KeyValueStore keyValueStore, DeferredTasks deferredTasks,
+            InvokerAttributeProvider<Double> sessionTimeout) {
+        this(keyValueStore, deferredTasks, sessionTimeout, newScheduler(), newBatchExecutor(),
+                System::currentTimeMillis);
+    }
+
+    AccountManagerImpl(KeyValueStore keyValueStore, DeferredTasks deferredTasks,
+            InvokerAttributeProvider<Double> sessionTimeout, ScheduledExecutorService scheduler,
+            ExecutorService batchExecutor, LongSupplier millisClock) {
         this.keyValueStore = keyValueStore;
-        this.gson = new Gson();
+        this.deferredTasks = deferredTasks;
+        this.sessionTimeout = sessionTimeout;
+        this.scheduler = scheduler;
+        this.batchExecutor = batchExecutor;
+        this.millisClock = millisClock;
+        this.sweeper = new SessionRecordSweeper(keyValueStore, this::removeIfExpired, millisClock);
+        this.nearCache = new ExpiringCache<>(NEAR_CACHE_MAX_ENTRIES, NEAR_CACHE_MAX_WEIGHT,
+                SessionTimeouts.DEFAULT_MAX_AGE_IN_SECONDS, TimeUnit.SECONDS, AccountManagerImpl::weigh);
+    }
+
+    @Override
+    public void postConstruct() {
+        scheduler.scheduleWithFixedDelay(sweeper::tick, SessionRecordSweeper.TICK_SECONDS,
+                SessionRecordSweeper.TICK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void preDestroy() {
+        scheduler.shutdownNow();
+        batchExecutor.shutdownNow();
+        try {
+            sweeper.retire();
+        } catch (RuntimeException cause) {
+            LOGGER.warn("Failed to save pending session record registrations: {}", cause.getMessage());
+        }
     }
 
     @Override
     public void put(String sessionId, AuthenticationResponse authenticationResponse) {
-        String authResponse = gson.toJson(authenticationResponse);
-        keyValueStore.put(sessionId, authResponse);
+        long maxAgeMillis = getMaxAgeMillis();
+        long expiresAt = maxAgeMillis > 0 ? millisClock.getAsLong() + maxAgeMillis : 0;
+        String authResponse = toRecord(AuthenticationResponseCodec.encode(authenticationResponse), expiresAt);
+        String accountIdRecord = toRecord(authenticationResponse.getAccountId(), expiresAt);
+        Pending pending = new Pending(authResponse, accountIdRecord);
+        replace(sessionId, pending);
+        cache(sessionId, authenticationResponse, maxAgeMillis);
+        landOrForget(sessionId, pending);
+        register(sessionId, expiresAt);
+    }
+
+    @Override
+    public void putDeferred(String sessionId, AuthenticationResponse authenticationResponse) {
+        long maxAgeMillis = getMaxAgeMillis();
+        long expiresAt = maxAgeMillis > 0 ? millisClock.getAsLong() + maxAgeMillis : 0;
+        String authResponse = toRecord(AuthenticationResponseCodec.encode(authenticationResponse), expiresAt);
+        String accountIdRecord = toRecord(authenticationResponse.getAccountId(), expiresAt);
+        Pending pending = new Pending(authResponse, accountIdRecord);
+        replace(sessionId, pending);
+        cache(sessionId, authenticationResponse, maxAgeMillis);
+        register(sessionId, expiresAt);
+        deferredTasks.run("store authentication response of session " + sessionId,
+                () -> write(sessionId, pending),
+                () -> forget(sessionId, pending));
     }
 
     @Override
     public AuthenticationResponse get(String sessionId) {
-        String authResponse = (String) keyValueStore.get(sessionId);
-        return gson.fromJson(authResponse, AuthenticationResponse.class);
+        AuthenticationResponse cached = nearCache.get(sessionId);
+        if (cached != null) {
+            return cached;
+        }
+        int stripe = stripeOf(sessionId);
+        long generation = generations.get(stripe);
+        Pending pending = pendingWrites.get(sessionId);
+        String authResponse = pending != null ? pending.record : (String) keyValueStore.get(sessionId);
+        long expiresAt = expiresAt(authResponse);
+        long remainingMillis = expiresAt > 0 ? expiresAt - millisClock.getAsLong() : Long.MAX_VALUE;
+        if (remainingMillis <= 0) {
+            return null;
+        }
+        AuthenticationResponse authenticationResponse = AuthenticationResponseCodec.decode(payload(authResponse));
+        if (authenticationResponse != null) {
+            cache(sessionId, authenticationResponse, Math.min(getMaxAgeMillis(), remainingMillis));
+            if (generations.get(stripe) != generation) {
+                // A write or delete became pending meanwhile; its own cache update may have come first.
+                nearCache.invalidate(sessionId);
+            }
+        }
+        return authenticationResponse;
+    }
+
+    @Override
+    public String getAccountId(String sessionId) {
+        AuthenticationResponse cached = nearCache.get(sessionId);
+        if (cached != null) {
+            return cached.getAccountId();
+        }
+        if (!pendingWrites.containsKey(sessionId)) {
+            String accountIdRecord = (String) keyValueStore.get(accountIdKey(sessionId));
+            if (accountIdRecord != null) {
+                long expiresAt = expiresAt(accountIdRecord);
+                return expiresAt > 0 && expiresAt <= millisClock.getAsLong() ? null : payload(accountIdRecord);
+            }
+        }
+        // Pending writes and records stored before the account id record existed.
+        AuthenticationResponse authenticationResponse = get(sessionId);
+        return authenticationResponse == null ? null : authenticationResponse.getAccountId();
     }
 
     @Override
     public void delete(String sessionId) {
-        keyValueStore.remove(sessionId);
+        Pending deletion = new Pending(null, null);
+        replace(sessionId, deletion);
+        nearCache.invalidate(sessionId);
+        landOrForget(sessionId, deletion);
+    }
+
+    @Override
+    public BatchResult<AuthenticationResponse> getAll(Collection<String> sessionIds) {
+        return fanOut(sessionIds, this::get);
+    }
+
+    @Override
+    public BatchResult<Void> putAll(Map<String, AuthenticationResponse> authenticationResponses) {
+        return fanOut(authenticationResponses.keySet(), sessionId -> {
+            put(sessionId, authenticationResponses.get(sessionId));
+            return null;
+        });
+    }
+
+    @Override
+    public BatchResult<Void> deleteAll(Collection<String> sessionIds) {
+        return fanOut(sessionIds, sessionId -> {
+            delete(sessionId);
+            return null;
+        });
+    }
+
+    /**
+     * @return number of expired session records deleted by the sweeper
+     */
+    public long getExpiredRecordCount() {
+        return sweeper.getSweptCount();
+    }
+
+    public long getNearCacheHitCount() {
+        return nearCache.getHitCount();
+    }
+
+    public long getNearCacheMissCount() {
+        return nearCache.getMissCount();
+    }
+
+    public long getNearCacheEvictionCount() {
+        return nearCache.getEvictionCount();
+    }
+
+    private void write(String sessionId, Pending pending) {
+        // A pending state replaced before its write started is left to the operation that replaced it.
+        if (pendingWrites.get(sessionId) == pending) {
+            land(sessionId, pending);
+        }
+    }
+
+    /**
+     * Deletes the record of the session if it has expired.
+     *
+     * @return true if an expired record was deleted
+     */
+    boolean removeIfExpired(String sessionId) {
+        int stripe = stripeOf(sessionId);
+        long generation = generations.get(stripe);
+        if (pendingWrites.containsKey(sessionId)) {
+            return false;
+        }
+        String authResponse = (String) keyValueStore.get(sessionId);
+        long expiresAt = expiresAt(authResponse);
+        if (authResponse == null || expiresAt <= 0 || expiresAt > millisClock.getAsLong()) {
+            return false;
+        }
+        Pending deletion = new Pending(null, null);
+        if (pendingWrites.putIfAbsent(sessionId, deletion) != null) {
+            return false;
+        }
+        if (generations.get(stripe) != generation) {
+            // Stored again after the expired record was read.
+            pendingWrites.remove(sessionId, deletion);
+            return false;
+        }
+        generations.incrementAndGet(stripe);
+        nearCache.invalidate(sessionId);
+        landOrForget(sessionId, deletion);
+        return true;
+    }
+
+    // Makes the state pending; the replaced state learns about it before this one touches the KeyValueStore.
+    private void replace(String sessionId, Pending pending) {
+        Pending replaced = pendingWrites.put(sessionId, pending);
+        if (replaced != null) {
+            replaced.successor = pending;
+        }
+        generations.incrementAndGet(stripeOf(sessionId));
+    }
+
+    private void land(String sessionId, Pending pending) {
+        store(sessionId, pending);
+        if (pendingWrites.remove(sessionId, pending)) {
+            return;
+        }
+        // Replaced meanwhile. A successor not linked yet has not written; a linked one may have landed before this
+        // write, so the latest linked state is written again.
+        for (Pending successor = pending.successor; successor != null; successor = successor.successor) {
+            store(sessionId, successor);
+        }
+    }
+
+    private void landOrForget(String sessionId, Pending pending) {
+        try {
+            land(sessionId, pending);
+        } catch (RuntimeException cause) {
+            forget(sessionId, pending);
+            throw cause;
+        }
+    }
+
+    private void forget(String sessionId, Pending pending) {
+        // The cached response of a write that never landed must not outlive it.
+        if (pendingWrites.remove(sessionId, pending)) {
+            generations.incrementAndGet(stripeOf(sessionId));
+            nearCache.invalidate(sessionId);
+        }
+    }
+
+    /**
+     * Runs the operation for every session id on up to {@link #BATCH_PARALLELISM} workers pulling from a shared
+     * cursor. The calling thread is one of them, so the batch completes even if no pool thread is free. A null session
+     * id is rejected before any session is touched, as the result could not report it.
+     */
+    private <T> BatchResult<T> fanOut(Collection<String> sessionIds, Function<String, T> operation) {
+        List<String> ids = new ArrayList<>(sessionIds);
+        if (ids.contains(null)) {
+            throw new IllegalArgumentException("Batch session ids must not be null.");
+        }
+        Map<String, T> values = new ConcurrentHashMap<>();
+        Map<String, RuntimeException> failures = new ConcurrentHashMap<>();
+        AtomicInteger cursor = new AtomicInteger();
+        CountDownLatch completed = new CountDownLatch(ids.size());
+        Runnable worker = () -> {
+            for (int i = cursor.getAndIncrement(); i < ids.size(); i = cursor.getAndIncrement()) {
+                String sessionId = ids.get(i);
+                try {
+                    T value = operation.apply(sessionId);
+                    if (value != null) {
+                        values.put(sessionId, value);
+                    }
+                } catch (RuntimeException cause) {
+                    failures.put(sessionId, cause);
+                } finally {
+                    completed.countDown();
+                }
+            }
+        };
+        int helpers = Math.min(BATCH_PARALLELISM, ids.size()) - 1;
+        for (int i = 0; i < helpers; i++) {
+            try {
+                batchExecutor.execute(worker);
+            } catch (RejectedExecutionException cause) {
+                // Pool busy with other batches; the workers already running take over.
+                break;
+            }
+        }
+        worker.run();
+        awaitUninterruptibly(completed);
+        if (!failures.isEmpty()) {
+            LOGGER.warn("Batch operation failed for {} of {} sessions", failures.size(), ids.size());
+        }
+        return new BatchResult<>(values, failures);
+    }
+
+    // Sessions claimed by pool workers are in flight; returning early would report them as neither done nor failed.
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException cause) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    SessionRecordSweeper getSweeper() {
+        return sweeper;
+    }
+
+    // A reader that misses the account id record falls back to the primary one.
+    private void store(String sessionId, Pending pending) {
+        if (pending.record == null) {
+            keyValueStore.remove(accountIdKey(sessionId));
+            keyValueStore.remove(sessionId);
+            return;
+        }
+        keyValueStore.put(sessionId, pending.record);
+        if (pending.accountIdRecord != null) {
+            keyValueStore.put(accountIdKey(sessionId), pending.accountIdRecord);
+        }
+    }
+
+    private void register(String sessionId, long expiresAt) {
+        if (expiresAt > 0) {
+            sweeper.register(sessionId, expiresAt);
+        }
+    }
+
+    private void cache(String sessionId, AuthenticationResponse authenticationResponse, long ttlMillis) {
+        nearCache.put(sessionId, authenticationResponse, ttlMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private long getMaxAgeMillis() {
+        return TimeUnit.SECONDS.toMillis(SessionTimeouts.getMaxAgeInSeconds(sessionTimeout.get()));
+    }
+
+    private static String toRecord(String encoded, long expiresAt) {
+        if (encoded == null) {
+            return null;
+        }
+        return expiresAt > 0 ? EXPIRING_RECORD + expiresAt + ":" + encoded : encoded;
+    }
+
+    private static String accountIdKey(String sessionId) {
+        return ACCOUNT_ID_KEY_PREFIX + sessionId;
+    }
+
+    /**
+     * @return expiry of the record in epoch millis, 0 if it does not expire
+     */
+    private static long expiresAt(String record) {
+        if (record == null || !record.startsWith(EXPIRING_RECORD)) {
+            return 0;
+        }
+        return Long.parseLong(record, EXPIRING_RECORD.length(), record.indexOf(':', EXPIRING_RECORD.length()), 10);
+    }
+
+    private static String payload(String record) {
+        if (record == null || !record.startsWith(EXPIRING_RECORD)) {
+            return record;
+        }
+        return record.substring(record.indexOf(':', EXPIRING_RECORD.length()) + 1);
+    }
+
+    private static ScheduledExecutorService newScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "guest-auth-session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static ExecutorService newBatchExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(BATCH_PARALLELISM, BATCH_PARALLELISM, 60,
+                TimeUnit.SECONDS, new ArrayBlockingQueue<>(BATCH_PARALLELISM * 4), runnable -> {
+                    Thread thread = new Thread(runnable, "guest-auth-session-batch");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static int stripeOf(String sessionId) {
+        int hash = sessionId.hashCode();
+        return (hash ^ (hash >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    // Approximate chars held by the response; each map and list entry also counts a few chars of overhead.
+    private static long weigh(String sessionId, AuthenticationResponse response) {
+        long weight = sessionId.length() + length(response.getClientSessionId()) + length(response.getName())
+                + length(response.getAvatarUrl()) + length(response.getAccountId())
+                + length(response.getKristaAccountId()) + length(response.getPersonId())
+                + length(response.getInboxId());
+        List<String> roles = response.getRoles();
+        if (roles != null) {
+            for (String role : roles) {
+                weight += length(role) + 4;
+            }
+        }
+        Map<String, String> identificationToken = response.getIdentificationToken();
+        if (identificationToken != null) {
+            for (Map.Entry<String, String> entry : identificationToken.entrySet()) {
+                weight += length(entry.getKey()) + length(entry.getValue()) + 8;
+            }
+        }
+        Map<String, Object> extras = response.getExtras();
+        if (extras != null) {
+            for (Map.Entry<String, Object> entry : extras.entrySet()) {
+                Object value = entry.getValue();
+                weight += length(entry.getKey()) + (value instanceof String ? ((String) value).length() : 16) + 8;
+            }
+        }
+        return weight;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    /**
+     * State of a session that is not yet in the KeyValueStore: the records to store, or null records for a delete.
+     */
+    private static final class Pending {
+
+        private final String record;
+        private final String accountIdRecord;
+        // Set by the operation that replaced this state, before it touches the KeyValueStore.
+        private volatile Pending successor;
+
+        private Pending(String record, String accountIdRecord) {
+            this.record = record;
+            this.accountIdRecord = accountIdRecord;
+        }
     }
 
 }
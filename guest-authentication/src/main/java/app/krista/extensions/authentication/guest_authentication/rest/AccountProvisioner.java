@@ -19,18 +19,22 @@
 package app.krista.extensions.authentication.guest_authentication.rest;
 
 import java.text.DateFormat;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import app.krista.extension.authorization.AuthorizationException;
+import app.krista.extension.common.CommonUtils;
 import app.krista.extension.common.EmailAddresses;
 import app.krista.extension.executor.Invoker;
+import app.krista.extensions.authentication.guest_authentication.util.ExpiringCache;
 import app.krista.ksdk.accounts.Account;
 import app.krista.ksdk.accounts.AccountManager;
 import app.krista.ksdk.accounts.ModifiableAccount;
+import app.krista.ksdk.authentication.AuthenticationSettings;
 import app.krista.ksdk.authorization.ModifiableRole;
 import app.krista.ksdk.authorization.Role;
-import app.krista.ksdk.authorization.RoleManager;
 import app.krista.omni.sdk.spi.impl.services.AccountService;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
@@ -42,44 +46,132 @@ import static app.krista.extensions.authentication.guest_authentication.rest.Gue
 
 /**
  * Create or fetch workspace account with given IdentificationToken.
+ * <p>
+ * Generated guest identities are provisioned by a fast strategy that skips the account lookup, the domain validation
+ * and the role merge, none of which can change the outcome for an address that did not exist a moment ago. Every other
+ * identity goes through the full returning identity strategy.
  */
 @Service
 public final class AccountProvisioner {
 
+    private static final String LAST_LOGIN_ATTRIBUTE = "KRISTA_LAST_LOGIN";
+
     private final AccountManager accountManager;
-    private final RoleManager roleManager;
+    private final RoleIndex roleIndex;
     private final Invoker invoker;
+    private final AuthenticationSettings authenticationSettings;
+    private final GuestAuthenticationRoleManager roleManager;
+    private final ProvisioningStrategy returningIdentityStrategy;
+    private final List<ProvisioningStrategy> strategies;
 
     private final Map<String, Object> defaultAttributes = Map.of("ORG", "KristaSoft",
             "KRISTA_SOURCE", "Omni Chatbot",
             "SOURCE", "OMNI");
 
     @Inject
-    public AccountProvisioner(AccountManager accountManager, RoleManager roleManager, Invoker invoker) {
+    public AccountProvisioner(AccountManager accountManager, RoleIndex roleIndex, Invoker invoker,
+            AuthenticationSettings authenticationSettings, GuestAuthenticationRoleManager roleManager) {
         this.accountManager = accountManager;
-        this.roleManager = roleManager;
+        this.roleIndex = roleIndex;
         this.invoker = invoker;
+        this.authenticationSettings = authenticationSettings;
+        this.roleManager = roleManager;
+        this.returningIdentityStrategy = new ReturningIdentityStrategy();
+        this.strategies = List.of(new GeneratedGuestStrategy(), returningIdentityStrategy);
     }
 
     public AccountManager getAccountManager() {
         return accountManager;
     }
 
-    public Account provisionAccount(String emailAddress) {
-        String assignedRole = createRoleIfNotPresent();
-        ModifiableAccount modifiableAccount = accountManager.lookupAccount(emailAddress);
-        List<String> roleNames = ensureHasAllRoles(modifiableAccount, assignedRole);
-        if (modifiableAccount == null) {
-            modifiableAccount = accountManager.createAccount(EmailAddresses.getLocalPart(emailAddress),
-                    EmailAddresses.normalizeEmailAddress(emailAddress),
-                    new LinkedHashSet<>(roleNames), getAttributes());
+    /**
+     * Creates a new guest account with a generated {@code guest_<uuid>} email address, adding its domain to the
+     * workspace first if needed.
+     *
+     * @param omni true for guests coming through an Omni source, which use the Omni supported domain
+     */
+    public ProvisionedAccount provisionGuestAccount(boolean omni) throws AuthorizationException {
+        return provision(GuestIdentity.generate(omni));
+    }
+
+    public ProvisionedAccount provision(GuestIdentity identity) throws AuthorizationException {
+        ProvisioningStrategy strategy = strategyFor(identity);
+        return new ProvisionedAccount(strategy.provision(identity), strategy);
+    }
+
+    /**
+     * @return the existing account of a returning visitor, or null if it no longer exists
+     */
+    public ProvisionedAccount resume(String accountId) {
+        ModifiableAccount account;
+        try {
+            account = accountManager.getAccount(accountId);
+        } catch (NoSuchElementException cause) {
+            return null;
         }
-        return modifiableAccount;
+        return account == null ? null : new ProvisionedAccount(account, returningIdentityStrategy);
+    }
+
+    /**
+     * @return the first registered strategy supporting the identity
+     */
+    public ProvisioningStrategy strategyFor(GuestIdentity identity) {
+        for (ProvisioningStrategy strategy : strategies) {
+            if (strategy.supports(identity)) {
+                return strategy;
+            }
+        }
+        throw new IllegalStateException("No provisioning strategy for " + identity);
+    }
+
+    /**
+     * Records the current time as the last login of an account that was provisioned ahead of its first login.
+     */
+    public void stampLastLogin(String accountId) {
+        accountManager.getAccount(accountId).updateAttributeValue(LAST_LOGIN_ATTRIBUTE, getCurrentDateTime());
+    }
+
+    /**
+     * @return time of the last login recorded in the {@value #LAST_LOGIN_ATTRIBUTE} attribute of the account, or 0 if
+     *         the attribute is missing or cannot be parsed
+     * @throws NoSuchElementException if the account does not exist
+     */
+    public long getLastLoginMillis(String accountId) {
+        ModifiableAccount account = accountManager.getAccount(accountId);
+        if (account == null) {
+            throw new NoSuchElementException("No account " + accountId);
+        }
+        Object lastLogin = account.getAttributeValue(LAST_LOGIN_ATTRIBUTE);
+        if (lastLogin instanceof Date) {
+            return ((Date) lastLogin).getTime();
+        }
+        if (lastLogin instanceof Number) {
+            return ((Number) lastLogin).longValue();
+        }
+        if (lastLogin instanceof String && !((String) lastLogin).isBlank()) {
+            try {
+                return newDateFormat().parse(((String) lastLogin).trim()).getTime();
+            } catch (ParseException cause) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return key identifying the role and attribute configuration new accounts are currently provisioned with
+     */
+    public String getProvisioningProfile() {
+        return getDefaultRole() + '\n' + invoker.getAttributes().getOrDefault(ATTRIBUTE_PARAMETERS, "");
+    }
+
+    public Account provisionAccount(String emailAddress) {
+        return provision(GuestIdentity.of(emailAddress)).getAccount();
     }
 
     private Map<String, Object> getAttributes() {
         Map<String, Object> userAttributes = new HashMap<>();
-        userAttributes.put("KRISTA_LAST_LOGIN", getCurrentDateTime());
+        userAttributes.put(LAST_LOGIN_ATTRIBUTE, getCurrentDateTime());
         userAttributes.putAll(defaultAttributes);
 
         Map<String, Object> attributes = invoker.getAttributes();
@@ -99,22 +191,10 @@ public final class AccountProvisioner {
         return userAttributes;
     }
 
-    private List<String> ensureHasAllRoles(ModifiableAccount modifiableAccount, String roles)
+    private List<String> ensureHasAllRoles(ModifiableAccount modifiableAccount, ModifiableRole assignedRole)
             throws AuthorizationException {
         List<String> allRoles = new ArrayList<>();
-        Iterable<ModifiableRole> workspaceRoles = roleManager.getRoles();
-        boolean roleExit = false;
-        for (ModifiableRole workspaceRole : workspaceRoles) {
-            if (Objects.equals(roles, workspaceRole.getName())) {
-                allRoles.add(workspaceRole.getRoleId());
-                roleExit = true;
-                break;
-            }
-        }
-        if (!roleExit) {
-            ModifiableRole role = roleManager.createRole(roles);
-            allRoles.add(role.getRoleId());
-        }
+        allRoles.add(assignedRole.getRoleId());
         if (modifiableAccount != null) {
             for (Role role : modifiableAccount.getRoles()) {
                 allRoles.add(role.getRoleId());
@@ -124,23 +204,12 @@ public final class AccountProvisioner {
         return allRoles;
     }
 
-    private String createRoleIfNotPresent() throws AuthorizationException {
-        String defaultRole = getDefaultRole();
-        boolean isRolePresent = isDefaultRolePresentInWorkspace(defaultRole);
-        if (!isRolePresent) {
-            roleManager.createRole(defaultRole);
-        }
-        return defaultRole;
-    }
-
-    private boolean isDefaultRolePresentInWorkspace(String defaultRole) throws AuthorizationException {
-        Iterable<ModifiableRole> roles = roleManager.getRoles();
-        for (ModifiableRole role : roles) {
-            if (Objects.equals(defaultRole, role.getName())) {
-                return true;
-            }
-        }
-        return false;
+    private void addDomainToWorkspaceIfNotPresent(String email) throws AuthorizationException {
+        List<String> supportedDomainsForWorkspace = authenticationSettings.getSupportedDomains();
+        String supportedDomain = String.join(",", supportedDomainsForWorkspace);
+        String invokerDomains = EmailAddresses.getDomainName(email);
+        CommonUtils.validateIfSupportedDomain(email, supportedDomain, invokerDomains);
+        CommonUtils.addSupportedDomainsToWorkspace(email, supportedDomainsForWorkspace, authenticationSettings);
     }
 
     private String getDefaultRole() {
@@ -153,9 +222,83 @@ public final class AccountProvisioner {
     }
 
     private String getCurrentDateTime() {
+        return newDateFormat().format(Calendar.getInstance().getTime());
+    }
+
+    private static DateFormat newDateFormat() {
         DateFormat dateFormat = new SimpleDateFormat(AccountService.DATE_FORMAT);
         dateFormat.setTimeZone(TimeZone.getTimeZone(AccountService.GMT));
-        return dateFormat.format(Calendar.getInstance().getTime());
+        return dateFormat;
+    }
+
+    /**
+     * Provisions any email address: the domain is validated and added to the workspace, an existing account is looked
+     * up and given the default role, and a missing one is created.
+     */
+    private final class ReturningIdentityStrategy implements ProvisioningStrategy {
+
+        @Override
+        public boolean supports(GuestIdentity identity) {
+            return true;
+        }
+
+        @Override
+        public Account provision(GuestIdentity identity) throws AuthorizationException {
+            String emailAddress = identity.getEmailAddress();
+            addDomainToWorkspaceIfNotPresent(emailAddress);
+            ModifiableRole assignedRole = roleIndex.findOrCreate(getDefaultRole());
+            ModifiableAccount modifiableAccount = accountManager.lookupAccount(emailAddress);
+            List<String> roleNames = ensureHasAllRoles(modifiableAccount, assignedRole);
+            if (modifiableAccount == null) {
+                modifiableAccount = accountManager.createAccount(EmailAddresses.getLocalPart(emailAddress),
+                        EmailAddresses.normalizeEmailAddress(emailAddress),
+                        new LinkedHashSet<>(roleNames), getAttributes());
+            }
+            return modifiableAccount;
+        }
+
+        @Override
+        public boolean isWorkspaceAdmin(Account account) {
+            return roleManager.hasAdminRole(account);
+        }
+    }
+
+    /**
+     * Provisions identities from {@link GuestIdentity#generate(boolean)}. The address is well formed, lower case and
+     * unused, so the account is created directly with only the default role. Its domain is one of two constants; the
+     * workspace is checked for it at most once per {@value #DOMAIN_CHECK_TTL_SECONDS} seconds, so a domain removed by
+     * an administrator is added back. Such accounts are never workspace admins.
+     */
+    private final class GeneratedGuestStrategy implements ProvisioningStrategy {
+
+        private static final long DOMAIN_CHECK_TTL_SECONDS = 60;
+
+        private final ExpiringCache<String, Boolean> supportedDomains = new ExpiringCache<>(64, 64,
+                DOMAIN_CHECK_TTL_SECONDS, TimeUnit.SECONDS, (domain, supported) -> 1);
+
+        @Override
+        public boolean supports(GuestIdentity identity) {
+            return identity.isGenerated();
+        }
+
+        @Override
+        public Account provision(GuestIdentity identity) throws AuthorizationException {
+            String emailAddress = identity.getEmailAddress();
+            String domain = EmailAddresses.getDomainName(emailAddress);
+            if (supportedDomains.get(domain) == null) {
+                CommonUtils.addSupportedDomainsToWorkspace(emailAddress, authenticationSettings.getSupportedDomains(),
+                        authenticationSettings);
+                supportedDomains.put(domain, Boolean.TRUE);
+            }
+            ModifiableRole assignedRole = roleIndex.findOrCreate(getDefaultRole());
+            return accountManager.createAccount(EmailAddresses.getLocalPart(emailAddress), emailAddress,
+                    new LinkedHashSet<>(List.of(assignedRole.getRoleId())), getAttributes());
+        }
+
+        @Override
+        public boolean isWorkspaceAdmin(Account account) {
+            return false;
+        }
     }
 
-}
\ No newline at end of file
+}
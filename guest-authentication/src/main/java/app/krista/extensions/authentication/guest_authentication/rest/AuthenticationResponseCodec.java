@@ -0,0 +1,274 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import app.krista.extension.common.AuthenticationResponse;
+import com.google.gson.Gson;
+
+/**
+ * Reflection-free encoding of the {@link AuthenticationResponse} stored for each session.
+ * <p>
+ * Encoded values are {@value #VERSION_1} followed by the base64 of a compact binary layout: the string fields in
+ * declaration order, the two flags in one byte, then the roles, identification token and extras. Strings and
+ * collection sizes are prefixed by a varint of their length plus one, with 0 meaning null. Extras values that are
+ * strings, booleans or numbers are tagged inline; any other value is embedded as JSON. Values without the prefix are
+ * entries written before the codec existed and are read as Gson JSON.
+ * <p>
+ * Decoded collections are mutable, as they were when read through Gson. Numbers in the extras decode as doubles, also
+ * as before.
+ */
+public final class AuthenticationResponseCodec {
+
+    static final String VERSION_1 = "b1:";
+
+    private static final Gson GSON = new Gson();
+    private static final int WORKSPACE_ADMIN = 1;
+    private static final int APPLIANCE_MANAGER = 2;
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte TRUE = 2;
+    private static final byte FALSE = 3;
+    private static final byte NUMBER = 4;
+    private static final byte JSON = 5;
+
+    private AuthenticationResponseCodec() {
+        throw new IllegalStateException("Invalid access to utility class");
+    }
+
+    public static String encode(AuthenticationResponse response) {
+        Writer writer = new Writer();
+        writer.string(response.getClientSessionId());
+        writer.string(response.getName());
+        writer.string(response.getAvatarUrl());
+        writer.string(response.getAccountId());
+        writer.string(response.getKristaAccountId());
+        writer.string(response.getPersonId());
+        writer.string(response.getInboxId());
+        writer.flags((response.isWorkspaceAdmin() ? WORKSPACE_ADMIN : 0)
+                | (response.isApplianceManager() ? APPLIANCE_MANAGER : 0));
+        List<String> roles = response.getRoles();
+        writer.size(roles);
+        if (roles != null) {
+            for (String role : roles) {
+                writer.string(role);
+            }
+        }
+        Map<String, String> identificationToken = response.getIdentificationToken();
+        writer.size(identificationToken == null ? null : identificationToken.keySet());
+        if (identificationToken != null) {
+            for (Map.Entry<String, String> entry : identificationToken.entrySet()) {
+                writer.string(entry.getKey());
+                writer.string(entry.getValue());
+            }
+        }
+        Map<String, Object> extras = response.getExtras();
+        writer.size(extras == null ? null : extras.keySet());
+        if (extras != null) {
+            for (Map.Entry<String, Object> entry : extras.entrySet()) {
+                writer.string(entry.getKey());
+                writer.value(entry.getValue());
+            }
+        }
+        return VERSION_1 + Base64.getEncoder().encodeToString(Arrays.copyOf(writer.bytes, writer.length));
+    }
+
+    /**
+     * @param encoded value written by {@link #encode(AuthenticationResponse)} or legacy Gson JSON, may be null
+     * @return decoded response or null for a null value
+     */
+    public static AuthenticationResponse decode(String encoded) {
+        if (encoded == null) {
+            return null;
+        }
+        if (!encoded.startsWith(VERSION_1)) {
+            if (encoded.length() > 2 && encoded.charAt(0) == 'b' && encoded.charAt(2) == ':') {
+                throw new IllegalArgumentException("Unsupported authentication response encoding: "
+                        + encoded.substring(0, 3));
+            }
+            return GSON.fromJson(encoded, AuthenticationResponse.class);
+        }
+        try {
+            return decode(new Reader(Base64.getDecoder().decode(encoded.substring(VERSION_1.length()))));
+        } catch (IndexOutOfBoundsException cause) {
+            throw new IllegalArgumentException("Truncated authentication response.", cause);
+        }
+    }
+
+    private static AuthenticationResponse decode(Reader reader) {
+        String clientSessionId = reader.string();
+        String name = reader.string();
+        String avatarUrl = reader.string();
+        String accountId = reader.string();
+        String kristaAccountId = reader.string();
+        String personId = reader.string();
+        String inboxId = reader.string();
+        int flags = reader.bytes[reader.position++];
+        int roleCount = reader.size();
+        List<String> roles = roleCount < 0 ? null : new ArrayList<>(roleCount);
+        for (int i = 0; i < roleCount; i++) {
+            roles.add(reader.string());
+        }
+        int tokenCount = reader.size();
+        Map<String, String> identificationToken = tokenCount < 0 ? null : newMap(tokenCount);
+        for (int i = 0; i < tokenCount; i++) {
+            identificationToken.put(reader.string(), reader.string());
+        }
+        int extraCount = reader.size();
+        Map<String, Object> extras = extraCount < 0 ? null : newMap(extraCount);
+        for (int i = 0; i < extraCount; i++) {
+            extras.put(reader.string(), reader.value());
+        }
+        return new AuthenticationResponse(clientSessionId, name, avatarUrl, accountId, kristaAccountId, personId,
+                roles, inboxId, (flags & WORKSPACE_ADMIN) != 0, (flags & APPLIANCE_MANAGER) != 0,
+                identificationToken, extras);
+    }
+
+    private static <V> Map<String, V> newMap(int size) {
+        return new LinkedHashMap<>(Math.max(4, size * 4 / 3 + 1));
+    }
+
+    private static final class Writer {
+
+        private byte[] bytes = new byte[256];
+        private int length;
+
+        private void string(String value) {
+            if (value == null) {
+                varint(0);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            varint(utf8.length + 1);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, bytes, length, utf8.length);
+            length += utf8.length;
+        }
+
+        private void flags(int value) {
+            ensure(1);
+            bytes[length++] = (byte) value;
+        }
+
+        private void size(Collection<?> values) {
+            varint(values == null ? 0 : values.size() + 1);
+        }
+
+        private void value(Object value) {
+            ensure(9);
+            if (value == null) {
+                bytes[length++] = NULL;
+            } else if (value instanceof String) {
+                bytes[length++] = STRING;
+                string((String) value);
+            } else if (value instanceof Boolean) {
+                bytes[length++] = (Boolean) value ? TRUE : FALSE;
+            } else if (value instanceof Number) {
+                bytes[length++] = NUMBER;
+                long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    bytes[length++] = (byte) (bits >>> shift);
+                }
+            } else {
+                bytes[length++] = JSON;
+                string(GSON.toJson(value));
+            }
+        }
+
+        private void varint(int value) {
+            ensure(5);
+            while ((value & ~0x7f) != 0) {
+                bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra + 1 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra + 1));
+            }
+        }
+
+    }
+
+    private static final class Reader {
+
+        private final byte[] bytes;
+        private int position;
+
+        private Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private String string() {
+            int size = varint() - 1;
+            if (size < 0) {
+                return null;
+            }
+            String value = new String(bytes, position, size, StandardCharsets.UTF_8);
+            position += size;
+            return value;
+        }
+
+        private int size() {
+            return varint() - 1;
+        }
+
+        private Object value() {
+            byte tag = bytes[position++];
+            switch (tag) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return string();
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case NUMBER:
+                    long bits = 0;
+                    for (int i = 0; i < 8; i++) {
+                        bits = (bits << 8) | (bytes[position++] & 0xff);
+                    }
+                    return Double.longBitsToDouble(bits);
+                case JSON:
+                    return GSON.fromJson(string(), Object.class);
+                default:
+                    throw new IllegalArgumentException("Unknown authentication response value tag: " + tag);
+            }
+        }
+
+        private int varint() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte next = bytes[position++];
+                value |= (next & 0x7f) << shift;
+                if (next >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed authentication response length.");
+        }
+
+    }
+
+}
@@ -0,0 +1,356 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import app.krista.extension.common.AuthenticationResponse;
+
+import static app.krista.extensions.authentication.guest_authentication.rest.GuestAuthenticationExtensionConstants.*;
+
+/**
+ * Streams an {@link AuthenticationResponse} as JSON without reflection or an intermediate String.
+ * <p>
+ * The output is the one {@link GuestAuthenticationExtensionConstants#GSON_JSON_MAPPER} produced: fields in declaration
+ * order, null fields and null map values left out, and HTML-sensitive characters escaped. Field names and punctuation
+ * are encoded once; the {@code kristaAccountId}, the same on every response of an extension, is encoded once per
+ * value. Extras values other than strings, booleans and numbers are still written through that mapper.
+ */
+@Produces(MediaType.APPLICATION_JSON)
+public class AuthenticationResponseWriter implements MessageBodyWriter<AuthenticationResponse> {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final int BUFFER_SIZE = 1024;
+
+    private static final byte[] CLIENT_SESSION_ID = ascii("\"clientSessionId\":");
+    private static final byte[] NAME = ascii("\"name\":");
+    private static final byte[] AVATAR_URL = ascii("\"avatarUrl\":");
+    private static final byte[] ACCOUNT_ID = ascii("\"accountId\":");
+    private static final byte[] KRISTA_ACCOUNT_ID = ascii("\"kristaAccountId\":");
+    private static final byte[] PERSON_ID = ascii("\"personId\":");
+    private static final byte[] ROLES = ascii("\"roles\":");
+    private static final byte[] INBOX_ID = ascii("\"inboxId\":");
+    private static final byte[] IS_WORKSPACE_ADMIN = ascii("\"isWorkspaceAdmin\":");
+    private static final byte[] IS_APPLIANCE_MANAGER = ascii("\"isApplianceManager\":");
+    private static final byte[] IDENTIFICATION_TOKEN = ascii("\"identificationToken\":");
+    private static final byte[] EXTRAS = ascii("\"extras\":");
+    private static final byte[] TRUE = ascii("true");
+    private static final byte[] FALSE = ascii("false");
+    private static final byte[] NULL = ascii("null");
+
+    // Last kristaAccountId written and its encoding; replaced together, so readers see a matching pair.
+    private volatile EncodedValue kristaAccountId = new EncodedValue(null, null);
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return AuthenticationResponse.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public void writeTo(AuthenticationResponse response, Class<?> type, Type genericType, Annotation[] annotations,
+            MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+            throws IOException {
+        JsonOutput out = new JsonOutput(entityStream);
+        write(response, out);
+        out.flush();
+    }
+
+    private void write(AuthenticationResponse response, JsonOutput out) throws IOException {
+        out.write('{');
+        boolean first = true;
+        first = out.field(first, CLIENT_SESSION_ID, response.getClientSessionId());
+        first = out.field(first, NAME, response.getName());
+        first = out.field(first, AVATAR_URL, response.getAvatarUrl());
+        first = out.field(first, ACCOUNT_ID, response.getAccountId());
+        String kristaAccountIdValue = response.getKristaAccountId();
+        if (kristaAccountIdValue != null) {
+            first = out.name(first, KRISTA_ACCOUNT_ID);
+            out.write(encodedKristaAccountId(kristaAccountIdValue));
+        }
+        first = out.field(first, PERSON_ID, response.getPersonId());
+        List<String> roles = response.getRoles();
+        if (roles != null) {
+            first = out.name(first, ROLES);
+            out.write('[');
+            for (int i = 0; i < roles.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.stringOrNull(roles.get(i));
+            }
+            out.write(']');
+        }
+        first = out.field(first, INBOX_ID, response.getInboxId());
+        out.name(first, IS_WORKSPACE_ADMIN);
+        out.write(response.isWorkspaceAdmin() ? TRUE : FALSE);
+        out.name(false, IS_APPLIANCE_MANAGER);
+        out.write(response.isApplianceManager() ? TRUE : FALSE);
+        Map<String, String> identificationToken = response.getIdentificationToken();
+        if (identificationToken != null) {
+            out.name(false, IDENTIFICATION_TOKEN);
+            out.write('{');
+            boolean firstEntry = true;
+            for (Map.Entry<String, String> entry : identificationToken.entrySet()) {
+                if (entry.getValue() != null) {
+                    firstEntry = out.entryName(firstEntry, entry.getKey());
+                    out.string(entry.getValue());
+                }
+            }
+            out.write('}');
+        }
+        Map<String, Object> extras = response.getExtras();
+        if (extras != null) {
+            out.name(false, EXTRAS);
+            out.write('{');
+            boolean firstEntry = true;
+            for (Map.Entry<String, Object> entry : extras.entrySet()) {
+                if (entry.getValue() != null) {
+                    firstEntry = out.entryName(firstEntry, entry.getKey());
+                    out.value(entry.getValue());
+                }
+            }
+            out.write('}');
+        }
+        out.write('}');
+    }
+
+    private byte[] encodedKristaAccountId(String value) {
+        EncodedValue last = kristaAccountId;
+        if (!value.equals(last.value)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length() + 2);
+            try {
+                JsonOutput out = new JsonOutput(bytes);
+                out.string(value);
+                out.flush();
+            } catch (IOException cause) {
+                throw new IllegalStateException(cause);
+            }
+            last = new EncodedValue(value, bytes.toByteArray());
+            kristaAccountId = last;
+        }
+        return last.json;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static final class EncodedValue {
+
+        private final String value;
+        private final byte[] json;
+
+        private EncodedValue(String value, byte[] json) {
+            this.value = value;
+            this.json = json;
+        }
+
+    }
+
+    /**
+     * Buffered UTF-8 JSON output with Gson's default string escaping.
+     */
+    private static final class JsonOutput {
+
+        private final OutputStream stream;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int length;
+
+        private JsonOutput(OutputStream stream) {
+            this.stream = stream;
+        }
+
+        private boolean field(boolean first, byte[] name, String value) throws IOException {
+            if (value == null) {
+                return first;
+            }
+            name(first, name);
+            string(value);
+            return false;
+        }
+
+        private boolean name(boolean first, byte[] name) throws IOException {
+            if (!first) {
+                write(',');
+            }
+            write(name);
+            return false;
+        }
+
+        private boolean entryName(boolean first, String name) throws IOException {
+            if (!first) {
+                write(',');
+            }
+            string(String.valueOf(name));
+            write(':');
+            return false;
+        }
+
+        private void value(Object value) throws IOException {
+            if (value instanceof String) {
+                string((String) value);
+            } else if (value instanceof Boolean) {
+                write((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Number && isFinite((Number) value)) {
+                write(ascii(value.toString()));
+            } else {
+                write(GSON_JSON_MAPPER.toString(value).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        private void stringOrNull(String value) throws IOException {
+            if (value == null) {
+                write(NULL);
+            } else {
+                string(value);
+            }
+        }
+
+        private void string(String value) throws IOException {
+            write('"');
+            int size = value.length();
+            for (int i = 0; i < size; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    escaped(c);
+                } else if (c < 0x800) {
+                    write(0xc0 | (c >> 6));
+                    write(0x80 | (c & 0x3f));
+                } else if (c == '\u2028' || c == '\u2029') {
+                    unicodeEscape(c);
+                } else if (Character.isHighSurrogate(c) && i + 1 < size
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    write(0xf0 | (codePoint >> 18));
+                    write(0x80 | ((codePoint >> 12) & 0x3f));
+                    write(0x80 | ((codePoint >> 6) & 0x3f));
+                    write(0x80 | (codePoint & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    write('?');
+                } else {
+                    write(0xe0 | (c >> 12));
+                    write(0x80 | ((c >> 6) & 0x3f));
+                    write(0x80 | (c & 0x3f));
+                }
+            }
+            write('"');
+        }
+
+        private void escaped(char c) throws IOException {
+            switch (c) {
+                case '"':
+                case '\\':
+                    write('\\');
+                    write(c);
+                    break;
+                case '\t':
+                    write('\\');
+                    write('t');
+                    break;
+                case '\b':
+                    write('\\');
+                    write('b');
+                    break;
+                case '\n':
+                    write('\\');
+                    write('n');
+                    break;
+                case '\r':
+                    write('\\');
+                    write('r');
+                    break;
+                case '\f':
+                    write('\\');
+                    write('f');
+                    break;
+                case '<':
+                case '>':
+                case '&':
+                case '=':
+                case '\'':
+                    unicodeEscape(c);
+                    break;
+                default:
+                    if (c < 0x20) {
+                        unicodeEscape(c);
+                    } else {
+                        write(c);
+                    }
+            }
+        }
+
+        private void unicodeEscape(char c) throws IOException {
+            write('\\');
+            write('u');
+            write(HEX[(c >> 12) & 0xf]);
+            write(HEX[(c >> 8) & 0xf]);
+            write(HEX[(c >> 4) & 0xf]);
+            write(HEX[c & 0xf]);
+        }
+
+        private void write(int b) throws IOException {
+            if (length == buffer.length) {
+                drain();
+            }
+            buffer[length++] = (byte) b;
+        }
+
+        private void write(byte[] bytes) throws IOException {
+            if (bytes.length > buffer.length - length) {
+                drain();
+                if (bytes.length > buffer.length) {
+                    stream.write(bytes);
+                    return;
+                }
+            }
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        private void drain() throws IOException {
+            stream.write(buffer, 0, length);
+            length = 0;
+        }
+
+        private void flush() throws IOException {
+            drain();
+            stream.flush();
+        }
+
+        private static boolean isFinite(Number value) {
+            if (value instanceof Double || value instanceof Float) {
+                return Double.isFinite(value.doubleValue());
+            }
+            return true;
+        }
+
+    }
+
+}
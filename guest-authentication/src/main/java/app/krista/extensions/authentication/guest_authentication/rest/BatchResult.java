@@ -0,0 +1,59 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Outcome of an {@link AccountManager} batch operation. Each session id of the batch either succeeded or appears in
+ * {@link #getFailures()} with the exception it failed with; one failing session does not fail the others.
+ *
+ * @param <T> type of the values read by the batch, {@link Void} for writes and deletes
+ */
+public final class BatchResult<T> {
+
+    private final Map<String, T> values;
+    private final Map<String, RuntimeException> failures;
+
+    BatchResult(Map<String, T> values, Map<String, RuntimeException> failures) {
+        this.values = Collections.unmodifiableMap(values);
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * @return values read by session id; sessions that were not found or failed are absent
+     */
+    public Map<String, T> getValues() {
+        return values;
+    }
+
+    /**
+     * @return exception of each session id the operation failed for
+     */
+    public Map<String, RuntimeException> getFailures() {
+        return failures;
+    }
+
+    public boolean isSuccessful() {
+        return failures.isEmpty();
+    }
+
+}
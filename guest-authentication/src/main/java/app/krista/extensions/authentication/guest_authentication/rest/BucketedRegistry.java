@@ -0,0 +1,289 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import app.krista.extensions.util.KeyValueStore;
+
+/**
+ * Key value store index of items filed under time buckets, walked bucket by bucket once the buckets have ended. It
+ * backs the {@link SessionRecordSweeper} and the {@link GuestAccountReaper}.
+ * <p>
+ * The key value store has no atomic update, so every instance of the extension owns a registry under a random
+ * instance id and is the only writer of its chunks, chunk counts and checkpoint. Instances announce themselves in a
+ * shared list and record a heartbeat on every walk. The registry of an instance that retired, or that has been silent
+ * for {@link #ORPHAN_MILLIS}, is walked by the others from its checkpoint, which is read again on every walk, and
+ * dropped once drained. Two instances may walk the same orphaned registry at once and then offer some items twice,
+ * so visitors must tolerate repeats.
+ */
+final class BucketedRegistry<T> {
+
+    static final String INSTANCES_KEY = "instances";
+    static final long ORPHAN_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    static final int CHUNK_SIZE = 500;
+
+    private final KeyValueStore keyValueStore;
+    private final String keyPrefix;
+    private final String instanceId;
+    private final long bucketMillis;
+    private final Function<List<T>, String> encoder;
+    private final Function<String, List<T>> decoder;
+    private final LongSupplier millisClock;
+    private Checkpoint checkpoint;
+    private long lastBucket = Long.MIN_VALUE;
+    private boolean announced;
+
+    BucketedRegistry(KeyValueStore keyValueStore, String keyPrefix, long bucketMillis,
+            Function<List<T>, String> encoder, Function<String, List<T>> decoder, LongSupplier millisClock) {
+        this(keyValueStore, keyPrefix, UUID.randomUUID().toString(), bucketMillis, encoder, decoder, millisClock);
+    }
+
+    BucketedRegistry(KeyValueStore keyValueStore, String keyPrefix, String instanceId, long bucketMillis,
+            Function<List<T>, String> encoder, Function<String, List<T>> decoder, LongSupplier millisClock) {
+        this.keyValueStore = keyValueStore;
+        this.keyPrefix = keyPrefix;
+        this.instanceId = instanceId;
+        this.bucketMillis = bucketMillis;
+        this.encoder = encoder;
+        this.decoder = decoder;
+        this.millisClock = millisClock;
+    }
+
+    String getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * Files the items under the bucket, in chunks of at most {@link #CHUNK_SIZE}. Items for a bucket that was already
+     * walked are filed under the first bucket not walked yet.
+     */
+    synchronized void append(long bucket, List<T> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        if (!announced) {
+            keepAlive();
+        }
+        long target = Math.max(bucket, getCheckpoint().bucket);
+        int chunks = getChunkCount(instanceId, target);
+        for (int from = 0; from < items.size(); from += CHUNK_SIZE) {
+            List<T> chunk = items.subList(from, Math.min(items.size(), from + CHUNK_SIZE));
+            keyValueStore.put(chunkKey(instanceId, target, chunks++), encoder.apply(chunk));
+        }
+        keyValueStore.put(bucketKey(instanceId, target), String.valueOf(chunks));
+        if (target > lastBucket) {
+            keyValueStore.put(key(instanceId, "lastBucket"), String.valueOf(target));
+            lastBucket = target;
+        }
+    }
+
+    /**
+     * Offers the items of the buckets that ended by {@code untilMillis} to the visitor, those of this instance first,
+     * then those of orphaned registries. The position is checkpointed after every chunk or partial chunk.
+     *
+     * @return number of items offered
+     */
+    synchronized int walk(long untilMillis, int maxItems, int maxBuckets, Consumer<T> visitor) {
+        keepAlive();
+        Budget budget = new Budget(maxItems, maxBuckets);
+        checkpoint = walk(instanceId, getCheckpoint(), untilMillis, budget, visitor);
+        for (String orphan : getInstances()) {
+            if (budget.isSpent()) {
+                break;
+            }
+            if (!orphan.equals(instanceId) && isOrphaned(orphan)) {
+                walkOrphan(orphan, untilMillis, budget, visitor);
+            }
+        }
+        return maxItems - budget.items;
+    }
+
+    /**
+     * Records the heartbeat of this instance and adds it to the shared list again if a concurrent update lost it, or
+     * if another instance took this one for orphaned. Owners that skip a walk must still call this on every tick.
+     */
+    synchronized void keepAlive() {
+        keyValueStore.put(key(instanceId, "heartbeat"), String.valueOf(millisClock.getAsLong()));
+        List<String> instances = getInstances();
+        if (!instances.contains(instanceId)) {
+            instances.add(instanceId);
+            keyValueStore.put(keyPrefix + INSTANCES_KEY, String.join("\n", instances));
+            if (lastBucket != Long.MIN_VALUE) {
+                keyValueStore.put(key(instanceId, "lastBucket"), String.valueOf(lastBucket));
+            }
+        }
+        announced = true;
+    }
+
+    /**
+     * Hands the registry of this instance over to the other instances, e.g. when the extension stops.
+     */
+    synchronized void retire() {
+        if (announced) {
+            keyValueStore.put(key(instanceId, "heartbeat"), "0");
+        }
+    }
+
+    private Checkpoint walk(String owner, Checkpoint start, long untilMillis, Budget budget, Consumer<T> visitor) {
+        Checkpoint position = start;
+        while (!budget.isSpent() && (position.bucket + 1) * bucketMillis <= untilMillis) {
+            int chunks = getChunkCount(owner, position.bucket);
+            if (position.chunk >= chunks) {
+                keyValueStore.remove(bucketKey(owner, position.bucket));
+                position = new Checkpoint(position.bucket + 1, 0, 0);
+                budget.buckets--;
+                saveCheckpoint(owner, position);
+                continue;
+            }
+            List<T> items = loadChunk(owner, position.bucket, position.chunk);
+            int offset = position.offset;
+            while (offset < items.size() && budget.items > 0) {
+                visitor.accept(items.get(offset));
+                offset++;
+                budget.items--;
+            }
+            if (offset < items.size()) {
+                position = new Checkpoint(position.bucket, position.chunk, offset);
+            } else {
+                keyValueStore.remove(chunkKey(owner, position.bucket, position.chunk));
+                position = new Checkpoint(position.bucket, position.chunk + 1, 0);
+            }
+            saveCheckpoint(owner, position);
+        }
+        return position;
+    }
+
+    private void walkOrphan(String orphan, long untilMillis, Budget budget, Consumer<T> visitor) {
+        Object last = keyValueStore.get(key(orphan, "lastBucket"));
+        Checkpoint start = loadCheckpoint(orphan);
+        Checkpoint position = last == null || start == null
+                ? null
+                : walk(orphan, start, untilMillis, budget, visitor);
+        if (position == null || position.bucket > Long.parseLong((String) last)) {
+            keyValueStore.remove(key(orphan, "checkpoint"));
+            keyValueStore.remove(key(orphan, "lastBucket"));
+            keyValueStore.remove(key(orphan, "heartbeat"));
+            List<String> instances = getInstances();
+            if (instances.remove(orphan)) {
+                keyValueStore.put(keyPrefix + INSTANCES_KEY, String.join("\n", instances));
+            }
+        }
+    }
+
+    private boolean isOrphaned(String instance) {
+        Object heartbeat = keyValueStore.get(key(instance, "heartbeat"));
+        return heartbeat == null || millisClock.getAsLong() - Long.parseLong((String) heartbeat) >= ORPHAN_MILLIS;
+    }
+
+    private List<String> getInstances() {
+        Object value = keyValueStore.get(keyPrefix + INSTANCES_KEY);
+        return value == null || ((String) value).isEmpty()
+                ? new ArrayList<>()
+                : new ArrayList<>(Arrays.asList(((String) value).split("\n")));
+    }
+
+    private List<T> loadChunk(String owner, long bucket, int chunk) {
+        Object value = keyValueStore.get(chunkKey(owner, bucket, chunk));
+        List<T> items = value == null ? null : decoder.apply((String) value);
+        return items == null ? List.of() : items;
+    }
+
+    private int getChunkCount(String owner, long bucket) {
+        Object value = keyValueStore.get(bucketKey(owner, bucket));
+        return value == null ? 0 : Integer.parseInt((String) value);
+    }
+
+    /**
+     * @return checkpoint of this instance, read again in case an instance that took it for orphaned moved it on
+     */
+    private Checkpoint getCheckpoint() {
+        Checkpoint stored = loadCheckpoint(instanceId);
+        if (stored != null) {
+            checkpoint = stored;
+        } else if (checkpoint == null) {
+            checkpoint = new Checkpoint(millisClock.getAsLong() / bucketMillis, 0, 0);
+            saveCheckpoint(instanceId, checkpoint);
+        } else {
+            saveCheckpoint(instanceId, checkpoint);
+        }
+        return checkpoint;
+    }
+
+    private Checkpoint loadCheckpoint(String owner) {
+        Object value = keyValueStore.get(key(owner, "checkpoint"));
+        if (value == null) {
+            return null;
+        }
+        String[] parts = ((String) value).split(":");
+        return new Checkpoint(Long.parseLong(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+    }
+
+    private void saveCheckpoint(String owner, Checkpoint position) {
+        keyValueStore.put(key(owner, "checkpoint"), position.bucket + ":" + position.chunk + ":" + position.offset);
+    }
+
+    private String key(String owner, String name) {
+        return keyPrefix + owner + ":" + name;
+    }
+
+    private String bucketKey(String owner, long bucket) {
+        return key(owner, "bucket:" + bucket);
+    }
+
+    private String chunkKey(String owner, long bucket, int chunk) {
+        return bucketKey(owner, bucket) + ":" + chunk;
+    }
+
+    private static final class Budget {
+
+        private int items;
+        private int buckets;
+
+        private Budget(int items, int buckets) {
+            this.items = items;
+            this.buckets = buckets;
+        }
+
+        private boolean isSpent() {
+            return items <= 0 || buckets <= 0;
+        }
+    }
+
+    private static final class Checkpoint {
+
+        private final long bucket;
+        private final int chunk;
+        private final int offset;
+
+        private Checkpoint(long bucket, int chunk, int offset) {
+            this.bucket = bucket;
+            this.chunk = chunk;
+            this.offset = offset;
+        }
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.inject.Inject;
+import org.glassfish.hk2.api.PreDestroy;
+import org.jvnet.hk2.annotations.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the parts of a login that the response does not have to wait for on a small background pool.
+ * <p>
+ * A failing task is retried up to {@link #MAX_ATTEMPTS} times with exponential backoff starting at
+ * {@link #INITIAL_BACKOFF_MILLIS}. At most {@link #MAX_PENDING} tasks, including those waiting for a retry, are held;
+ * beyond that a task runs once on the calling thread, so a slow backend slows logins down instead of exhausting memory.
+ * A task run on the calling thread is not retried; if it fails, its failure handler runs and the caller carries on.
+ */
+@Service
+public class DeferredTasks implements PreDestroy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeferredTasks.class);
+
+    static final int THREADS = 2;
+    static final int MAX_PENDING = 10_000;
+    static final int MAX_ATTEMPTS = 5;
+    static final long INITIAL_BACKOFF_MILLIS = 100;
+    static final long SHUTDOWN_GRACE_SECONDS = 5;
+
+    private final ScheduledExecutorService executor;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+
+    @Inject
+    public DeferredTasks() {
+        this(newExecutor());
+    }
+
+    DeferredTasks(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param description what the task does, for logging
+     * @param task work to run in the background
+     * @param onFailure invoked once the task has failed {@link #MAX_ATTEMPTS} times
+     */
+    public void run(String description, Runnable task, Runnable onFailure) {
+        if (pending.incrementAndGet() > MAX_PENDING) {
+            pending.decrementAndGet();
+            runOnCaller(description, task, onFailure);
+            return;
+        }
+        try {
+            executor.execute(() -> attempt(description, task, onFailure, 1));
+        } catch (RejectedExecutionException cause) {
+            pending.decrementAndGet();
+            runOnCaller(description, task, onFailure);
+        }
+    }
+
+    /**
+     * @return number of tasks queued, running or waiting for a retry
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    /**
+     * @return number of tasks given up after {@link #MAX_ATTEMPTS} attempts, or after failing on the calling thread
+     */
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    /**
+     * @return number of tasks run on the calling thread because the backlog was full
+     */
+    public long getCallerRunCount() {
+        return callerRuns.sum();
+    }
+
+    @Override
+    public void preDestroy() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn("Dropping {} deferred login tasks on shutdown", pending.get());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException cause) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runOnCaller(String description, Runnable task, Runnable onFailure) {
+        callerRuns.increment();
+        try {
+            task.run();
+        } catch (RuntimeException cause) {
+            failures.increment();
+            LOGGER.error("Failed to {} on the calling thread: {}", description, cause.getMessage(), cause);
+            onFailure.run();
+        }
+    }
+
+    private void attempt(String description, Runnable task, Runnable onFailure, int attempt) {
+        try {
+            task.run();
+            pending.decrementAndGet();
+        } catch (RuntimeException cause) {
+            if (attempt < MAX_ATTEMPTS && !executor.isShutdown()) {
+                retries.increment();
+                long backoff = INITIAL_BACKOFF_MILLIS << (attempt - 1);
+                LOGGER.warn("Failed to {} (attempt {}), retrying in {} ms: {}", description, attempt, backoff,
+                        cause.getMessage());
+                try {
+                    executor.schedule(() -> attempt(description, task, onFailure, attempt + 1), backoff,
+                            TimeUnit.MILLISECONDS);
+                    return;
+                } catch (RejectedExecutionException rejected) {
+                    // Shutting down; give up below.
+                }
+            }
+            pending.decrementAndGet();
+            failures.increment();
+            LOGGER.error("Giving up on {} after {} attempts: {}", description, attempt, cause.getMessage(), cause);
+            onFailure.run();
+        }
+    }
+
+    private static ScheduledExecutorService newExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "guest-auth-deferred");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(true);
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+}
@@ -18,7 +18,11 @@
 
 package app.krista.extensions.authentication.guest_authentication.rest;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
@@ -27,35 +31,39 @@ import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
 import javax.ws.rs.core.*;
 
 import app.krista.extension.authorization.AuthorizationException;
 import app.krista.extension.common.AuthenticationResponse;
-import app.krista.extension.common.CommonUtils;
-import app.krista.extension.common.EmailAddresses;
 import app.krista.extension.executor.Invoker;
 import app.krista.extension.request.RoutingInfo;
 import app.krista.extension.request.protos.http.HttpProtocol;
 import app.krista.extension.util.InvokerAttributeProvider;
+import app.krista.extensions.authentication.guest_authentication.session.AccountExistenceCache;
+import app.krista.extensions.authentication.guest_authentication.session.GatewayCredentials;
+import app.krista.extensions.authentication.guest_authentication.session.ResumeTokens;
+import app.krista.extensions.authentication.guest_authentication.session.SessionAccountCache;
+import app.krista.extensions.authentication.guest_authentication.session.SessionValidator;
+import app.krista.extensions.authentication.guest_authentication.util.AuthEventLogger;
 import app.krista.extensions.authentication.guest_authentication.util.Constants;
+import app.krista.extensions.authentication.guest_authentication.util.SessionTimeouts;
 import app.krista.ksdk.accounts.Account;
 import app.krista.ksdk.accounts.ModifiableAccount;
-import app.krista.ksdk.authentication.AuthenticationSettings;
 import app.krista.ksdk.authentication.SessionManager;
 import app.krista.ksdk.authorization.Role;
 import app.krista.ksdk.context.AuthorizationContext;
 import app.krista.ksdk.context.RuntimeContext;
-import app.krista.omni.sdk.spi.impl.services.AccountService;
-import app.krista.omni.sdk.spi.impl.util.Strings;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static app.krista.extensions.authentication.guest_authentication.rest.GuestAuthenticationExtensionConstants.*;
+import static app.krista.extensions.authentication.guest_authentication.util.AuthEventLogger.Event.*;
 import static javax.ws.rs.core.Cookie.*;
 import static javax.ws.rs.core.HttpHeaders.*;
 
@@ -64,34 +72,57 @@ import static javax.ws.rs.core.HttpHeaders.*;
 public class ExtensionResource {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ExtensionResource.class);
+    private static final AuthEventLogger EVENTS = new AuthEventLogger(ExtensionResource.class);
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int NOT_MODIFIED = 304;
+    private static final int FORBIDDEN = 403;
+    private static final String TOO_MANY_LOGINS_BODY = "{\"error\":\"Too many login attempts, please retry later.\"}";
 
     private final SessionManager sessionManager;
     private final AccountProvisioner accountProvisioner;
     private final RuntimeContext runtimeContext;
-    private final GuestAuthenticationRoleManager guestAuthenticationRoleProvisioner;
-    private final AuthenticationSettings authenticationSettings;
     private final Invoker invoker;
     private final InvokerAttributeProvider<Double> sessionTimeout;
     private final AccountManager accountManager;
-    private static final String EMAIL_PREFIX = "guest";
-    private static final String UNDERSCORE = "_";
     private final AuthorizationContext authorizationContext;
+    private final SessionAccountCache sessionAccountCache;
+    private final SessionValidator sessionValidator;
+    private final GuestAccountPool guestAccountPool;
+    private final GuestAccountReaper guestAccountReaper;
+    private final ResumeTokens resumeTokens;
+    private final AccountExistenceCache accountExistenceCache;
+    private final DeferredTasks deferredTasks;
+    private final LoginAdmissionController loginAdmissionController;
+    private final ReplayResponseCache replayResponseCache;
+    private final GatewayCredentials gatewayCredentials;
 
     @Inject
     public ExtensionResource(SessionManager sessionManager, AccountProvisioner accountProvisioner,
-                             RuntimeContext runtimeContext, GuestAuthenticationRoleManager guestAuthenticationRoleProvisioner,
-                             AuthenticationSettings authenticationSettings,
+                             RuntimeContext runtimeContext,
                              @Named("self") Invoker invoker, InvokerAttributeProvider<Double> sessionTimeout,
-                             AccountManager accountManager, AuthorizationContext authorizationContext) {
+                             AccountManager accountManager, AuthorizationContext authorizationContext,
+                             SessionAccountCache sessionAccountCache, SessionValidator sessionValidator,
+                             GuestAccountPool guestAccountPool, GuestAccountReaper guestAccountReaper,
+                             ResumeTokens resumeTokens, AccountExistenceCache accountExistenceCache,
+                             DeferredTasks deferredTasks, LoginAdmissionController loginAdmissionController,
+                             ReplayResponseCache replayResponseCache, GatewayCredentials gatewayCredentials) {
         this.sessionManager = sessionManager;
         this.accountProvisioner = accountProvisioner;
         this.runtimeContext = runtimeContext;
-        this.guestAuthenticationRoleProvisioner = guestAuthenticationRoleProvisioner;
-        this.authenticationSettings = authenticationSettings;
         this.invoker = invoker;
         this.sessionTimeout = sessionTimeout;
         this.accountManager = accountManager;
         this.authorizationContext = authorizationContext;
+        this.sessionAccountCache = sessionAccountCache;
+        this.sessionValidator = sessionValidator;
+        this.guestAccountPool = guestAccountPool;
+        this.guestAccountReaper = guestAccountReaper;
+        this.resumeTokens = resumeTokens;
+        this.accountExistenceCache = accountExistenceCache;
+        this.deferredTasks = deferredTasks;
+        this.loginAdmissionController = loginAdmissionController;
+        this.replayResponseCache = replayResponseCache;
+        this.gatewayCredentials = gatewayCredentials;
     }
 
     @GET
@@ -119,46 +150,89 @@ public class ExtensionResource {
     @Produces(MediaType.APPLICATION_JSON)
     public Response login(@HeaderParam(Constants.SOURCE) String source,
                           @CookieParam(Constants.CHATBOT_SESSION_ID) Cookie clientSessionId,
+                          @CookieParam(Constants.GUEST_RESUME_TOKEN) Cookie resumeToken,
                           @HeaderParam(Constants.CALLER_URI) String callerUri,
+                          @HeaderParam(Constants.X_FORWARDED_FOR) String forwardedFor,
+                          @HeaderParam(IF_NONE_MATCH) String ifNoneMatch,
+                          @Context HttpServletRequest request,
                           Map<String, String> loginInput)
             throws AuthorizationException, URISyntaxException {
+        String kristaAccountId = runtimeContext.getKristaAccount().getAccountId();
+        String authorizedAccountId = authorizationContext.getAuthorizedAccount().getAccountId();
+        EVENTS.logSession(LOGIN, clientSessionId == null ? null : clientSessionId.getValue(),
+                "Login input: {}, krista account: {}, authorized account: {}", loginInput, kristaAccountId,
+                authorizedAccountId);
 
-        System.out.println("#####-LOGIN INPUT: " + loginInput);
-        System.out.println("#####-runtimeContext.getKristaAccount().getAccountId() = " + runtimeContext.getKristaAccount().getAccountId());
-        System.out.println("#####-authorizationContext.getAuthorizedAccount().getAccountId() = " + authorizationContext.getAuthorizedAccount().getAccountId());
-
-        if (!runtimeContext.getKristaAccount().getAccountId()
-                .equals(authorizationContext.getAuthorizedAccount().getAccountId())) {
+        if (!kristaAccountId.equals(authorizedAccountId)) {
             AuthenticationResponse authenticationResponse = accountManager.get(clientSessionId.getValue());
             if (authenticationResponse == null) {
-                LOGGER.error("#####-AUTHENTICATION RESPONSE IS NULL FOR CLIENT SESSION ID: {}", clientSessionId.getValue());
+                authenticationResponse = restore(clientSessionId.getValue(), authorizedAccountId);
+            }
+            if (authenticationResponse == null) {
+                EVENTS.logSession(LOGIN_RESPONSE_MISSING, clientSessionId.getValue(),
+                        "No authentication response for client session id: {}", clientSessionId.getValue());
             } else {
-                LOGGER.warn("******* authentication response:{} and account Id:{}", authenticationResponse,
-                        authorizationContext.getAuthorizedAccount().getAccountId());
-                authenticationResponse.getExtras().remove("newSession");
+                EVENTS.logSession(LOGIN_REPLAYED, clientSessionId.getValue(),
+                        "authentication response:{} and account Id:{}", authenticationResponse, authorizedAccountId);
+                ReplayResponseCache.Replay replay = replayResponseCache.get(clientSessionId.getValue(),
+                        authenticationResponse, ExtensionResource::asReplayed);
+                // RFC 9110 section 13.1.2 asks for 412 when If-None-Match matches on a POST. The widget
+                // sends the ETag of its last replay to skip an unchanged body, so a match answers 304.
+                if (replay.matches(ifNoneMatch)) {
+                    return getResponseBuilderWithCORSHeaders()
+                            .status(NOT_MODIFIED)
+                            .header(ETAG, replay.getETag())
+                            .build();
+                }
                 return getResponseBuilderWithCORSHeaders()
-                        .entity(GSON_JSON_MAPPER.toString(authenticationResponse))
+                        .header(ETAG, replay.getETag())
+                        .type(MediaType.APPLICATION_JSON_TYPE)
+                        .entity(replay.getBody())
                         .build();
             }
         }
+        // Only logins that claim or provision an account are admission controlled; replays are cheap reads.
+        LoginAdmissionController.Decision decision = loginAdmissionController.tryAdmit(forwardedFor,
+                request == null ? null : request.getRemoteAddr(), callerUri, source);
+        if (decision != LoginAdmissionController.Decision.ADMITTED) {
+            EVENTS.log(LOGIN_SHED, "Login rejected: {}, caller uri: {}, source: {}", decision, callerUri, source);
+            return getResponseBuilderWithCORSHeaders()
+                    .status(TOO_MANY_REQUESTS)
+                    .header(Constants.RETRY_AFTER, loginAdmissionController.getRetryAfterSeconds(decision))
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .entity(TOO_MANY_LOGINS_BODY)
+                    .build();
+        }
+        try {
+            return admittedLogin(source, clientSessionId, resumeToken, callerUri);
+        } finally {
+            loginAdmissionController.release();
+        }
+    }
+
+    private Response admittedLogin(String source, Cookie clientSessionId, Cookie resumeToken, String callerUri)
+            throws URISyntaxException {
         if (!Objects.isNull(clientSessionId) && !clientSessionId.getValue().isBlank()) {
             accountManager.delete(clientSessionId.getValue());
+            sessionAccountCache.invalidate(clientSessionId.getValue());
+            replayResponseCache.invalidate(clientSessionId.getValue());
         }
-        String email;
-        if (!Objects.isNull(source) && !source.isBlank()) {
-            email = getEmail(true);
-        } else {
-            email = getEmail(false);
+        ProvisionedAccount provisionedAccount = resumeAccount(resumeToken);
+        boolean resumed = provisionedAccount != null;
+        if (!resumed) {
+            provisionedAccount = guestAccountPool.claim(!Objects.isNull(source) && !source.isBlank());
         }
-        addDomainToWorkspaceIfNotPresent(email);
-        Account account = accountProvisioner.provisionAccount(email);
+        Account account = provisionedAccount.getAccount();
 
         String sessionId = sessionManager.createSession(account.getAccountId());
+        sessionAccountCache.put(sessionId, account.getAccountId());
+        guestAccountReaper.register(account.getAccountId(), sessionId, resumed || provisionedAccount.isPooled());
         URI httpURI = resolveCallerUri(callerUri);
         // Safely get last 3 segments and join them with "/"
         String cookiePath = getCookiePath(httpURI);
-        AuthenticationResponse authenticationResponse = createAuthenticationResponse(account, sessionId);
-        accountManager.put(sessionId, authenticationResponse);
+        AuthenticationResponse authenticationResponse = createAuthenticationResponse(account, sessionId,
+                provisionedAccount.isWorkspaceAdmin());
+        accountManager.putDeferred(sessionId, authenticationResponse);
 
         // final boolean secure = true; // Change to false if not using HTTPS
         int maxAgeInSeconds = getMaxAgeInSeconds();
@@ -172,14 +246,48 @@ public class ExtensionResource {
                 Constants.X_KRISTA_CONTEXT, getEncodedClientSessionId(sessionId), "/",
                 httpURI.getHost(), maxAgeInSeconds, expiry.toString());
         // Building the response with CORS headers and cookie
-        return getResponseBuilderWithCORSHeaders()
+        Response.ResponseBuilder responseBuilder = getResponseBuilderWithCORSHeaders()
                 .header(SET_COOKIE, chatbotSessionCookie)
                 .header(SET_COOKIE, kristaContextCookie)
-                .header(Constants.CHATBOT_SESSION_ID, sessionId)
-                .entity(GSON_JSON_MAPPER.toString(authenticationResponse))
+                .header(Constants.CHATBOT_SESSION_ID, sessionId);
+        if (resumeTokens.isEnabled()) {
+            int resumeMaxAgeInSeconds = resumeTokens.getLifetimeSeconds();
+            Date resumeExpiry = new Date(System.currentTimeMillis() + resumeMaxAgeInSeconds * 1000L);
+            responseBuilder.header(SET_COOKIE, createCookieString(
+                    Constants.GUEST_RESUME_TOKEN, resumeTokens.issue(account.getAccountId()), cookiePath + "/",
+                    httpURI.getHost(), resumeMaxAgeInSeconds, resumeExpiry.toString()));
+        }
+        return responseBuilder
+                .entity(authenticationResponse)
                 .build();
     }
 
+    /**
+     * @return the previous guest account of a visitor presenting a valid resume token, or null to provision a new one
+     */
+    private ProvisionedAccount resumeAccount(Cookie resumeToken) {
+        if (resumeToken == null) {
+            return null;
+        }
+        String accountId = resumeTokens.verify(resumeToken.getValue());
+        if (accountId == null) {
+            return null;
+        }
+        ProvisionedAccount provisionedAccount;
+        try {
+            provisionedAccount = accountExistenceCache.exists(accountId) ? accountProvisioner.resume(accountId) : null;
+        } catch (RuntimeException cause) {
+            LOGGER.warn("Failed to resume guest account {}, provisioning a new one: {}", accountId, cause.getMessage());
+            return null;
+        }
+        if (provisionedAccount != null) {
+            EVENTS.log(LOGIN_RESUMED, "Resumed guest account: {}", accountId);
+            deferredTasks.run("stamp last login of resumed account " + accountId,
+                    () -> accountProvisioner.stampLastLogin(accountId), () -> { });
+        }
+        return provisionedAccount;
+    }
+
     @POST
     @Path("/upsertPersonAttributes")
     @Consumes(MediaType.APPLICATION_JSON)
@@ -190,10 +298,43 @@ public class ExtensionResource {
                                        @HeaderParam(Constants.CALLER_URI) String callerUri,
                                        Map<String, String> loginInput) throws AuthorizationException {
         final String sessionId = getSessionId(clientSessionId, clientSessionIdHeader);
-        String accountId = accountManager.get(sessionId).getAccountId();
+        String accountId = accountManager.getAccountId(sessionId);
+        if (accountId == null) {
+            AuthenticationResponse restored = restore(sessionId, null);
+            accountId = restored == null ? null : restored.getAccountId();
+        }
+        if (accountId == null) {
+            throw new IllegalStateException("No authenticated guest for the client session.");
+        }
         this.upsertPersonAttributes(accountId, loginInput);
     }
 
+    /**
+     * Rebuilds and stores the response of a live session that has none, which is the case once the deferred write of
+     * its login was given up. The response is stored synchronously, so later requests find it.
+     *
+     * @param expectedAccountId account the session must belong to, or null to accept any
+     * @return the restored response, or null if the session has ended or belongs to another account
+     */
+    private AuthenticationResponse restore(String sessionId, String expectedAccountId) throws AuthorizationException {
+        if (sessionId == null || sessionId.isBlank()) {
+            return null;
+        }
+        String accountId = sessionManager.lookupAccountId(sessionId);
+        if (accountId == null || (expectedAccountId != null && !expectedAccountId.equals(accountId))) {
+            return null;
+        }
+        ProvisionedAccount provisionedAccount = accountProvisioner.resume(accountId);
+        if (provisionedAccount == null) {
+            return null;
+        }
+        LOGGER.warn("Restoring the missing authentication response of a live session of account {}", accountId);
+        AuthenticationResponse authenticationResponse = createAuthenticationResponse(provisionedAccount.getAccount(),
+                sessionId, provisionedAccount.isWorkspaceAdmin());
+        accountManager.put(sessionId, authenticationResponse);
+        return authenticationResponse;
+    }
+
     private static String getSessionId(Cookie clientSessionId, String clientSessionIdHeader) {
         String sessionId;
         if (clientSessionId != null) {
@@ -207,16 +348,63 @@ public class ExtensionResource {
     private void upsertPersonAttributes(String accountId, Map<String, String> attributesMap) {
         if (attributesMap != null && !attributesMap.isEmpty()) {
             final ModifiableAccount modifiableAccount = accountProvisioner.getAccountManager().getAccount(accountId);
-            System.out.println("#####-TRYING TO ADD ATTRIBUTES...");
             attributesMap.forEach((key, value) -> {
                 if (value != null) {
                     modifiableAccount.updateAttributeValue(key, value);
-                    System.out.println("#####-ATTRIBUTE ADDED " + key);
+                    EVENTS.log(ATTRIBUTES_UPDATED, "Attribute {} updated for account: {}", key, accountId);
                 }
             });
         }
     }
 
+    /**
+     * Validates a JSON array of at most {@value SessionValidator#MAX_BATCH_SIZE} client session ids and streams back,
+     * in the same order, one {@code {"clientSessionId", "valid", "accountId"}} object per id. Ids are read from the
+     * request while results are written, so neither side of a batch is held in memory. Malformed input or a larger
+     * batch ends the array with an {@code {"error"}} object after the results of the ids read until then. Only gateways
+     * presenting the configured gateway token may call it.
+     */
+    @POST
+    @Path("/sessions/validate")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response validateSessions(@HeaderParam(Constants.GATEWAY_TOKEN) String gatewayToken,
+                                     InputStream sessionIds) {
+        if (!gatewayCredentials.isAuthorized(gatewayToken)) {
+            EVENTS.log(REQUEST_FAILED, "Rejected session validation without a valid gateway token");
+            return getResponseBuilderWithCORSHeaders().status(FORBIDDEN).build();
+        }
+        StreamingOutput output = outputStream -> {
+            SessionIdStream clientSessionIds = new SessionIdStream(sessionIds, SessionValidator.MAX_BATCH_SIZE);
+            try (JsonWriter writer = new JsonWriter(
+                    new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)))) {
+                writer.beginArray();
+                sessionValidator.validateAll(clientSessionIds, validation -> {
+                    try {
+                        writer.beginObject()
+                                .name("clientSessionId").value(validation.getClientSessionId())
+                                .name("valid").value(validation.isValid())
+                                .name("accountId").value(validation.getAccountId());
+                        if (validation.getError() != null) {
+                            writer.name("error").value(validation.getError());
+                        }
+                        writer.endObject();
+                    } catch (IOException cause) {
+                        throw new UncheckedIOException(cause);
+                    }
+                });
+                if (clientSessionIds.getError() != null) {
+                    EVENTS.log(REQUEST_FAILED, "Session validation stopped: {}", clientSessionIds.getError());
+                    writer.beginObject().name("error").value(clientSessionIds.getError()).endObject();
+                }
+                writer.endArray();
+            } catch (UncheckedIOException cause) {
+                throw cause.getCause();
+            }
+        };
+        return getResponseBuilderWithCORSHeaders().entity(output).build();
+    }
+
     private URI resolveCallerUri(String callerUri) throws URISyntaxException {
         String routingURL =
                 invoker.getRoutingInfo().getRoutingURL(HttpProtocol.PROTOCOL_NAME, RoutingInfo.Type.APPLIANCE);
@@ -231,11 +419,6 @@ public class ExtensionResource {
         return "/" + parts[len - 3] + "/" + parts[len - 2] + "/" + parts[len - 1];
     }
 
-    private String getEmail(boolean isOmni) {
-        return EMAIL_PREFIX + UNDERSCORE + UUID.randomUUID() + Strings.AT
-                + (isOmni ? AccountService.SUPPORTED_DOMAIN : EmailAddresses.DEFAULT_DOMAIN);
-    }
-
     @OPTIONS
     @Path("/logout")
     @Consumes(MediaType.APPLICATION_JSON)
@@ -257,6 +440,9 @@ public class ExtensionResource {
                 throw new IllegalArgumentException("Missing client session id.");
             }
             sessionManager.deleteSession(clientSessionId);
+            sessionAccountCache.invalidate(clientSessionId);
+            sessionAccountCache.recordMissing(clientSessionId);
+            replayResponseCache.invalidate(clientSessionId);
             Response.ResponseBuilder responseBuilderWithCORSHeaders =
                     getResponseBuilderWithCORSHeaders();
             return responseBuilderWithCORSHeaders.entity("Successfully logged out.").build();
@@ -277,6 +463,8 @@ public class ExtensionResource {
         // Delete the session if cookie exists
         if (sessionId != null) {
             accountManager.delete(sessionId);
+            sessionAccountCache.invalidate(sessionId);
+            replayResponseCache.invalidate(sessionId);
         }
 
         URI httpURI = resolveCallerUri(callerUri);
@@ -286,25 +474,19 @@ public class ExtensionResource {
         return getResponseBuilderWithCORSHeaders()
                 .header(SET_COOKIE, createExpiredCookie(Constants.CHATBOT_SESSION_ID, cookiePath + "/", httpURI.getHost()))
                 .header(SET_COOKIE, createExpiredCookie(Constants.X_KRISTA_CONTEXT, "/", httpURI.getHost()))
+                .header(SET_COOKIE,
+                        createExpiredCookie(Constants.GUEST_RESUME_TOKEN, cookiePath + "/", httpURI.getHost()))
                 .entity("Logout successful from guest authentication.") // Or null, or other logout message
                 .build();
     }
 
-    private void addDomainToWorkspaceIfNotPresent(String email) throws AuthorizationException {
-        List<String> supportedDomainsForWorkspace = authenticationSettings.getSupportedDomains();
-        String supportedDomain = String.join(",", supportedDomainsForWorkspace);
-        String invokerDomains = EmailAddresses.getDomainName(email);
-        CommonUtils.validateIfSupportedDomain(email, supportedDomain, invokerDomains);
-        CommonUtils.addSupportedDomainsToWorkspace(email, supportedDomainsForWorkspace, authenticationSettings);
-    }
-
-    private AuthenticationResponse createAuthenticationResponse(Account account, String sessionId)
-            throws AuthorizationException {
+    private AuthenticationResponse createAuthenticationResponse(Account account, String sessionId,
+            boolean workspaceAdmin) throws AuthorizationException {
         return new AuthenticationResponse(sessionId, account.getPerson().getPersonName(),
                 account.getPerson().getAvatarUrl(), account.getAccountId(),
                 runtimeContext.getKristaAccount().getAccountId(), account.getPerson().getPersonId(),
                 getListOfRoles(account.getRoles()), account.getInboxId(),
-                guestAuthenticationRoleProvisioner.hasAdminRole(account),
+                workspaceAdmin,
                 false,
                 Map.of("email", account.getPrimaryEmailAddress()),
                 Map.of("creationTime", getCurrentDateTime(), "newSession", true));
@@ -324,24 +506,32 @@ public class ExtensionResource {
         return dateFormat.format(Calendar.getInstance().getTime());
     }
 
+    /**
+     * @return copy of a stored response without the newSession marker; stored responses are shared and not modified
+     */
+    private static AuthenticationResponse asReplayed(AuthenticationResponse stored) {
+        if (stored.getExtras() == null || !stored.getExtras().containsKey("newSession")) {
+            return stored;
+        }
+        Map<String, Object> extras = new LinkedHashMap<>(stored.getExtras());
+        extras.remove("newSession");
+        return new AuthenticationResponse(stored.getClientSessionId(), stored.getName(), stored.getAvatarUrl(),
+                stored.getAccountId(), stored.getKristaAccountId(), stored.getPersonId(), stored.getRoles(),
+                stored.getInboxId(), stored.isWorkspaceAdmin(), stored.isApplianceManager(),
+                stored.getIdentificationToken(), extras);
+    }
+
     private Response.ResponseBuilder getResponseBuilderWithCORSHeaders() {
         return Response.status(200)
                 .header("Access-Control-Allow-Origin", "*")
                 .header("Access-Control-Allow-Methods", "POST, GET, OPTIONS")
-                .header("Access-Control-Allow-Headers", "Content-Type")
+                .header("Access-Control-Allow-Headers", CONTENT_TYPE + ", " + IF_NONE_MATCH)
+                .header("Access-Control-Expose-Headers", ETAG)
                 .header("Access-Control-Allow-Credentials", true);
     }
 
     private int getMaxAgeInSeconds() {
-        Double sessionTimeOut = sessionTimeout.get();
-        int maxAgeInSeconds;
-        if (sessionTimeOut == null) {
-            maxAgeInSeconds = 24 * 60 * 60; // 1 day
-        } else {
-            long timeout = (long) sessionTimeOut.doubleValue();
-            maxAgeInSeconds = (int) TimeUnit.MINUTES.toSeconds(timeout);
-        }
-        return maxAgeInSeconds;
+        return SessionTimeouts.getMaxAgeInSeconds(sessionTimeout.get());
     }
 
     private String getEncodedClientSessionId(String sessionId) {
@@ -0,0 +1,366 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.inject.Inject;
+import app.krista.extension.authorization.AuthorizationException;
+import app.krista.extension.executor.Invoker;
+import app.krista.extensions.authentication.guest_authentication.GuestAuthenticationExtension;
+import org.glassfish.hk2.api.PreDestroy;
+import org.jvnet.hk2.annotations.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static app.krista.extensions.authentication.guest_authentication.GuestAuthenticationExtension.*;
+
+/**
+ * Optional pool of pre-created guest accounts, so that a login only has to claim an account and create a session.
+ * <p>
+ * The pool is enabled by the {@value GuestAuthenticationExtension#ACCOUNT_POOL_HIGH_WATERMARK} parameter. Whenever a
+ * claim leaves fewer than {@value GuestAuthenticationExtension#ACCOUNT_POOL_LOW_WATERMARK} accounts, a single
+ * background filler provisions accounts until the high watermark is reached again. Guests of an Omni source use a
+ * different email domain and are pooled separately; each side starts filling on its first claim. A claim that finds
+ * the pool empty provisions the account inline, exactly as without a pool.
+ * <p>
+ * Pooled accounts remember the default role and attribute parameters they were provisioned with. Accounts provisioned
+ * under an earlier configuration are skipped by claims and deleted in the background. The last login of a claimed
+ * account is stamped in the background. Accounts still pooled when the extension stops are deleted, for at most
+ * {@link #SHUTDOWN_DELETE_NANOS}, since a restarted extension starts with an empty pool.
+ * <p>
+ * Every pooled account is registered with the {@link GuestAccountReaper} as soon as it is provisioned, so an account
+ * left behind by a crash or a failed delete is reaped once it is past the retention. Claims skip and delete accounts
+ * that waited for more than half the retention, well before the reaper may delete them.
+ */
+@Service
+public class GuestAccountPool implements PreDestroy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GuestAccountPool.class);
+
+    static final int MAX_HIGH_WATERMARK = 500;
+    static final long RETRY_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(30);
+    static final long SHUTDOWN_DELETE_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final AccountProvisioner accountProvisioner;
+    private final Invoker invoker;
+    private final DeferredTasks deferredTasks;
+    private final GuestAccountReaper guestAccountReaper;
+    private final Executor filler;
+    private final LongSupplier nanoClock;
+    private final Pool[] pools = {new Pool(false), new Pool(true)};
+    private final AtomicBoolean refillPending = new AtomicBoolean();
+    private volatile long retryAfterNanos;
+    private volatile double refillRate;
+    private volatile boolean closed;
+    private final LongAdder claims = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+    private final LongAdder claimNanos = new LongAdder();
+    private final LongAccumulator maxClaimNanos = new LongAccumulator(Math::max, 0L);
+    private final LongAdder refilled = new LongAdder();
+    private final LongAdder refillFailures = new LongAdder();
+
+    @Inject
+    public GuestAccountPool(AccountProvisioner accountProvisioner, Invoker invoker, DeferredTasks deferredTasks,
+            GuestAccountReaper guestAccountReaper) {
+        this(accountProvisioner, invoker, deferredTasks, guestAccountReaper, newFiller(), System::nanoTime);
+    }
+
+    GuestAccountPool(AccountProvisioner accountProvisioner, Invoker invoker, DeferredTasks deferredTasks,
+            GuestAccountReaper guestAccountReaper, Executor filler, LongSupplier nanoClock) {
+        this.accountProvisioner = accountProvisioner;
+        this.invoker = invoker;
+        this.deferredTasks = deferredTasks;
+        this.guestAccountReaper = guestAccountReaper;
+        this.filler = filler;
+        this.nanoClock = nanoClock;
+        this.retryAfterNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * @param omni true for guests coming through an Omni source
+     * @return a pooled guest account, or one provisioned inline when the pool is empty or disabled
+     */
+    public ProvisionedAccount claim(boolean omni) throws AuthorizationException {
+        long start = nanoClock.getAsLong();
+        Pool pool = pools[omni ? 1 : 0];
+        ProvisionedAccount account = pool.poll(accountProvisioner.getProvisioningProfile(), getMaxAgeNanos());
+        int highWatermark = getHighWatermark();
+        if (highWatermark > 0) {
+            pool.active = true;
+            if (pool.depth.get() < getLowWatermark(highWatermark)) {
+                requestRefill();
+            }
+        }
+        if (account == null) {
+            misses.increment();
+            account = accountProvisioner.provisionGuestAccount(omni);
+        } else {
+            account = account.asPooled();
+            String accountId = account.getAccount().getAccountId();
+            deferredTasks.run("stamp last login of pooled account " + accountId,
+                    () -> accountProvisioner.stampLastLogin(accountId), () -> { });
+        }
+        long elapsed = nanoClock.getAsLong() - start;
+        claims.increment();
+        claimNanos.add(elapsed);
+        maxClaimNanos.accumulate(elapsed);
+        return account;
+    }
+
+    /**
+     * @return number of accounts currently waiting in the pool
+     */
+    public int getDepth() {
+        int depth = 0;
+        for (Pool pool : pools) {
+            depth += pool.depth.get();
+        }
+        return depth;
+    }
+
+    public long getClaimCount() {
+        return claims.sum();
+    }
+
+    /**
+     * @return number of claims that found no pooled account and provisioned one inline
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of pooled accounts skipped and deleted because the provisioning configuration changed or they
+     *         waited too long
+     */
+    public long getDiscardedCount() {
+        return discarded.sum();
+    }
+
+    public long getAverageClaimNanos() {
+        long count = claims.sum();
+        return count == 0 ? 0 : claimNanos.sum() / count;
+    }
+
+    public long getMaxClaimNanos() {
+        return maxClaimNanos.get();
+    }
+
+    public long getRefilledCount() {
+        return refilled.sum();
+    }
+
+    public long getRefillFailureCount() {
+        return refillFailures.sum();
+    }
+
+    /**
+     * @return accounts provisioned per second by the most recent refill run
+     */
+    public double getRefillRate() {
+        return refillRate;
+    }
+
+    @Override
+    public void preDestroy() {
+        closed = true;
+        if (filler instanceof ExecutorService) {
+            ((ExecutorService) filler).shutdownNow();
+        }
+        long deadline = nanoClock.getAsLong() + SHUTDOWN_DELETE_NANOS;
+        int left = 0;
+        for (Pool pool : pools) {
+            ProvisionedAccount account;
+            while ((account = pool.take()) != null) {
+                if (nanoClock.getAsLong() - deadline >= 0) {
+                    left++;
+                    continue;
+                }
+                try {
+                    delete(account);
+                } catch (RuntimeException cause) {
+                    LOGGER.warn("Failed to delete pooled guest account {}: {}", account.getAccount().getAccountId(),
+                            cause.getMessage());
+                    left++;
+                }
+            }
+        }
+        if (left > 0) {
+            LOGGER.warn("Left {} unclaimed pooled guest accounts to the reaper at shutdown", left);
+        }
+    }
+
+    private void requestRefill() {
+        if (nanoClock.getAsLong() - retryAfterNanos < 0 || !refillPending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            filler.execute(this::refill);
+        } catch (RejectedExecutionException cause) {
+            refillPending.set(false);
+        }
+    }
+
+    private void refill() {
+        long start = nanoClock.getAsLong();
+        int provisioned = 0;
+        try {
+            String profile = accountProvisioner.getProvisioningProfile();
+            int highWatermark = getHighWatermark();
+            for (Pool pool : pools) {
+                while (pool.active && pool.depth.get() < highWatermark) {
+                    ProvisionedAccount account = accountProvisioner.provisionGuestAccount(pool.omni);
+                    guestAccountReaper.register(account.getAccount().getAccountId(), null, false);
+                    if (closed) {
+                        delete(account);
+                        return;
+                    }
+                    pool.offer(new PooledAccount(account, profile, nanoClock.getAsLong()));
+                    provisioned++;
+                    refilled.increment();
+                }
+            }
+        } catch (RuntimeException cause) {
+            refillFailures.increment();
+            retryAfterNanos = nanoClock.getAsLong() + RETRY_BACKOFF_NANOS;
+            LOGGER.warn("Failed to refill guest account pool: {}", cause.getMessage());
+        } finally {
+            long elapsed = nanoClock.getAsLong() - start;
+            if (provisioned > 0) {
+                refillRate = provisioned * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(elapsed, 1L);
+                LOGGER.info("Refilled guest account pool with {} accounts in {} ms", provisioned,
+                        TimeUnit.NANOSECONDS.toMillis(elapsed));
+            }
+            refillPending.set(false);
+        }
+    }
+
+    private void delete(ProvisionedAccount account) {
+        try {
+            accountProvisioner.getAccountManager().deleteAccount(account.getAccount().getAccountId());
+        } catch (NoSuchElementException cause) {
+            // Already deleted elsewhere, possibly by the reaper.
+        }
+    }
+
+    /**
+     * @return how long an account may wait in the pool, or 0 for no limit while the reaper is disabled
+     */
+    private long getMaxAgeNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(guestAccountReaper.getRetentionMillis()) / 2;
+    }
+
+    private int getHighWatermark() {
+        return Math.min(getWatermark(ACCOUNT_POOL_HIGH_WATERMARK), MAX_HIGH_WATERMARK);
+    }
+
+    private int getLowWatermark(int highWatermark) {
+        int lowWatermark = getWatermark(ACCOUNT_POOL_LOW_WATERMARK);
+        return lowWatermark <= 0 || lowWatermark > highWatermark ? highWatermark / 2 : lowWatermark;
+    }
+
+    private int getWatermark(String key) {
+        Object value = invoker.getAttributes().get(key);
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        if (value instanceof String && !((String) value).isBlank()) {
+            try {
+                return (int) Double.parseDouble(((String) value).trim());
+            } catch (NumberFormatException cause) {
+                LOGGER.warn("Ignoring invalid {}: {}", key, value);
+            }
+        }
+        return 0;
+    }
+
+    private static ExecutorService newFiller() {
+        return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(1), runnable -> {
+            Thread thread = new Thread(runnable, "guest-auth-account-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private final class Pool {
+
+        private final boolean omni;
+        private final Queue<PooledAccount> accounts = new ConcurrentLinkedQueue<>();
+        // ConcurrentLinkedQueue#size is linear, so the depth is tracked separately.
+        private final AtomicInteger depth = new AtomicInteger();
+        private volatile boolean active;
+
+        private Pool(boolean omni) {
+            this.omni = omni;
+        }
+
+        private void offer(PooledAccount account) {
+            accounts.add(account);
+            depth.incrementAndGet();
+        }
+
+        private ProvisionedAccount poll(String profile, long maxAgeNanos) {
+            PooledAccount pooled;
+            while ((pooled = accounts.poll()) != null) {
+                depth.decrementAndGet();
+                boolean fresh = maxAgeNanos <= 0 || nanoClock.getAsLong() - pooled.pooledAtNanos <= maxAgeNanos;
+                if (fresh && pooled.profile.equals(profile)) {
+                    return pooled.account;
+                }
+                discarded.increment();
+                ProvisionedAccount outdated = pooled.account;
+                deferredTasks.run("delete outdated pooled account " + outdated.getAccount().getAccountId(),
+                        () -> delete(outdated), () -> { });
+            }
+            return null;
+        }
+
+        private ProvisionedAccount take() {
+            PooledAccount pooled = accounts.poll();
+            if (pooled == null) {
+                return null;
+            }
+            depth.decrementAndGet();
+            return pooled.account;
+        }
+    }
+
+    private static final class PooledAccount {
+
+        private final ProvisionedAccount account;
+        private final String profile;
+        private final long pooledAtNanos;
+
+        private PooledAccount(ProvisionedAccount account, String profile, long pooledAtNanos) {
+            this.account = account;
+            this.profile = profile;
+            this.pooledAtNanos = pooledAtNanos;
+        }
+    }
+
+}
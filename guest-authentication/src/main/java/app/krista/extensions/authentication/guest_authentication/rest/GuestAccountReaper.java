@@ -0,0 +1,303 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.inject.Inject;
+import app.krista.extension.executor.Invoker;
+import app.krista.extensions.authentication.guest_authentication.GuestAuthenticationExtension;
+import app.krista.extensions.authentication.guest_authentication.session.AccountExistenceCache;
+import app.krista.extensions.util.KeyValueStore;
+import app.krista.ksdk.authentication.SessionManager;
+import com.google.gson.Gson;
+import org.glassfish.hk2.api.PostConstruct;
+import org.glassfish.hk2.api.PreDestroy;
+import org.jvnet.hk2.annotations.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static app.krista.extensions.authentication.guest_authentication.GuestAuthenticationExtension.*;
+
+/**
+ * Deletes guest accounts whose last login is older than the configured retention and that have no live session.
+ * <p>
+ * The workspace offers no way to list guest accounts, so each login is registered in a {@link BucketedRegistry} of
+ * hourly buckets, and accounts created before the reaper was enabled are out of its reach. Registrations are buffered
+ * in memory and written to the bucket of the current hour on every tick. Accounts of the {@link GuestAccountPool} are
+ * registered without a session when they are provisioned, so one that is never claimed is deleted as well, even if
+ * the extension stopped before it could delete it.
+ * <p>
+ * On every {@link #TICK_SECONDS} tick at most {@link #BATCH_SIZE} registrations of buckets that lie entirely outside
+ * the retention window are examined, and none if more than {@link #BUSY_LOGINS_PER_TICK} logins arrived since the
+ * previous tick. An account is deleted only if its session has ended and its {@code KRISTA_LAST_LOGIN} attribute is
+ * older than the retention as well; otherwise its registration is registered again for the current hour. The position
+ * in the registry is checkpointed after every batch, and the registry of a stopped extension is taken over by the
+ * instances still running.
+ * <p>
+ * A login that resumes an existing account or claims a pooled one records its session as the latest of that account,
+ * and only the registration of the latest session can delete such an account.
+ * <p>
+ * The reaper is enabled by the {@value GuestAuthenticationExtension#ACCOUNT_RETENTION_DAYS} parameter; logins are
+ * not registered while it is disabled.
+ */
+@Service
+public class GuestAccountReaper implements PostConstruct, PreDestroy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GuestAccountReaper.class);
+
+    static final String KEY_PREFIX = "guestAccountReaper:";
+    static final long BUCKET_MILLIS = TimeUnit.HOURS.toMillis(1);
+    static final long TICK_SECONDS = 5;
+    static final int BATCH_SIZE = 50;
+    static final int BUSY_LOGINS_PER_TICK = 50;
+    static final int MAX_BUCKETS_PER_TICK = 48;
+    static final int MAX_PENDING = 100_000;
+
+    private final KeyValueStore keyValueStore;
+    private final SessionManager sessionManager;
+    private final AccountProvisioner accountProvisioner;
+    private final AccountManager accountManager;
+    private final AccountExistenceCache accountExistenceCache;
+    private final Invoker invoker;
+    private final ScheduledExecutorService scheduler;
+    private final LongSupplier millisClock;
+    private final Gson gson = new Gson();
+    private final BucketedRegistry<Registration> registry;
+    private final Queue<Registration> pending = new ConcurrentLinkedQueue<>();
+    private final LongAdder pendingCount = new LongAdder();
+    private final LongAdder logins = new LongAdder();
+    private final LongAdder reaped = new LongAdder();
+    private final LongAdder retained = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private long loginsAtLastTick;
+
+    @Inject
+    public GuestAccountReaper(KeyValueStore keyValueStore, SessionManager sessionManager,
+            AccountProvisioner accountProvisioner, AccountManager accountManager,
+            AccountExistenceCache accountExistenceCache, Invoker invoker) {
+        this(keyValueStore, sessionManager, accountProvisioner, accountManager, accountExistenceCache, invoker,
+                newScheduler(), System::currentTimeMillis);
+    }
+
+    GuestAccountReaper(KeyValueStore keyValueStore, SessionManager sessionManager,
+            AccountProvisioner accountProvisioner, AccountManager accountManager,
+            AccountExistenceCache accountExistenceCache, Invoker invoker, ScheduledExecutorService scheduler,
+            LongSupplier millisClock) {
+        this.keyValueStore = keyValueStore;
+        this.sessionManager = sessionManager;
+        this.accountProvisioner = accountProvisioner;
+        this.accountManager = accountManager;
+        this.accountExistenceCache = accountExistenceCache;
+        this.invoker = invoker;
+        this.scheduler = scheduler;
+        this.millisClock = millisClock;
+        this.registry = new BucketedRegistry<>(keyValueStore, KEY_PREFIX, BUCKET_MILLIS,
+                chunk -> gson.toJson(chunk.toArray(new Registration[0])), this::parseChunk, millisClock);
+    }
+
+    @Override
+    public void postConstruct() {
+        scheduler.scheduleWithFixedDelay(this::tick, TICK_SECONDS, TICK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void preDestroy() {
+        scheduler.shutdownNow();
+        try {
+            flush();
+            registry.retire();
+        } catch (RuntimeException cause) {
+            LOGGER.warn("Failed to save pending guest account registrations: {}", cause.getMessage());
+        }
+    }
+
+    /**
+     * Registers a guest login so that its account is deleted once it is past the retention window.
+     *
+     * @param sessionId session of the login, or null for an account provisioned into the pool
+     * @param resumed true if the login reused an existing or pooled account; its earlier registrations are then
+     *        superseded
+     */
+    public void register(String accountId, String sessionId, boolean resumed) {
+        if (getRetentionMillis() <= 0) {
+            return;
+        }
+        logins.increment();
+        if (pendingCount.sum() >= MAX_PENDING) {
+            LOGGER.warn("Dropping guest account registration, too many pending: {}", accountId);
+            return;
+        }
+        pending.add(new Registration(accountId, sessionId, resumed));
+        pendingCount.increment();
+    }
+
+    public long getReapedCount() {
+        return reaped.sum();
+    }
+
+    /**
+     * @return number of expired registrations kept because their session was still live or the account logged in
+     *         again within the retention
+     */
+    public long getRetainedCount() {
+        return retained.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    synchronized void tick() {
+        try {
+            flush();
+            long loginsSinceLastTick = logins.sum() - loginsAtLastTick;
+            loginsAtLastTick += loginsSinceLastTick;
+            long retentionMillis = getRetentionMillis();
+            if (retentionMillis > 0) {
+                // A busy tick still walks with no budget, to keep the registry of this instance its own.
+                int budget = loginsSinceLastTick <= BUSY_LOGINS_PER_TICK ? BATCH_SIZE : 0;
+                long cutoffMillis = millisClock.getAsLong() - retentionMillis;
+                registry.walk(cutoffMillis, budget, MAX_BUCKETS_PER_TICK,
+                        registration -> reap(registration, cutoffMillis));
+            }
+        } catch (RuntimeException cause) {
+            // Keep the schedule alive; the checkpoint makes the next tick retry the same registrations.
+            failures.increment();
+            LOGGER.warn("Guest account reaper tick failed: {}", cause.getMessage());
+        }
+    }
+
+    /**
+     * Writes buffered registrations to the bucket of the current hour.
+     */
+    synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Registration> registrations = new ArrayList<>();
+        Registration registration;
+        while ((registration = pending.poll()) != null) {
+            pendingCount.decrement();
+            if (registration.resumed) {
+                keyValueStore.put(latestSessionKey(registration.accountId), registration.sessionId);
+            }
+            registrations.add(registration);
+        }
+        registry.append(millisClock.getAsLong() / BUCKET_MILLIS, registrations);
+    }
+
+    private void reap(Registration registration, long cutoffMillis) {
+        Object latestSession = keyValueStore.get(latestSessionKey(registration.accountId));
+        if (latestSession != null && !latestSession.equals(registration.sessionId)) {
+            // The account was resumed later; the registration of that login decides.
+            return;
+        }
+        if (registration.sessionId != null && sessionManager.lookupAccountId(registration.sessionId) != null) {
+            retain(registration);
+            return;
+        }
+        long lastLoginMillis;
+        try {
+            lastLoginMillis = accountProvisioner.getLastLoginMillis(registration.accountId);
+        } catch (NoSuchElementException cause) {
+            // Already deleted elsewhere; only the records of the extension are left.
+            lastLoginMillis = 0;
+        }
+        if (lastLoginMillis > cutoffMillis) {
+            retain(registration);
+            return;
+        }
+        try {
+            accountProvisioner.getAccountManager().deleteAccount(registration.accountId);
+            reaped.increment();
+        } catch (NoSuchElementException cause) {
+            // Already deleted elsewhere.
+        }
+        if (registration.sessionId != null) {
+            accountManager.delete(registration.sessionId);
+        }
+        accountExistenceCache.evict(registration.accountId);
+        if (latestSession != null) {
+            keyValueStore.remove(latestSessionKey(registration.accountId));
+        }
+    }
+
+    private void retain(Registration registration) {
+        retained.increment();
+        pending.add(registration);
+        pendingCount.increment();
+    }
+
+    private List<Registration> parseChunk(String chunk) {
+        Registration[] registrations = gson.fromJson(chunk, Registration[].class);
+        return registrations == null ? List.of() : Arrays.asList(registrations);
+    }
+
+    /**
+     * @return the configured retention, or 0 while the reaper is disabled
+     */
+    long getRetentionMillis() {
+        Object value = invoker.getAttributes().get(ACCOUNT_RETENTION_DAYS);
+        double days = 0;
+        if (value instanceof Number) {
+            days = ((Number) value).doubleValue();
+        } else if (value instanceof String && !((String) value).isBlank()) {
+            try {
+                days = Double.parseDouble(((String) value).trim());
+            } catch (NumberFormatException cause) {
+                LOGGER.warn("Ignoring invalid {}: {}", ACCOUNT_RETENTION_DAYS, value);
+            }
+        }
+        return days > 0 ? (long) (days * TimeUnit.DAYS.toMillis(1)) : 0;
+    }
+
+    private static String latestSessionKey(String accountId) {
+        return KEY_PREFIX + "latestSession:" + accountId;
+    }
+
+    private static ScheduledExecutorService newScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "guest-auth-account-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static final class Registration {
+
+        private final String accountId;
+        private final String sessionId;
+        private final boolean resumed;
+
+        private Registration(String accountId, String sessionId, boolean resumed) {
+            this.accountId = accountId;
+            this.sessionId = sessionId;
+            this.resumed = resumed;
+        }
+    }
+
+}
@@ -36,11 +36,13 @@ public final class GuestAuthenticationRoleManager {
 
     private final Invoker invoker;
     private final RoleManager roleManager;
+    private final RoleIndex roleIndex;
 
     @Inject
-    public GuestAuthenticationRoleManager(Invoker invoker, RoleManager roleManager) {
+    public GuestAuthenticationRoleManager(Invoker invoker, RoleManager roleManager, RoleIndex roleIndex) {
         this.invoker = invoker;
         this.roleManager = roleManager;
+        this.roleIndex = roleIndex;
 
     }
 
@@ -61,11 +63,7 @@ public final class GuestAuthenticationRoleManager {
     }
 
     private ModifiableRole getModifiableRole(String roleName) {
-        ModifiableRole modifiableRole = roleManager.lookupRole(roleName);
-        if (null == modifiableRole) {
-            roleManager.createRole(roleName);
-        }
-        return modifiableRole;
+        return roleIndex.findOrCreate(roleName);
     }
 
     /**
@@ -0,0 +1,75 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import java.util.UUID;
+import app.krista.extension.common.EmailAddresses;
+import app.krista.omni.sdk.spi.impl.services.AccountService;
+import app.krista.omni.sdk.spi.impl.util.Strings;
+
+/**
+ * Email address a guest account is provisioned for, and whether that address was generated for this login.
+ */
+public final class GuestIdentity {
+
+    private static final String EMAIL_PREFIX = "guest";
+    private static final String UNDERSCORE = "_";
+
+    private final String emailAddress;
+    private final boolean generated;
+
+    private GuestIdentity(String emailAddress, boolean generated) {
+        this.emailAddress = emailAddress;
+        this.generated = generated;
+    }
+
+    /**
+     * @param omni true for guests coming through an Omni source, which use the Omni supported domain
+     * @return identity with a new, never used {@code guest_<uuid>} email address
+     */
+    public static GuestIdentity generate(boolean omni) {
+        return new GuestIdentity(EMAIL_PREFIX + UNDERSCORE + UUID.randomUUID() + Strings.AT
+                + (omni ? AccountService.SUPPORTED_DOMAIN : EmailAddresses.DEFAULT_DOMAIN), true);
+    }
+
+    /**
+     * @return identity for an email address that may already have a workspace account
+     */
+    public static GuestIdentity of(String emailAddress) {
+        return new GuestIdentity(emailAddress, false);
+    }
+
+    public String getEmailAddress() {
+        return emailAddress;
+    }
+
+    /**
+     * @return true if the email address was generated by {@link #generate(boolean)} and so has no account yet
+     */
+    public boolean isGenerated() {
+        return generated;
+    }
+
+    @Override
+    public String toString() {
+        return emailAddress;
+    }
+
+}
@@ -22,13 +22,15 @@ import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.ext.ExceptionMapper;
 import app.krista.extension.common.KristaError;
+import app.krista.extensions.authentication.guest_authentication.util.AuthEventLogger;
 
 public class KristaExceptionMapper implements ExceptionMapper<Exception> {
 
+    private static final AuthEventLogger EVENTS = new AuthEventLogger(KristaExceptionMapper.class);
+
     @Override
     public Response toResponse(Exception exception) {
         String message = exception.getMessage() == null ? "Authentication failure." : exception.getMessage();
-        exception.printStackTrace();
         int statusCode = 500;
         if (exception instanceof WebApplicationException) {
             statusCode = ((WebApplicationException) exception).getResponse().getStatus();
@@ -36,6 +38,8 @@ public class KristaExceptionMapper implements ExceptionMapper<Exception> {
         if (exception instanceof IllegalArgumentException) {
             statusCode = 400;
         }
+        EVENTS.log(AuthEventLogger.Event.REQUEST_FAILED, "Request failed with status {}: {}", statusCode, message,
+                exception);
         return Response.status(statusCode).entity(new KristaError(message, "Guest Auth - " + statusCode)).build();
     }
 
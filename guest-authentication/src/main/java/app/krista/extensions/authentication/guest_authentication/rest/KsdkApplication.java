@@ -36,7 +36,7 @@ public class KsdkApplication extends Application {
 
     @Override
     public Set<Object> getSingletons() {
-        return Set.of(new KristaExceptionMapper());
+        return Set.of(new KristaExceptionMapper(), new AuthenticationResponseWriter());
     }
 
 }
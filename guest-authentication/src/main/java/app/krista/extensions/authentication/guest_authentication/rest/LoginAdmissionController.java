@@ -0,0 +1,345 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.inject.Inject;
+import app.krista.extension.executor.Invoker;
+import app.krista.extensions.authentication.guest_authentication.GuestAuthenticationExtension;
+import org.jvnet.hk2.annotations.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static app.krista.extensions.authentication.guest_authentication.GuestAuthenticationExtension.*;
+
+/**
+ * Admission control for logins, which are unauthenticated and may create accounts.
+ * <p>
+ * Each client key gets a token bucket holding {@value GuestAuthenticationExtension#LOGIN_RATE_PER_MINUTE} logins that
+ * refills at the same rate per minute. The client key combines the parts listed in
+ * {@value GuestAuthenticationExtension#LOGIN_RATE_LIMIT_KEY}: {@value #CLIENT_ADDRESS}, {@value #CALLER_URI} and
+ * {@value #SOURCE}. The client address is the X-Forwarded-For entry added by the outermost of the
+ * {@value GuestAuthenticationExtension#TRUSTED_PROXY_HOPS} trusted proxies, counted from the right; entries left of it
+ * come from the client and may be forged. Without the header, or with no trusted proxy, the client address is the
+ * remote address of the connection. A login whose client address cannot be determined is not limited per client, only
+ * by the cap on concurrent logins, since all such logins would otherwise share one budget. Keys are hashed with a
+ * per-instance seed into a fixed array of buckets, each packed into a single long updated by compare-and-set, so
+ * memory is bounded and no lock is taken. Keys sharing a bucket share its budget, which can only make limiting
+ * stricter. Independently, {@value GuestAuthenticationExtension#MAX_CONCURRENT_LOGINS} caps the logins in progress.
+ * <p>
+ * Rejections do not write any shared state besides their counter.
+ */
+@Service
+public class LoginAdmissionController {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoginAdmissionController.class);
+
+    static final String CLIENT_ADDRESS = "client_address";
+    static final String CALLER_URI = "caller_uri";
+    static final String SOURCE = "source";
+    static final int BUCKETS = 1 << 14;
+    static final int MAX_RATE_PER_MINUTE = 10_000;
+    static final int DEFAULT_TRUSTED_PROXY_HOPS = 1;
+    static final int MAX_TRUSTED_PROXY_HOPS = 16;
+
+    // Bucket layout: high 40 bits refill time in millis since the origin (+1, so 0 means unused),
+    // low 24 bits tokens in thousandths.
+    private static final int TOKEN_BITS = 24;
+    private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+    private static final long ONE_TOKEN = 1000;
+    private static final long MILLIS_PER_MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    public enum Decision {
+        ADMITTED, RATE_LIMITED, OVERLOADED
+    }
+
+    private final Invoker invoker;
+    private final LongSupplier millisClock;
+    private final long origin;
+    private final long seed;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile KeyParts keyParts = KeyParts.parse(null);
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder overloaded = new LongAdder();
+
+    @Inject
+    public LoginAdmissionController(Invoker invoker) {
+        this(invoker, System::currentTimeMillis, ThreadLocalRandom.current().nextLong());
+    }
+
+    LoginAdmissionController(Invoker invoker, LongSupplier millisClock, long seed) {
+        this.invoker = invoker;
+        this.millisClock = millisClock;
+        this.origin = millisClock.getAsLong();
+        this.seed = seed;
+    }
+
+    /**
+     * Decides whether a login may proceed. Every {@link Decision#ADMITTED} login must be followed by
+     * {@link #release()}.
+     *
+     * @param forwardedFor raw X-Forwarded-For header of the request
+     * @param remoteAddress address of the connection the request arrived on, may be null
+     */
+    public Decision tryAdmit(String forwardedFor, String remoteAddress, String callerUri, String source) {
+        int maxConcurrent = getSetting(MAX_CONCURRENT_LOGINS, Integer.MAX_VALUE);
+        if (!tryEnter(maxConcurrent > 0 ? maxConcurrent : Integer.MAX_VALUE)) {
+            overloaded.increment();
+            return Decision.OVERLOADED;
+        }
+        int ratePerMinute = getSetting(LOGIN_RATE_PER_MINUTE, MAX_RATE_PER_MINUTE);
+        int bucket = ratePerMinute > 0 ? bucketOf(forwardedFor, remoteAddress, callerUri, source) : -1;
+        if (bucket >= 0 && !tryTake(bucket, ratePerMinute)) {
+            inFlight.decrementAndGet();
+            rateLimited.increment();
+            return Decision.RATE_LIMITED;
+        }
+        admitted.increment();
+        return Decision.ADMITTED;
+    }
+
+    /**
+     * Ends a login admitted by {@link #tryAdmit(String, String, String, String)}.
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * @return seconds a rejected client should wait before retrying
+     */
+    public int getRetryAfterSeconds(Decision decision) {
+        int ratePerMinute = getSetting(LOGIN_RATE_PER_MINUTE, MAX_RATE_PER_MINUTE);
+        if (decision != Decision.RATE_LIMITED || ratePerMinute <= 0) {
+            return 1;
+        }
+        return (int) Math.max(1, (TimeUnit.MINUTES.toSeconds(1) + ratePerMinute - 1) / ratePerMinute);
+    }
+
+    /**
+     * @return number of logins admitted
+     */
+    public long getAdmittedCount() {
+        return admitted.sum();
+    }
+
+    /**
+     * @return number of logins rejected because their client key ran out of tokens
+     */
+    public long getRateLimitedCount() {
+        return rateLimited.sum();
+    }
+
+    /**
+     * @return number of logins rejected because too many logins were in progress
+     */
+    public long getOverloadedCount() {
+        return overloaded.sum();
+    }
+
+    /**
+     * @return number of admitted logins not yet released
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    private boolean tryEnter(int maxConcurrent) {
+        int current = inFlight.get();
+        while (current < maxConcurrent) {
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+            current = inFlight.get();
+        }
+        return false;
+    }
+
+    private boolean tryTake(int bucket, int ratePerMinute) {
+        long capacity = ratePerMinute * ONE_TOKEN;
+        long now = millisClock.getAsLong() - origin + 1;
+        while (true) {
+            long state = buckets.get(bucket);
+            long refilledAt = now;
+            long tokens = capacity;
+            if (state != 0) {
+                refilledAt = state >>> TOKEN_BITS;
+                tokens = Math.min(state & TOKEN_MASK, capacity);
+                long elapsed = Math.min(now - refilledAt, MILLIS_PER_MINUTE);
+                // Thousandths of a token earned; the stamp only moves once something was earned.
+                long earned = elapsed > 0 ? elapsed * capacity / MILLIS_PER_MINUTE : 0;
+                if (earned > 0) {
+                    tokens = Math.min(capacity, tokens + earned);
+                    refilledAt = now;
+                }
+            }
+            if (tokens < ONE_TOKEN) {
+                return false;
+            }
+            if (buckets.compareAndSet(bucket, state, (refilledAt << TOKEN_BITS) | (tokens - ONE_TOKEN))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the bucket of the client key, or -1 if the client address is part of the key but unknown
+     */
+    private int bucketOf(String forwardedFor, String remoteAddress, String callerUri, String source) {
+        KeyParts parts = getKeyParts();
+        long hash = seed;
+        if (parts.clientAddress) {
+            int hops = getTrustedProxyHops();
+            if (forwardedFor == null || forwardedFor.isBlank() || hops == 0) {
+                if (remoteAddress == null || remoteAddress.isBlank()) {
+                    return -1;
+                }
+                hash = hash(hash, remoteAddress, 0, remoteAddress.length());
+            } else {
+                // Walk left one entry per trusted proxy; with fewer entries the leftmost was added by a proxy too.
+                int end = forwardedFor.length();
+                int start = forwardedFor.lastIndexOf(',', end - 1) + 1;
+                for (int hop = 1; hop < hops && start > 0; hop++) {
+                    end = start - 1;
+                    start = forwardedFor.lastIndexOf(',', end - 1) + 1;
+                }
+                hash = hash(hash, forwardedFor, start, end);
+            }
+        }
+        if (parts.callerUri) {
+            hash = hash(hash, callerUri, 0, callerUri == null ? 0 : callerUri.length());
+        }
+        if (parts.source) {
+            hash = hash(hash, source, 0, source == null ? 0 : source.length());
+        }
+        return (int) hash & (BUCKETS - 1);
+    }
+
+    private KeyParts getKeyParts() {
+        Object value = invoker.getAttributes().get(LOGIN_RATE_LIMIT_KEY);
+        String configured = value instanceof String ? (String) value : null;
+        KeyParts current = keyParts;
+        if (!Objects.equals(configured, current.configured)) {
+            current = KeyParts.parse(configured);
+            keyParts = current;
+        }
+        return current;
+    }
+
+    private int getTrustedProxyHops() {
+        Object value = invoker.getAttributes().get(TRUSTED_PROXY_HOPS);
+        if (value == null || value instanceof String && ((String) value).isBlank()) {
+            return DEFAULT_TRUSTED_PROXY_HOPS;
+        }
+        return Math.max(0, getSetting(TRUSTED_PROXY_HOPS, MAX_TRUSTED_PROXY_HOPS));
+    }
+
+    private int getSetting(String key, int max) {
+        Object value = invoker.getAttributes().get(key);
+        double setting = 0;
+        if (value instanceof Number) {
+            setting = ((Number) value).doubleValue();
+        } else if (value instanceof String && !((String) value).isBlank()) {
+            try {
+                setting = Double.parseDouble(((String) value).trim());
+            } catch (NumberFormatException cause) {
+                LOGGER.warn("Ignoring invalid {}: {}", key, value);
+            }
+        }
+        return (int) Math.min(setting, max);
+    }
+
+    // FNV-1a over the trimmed chars of value[start, end), finished with the murmur3 mixer; null and "" differ.
+    private static long hash(long hash, String value, int start, int end) {
+        if (value == null) {
+            return mix(hash ^ 0x9e3779b97f4a7c15L);
+        }
+        while (start < end && Character.isWhitespace(value.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(value.charAt(end - 1))) {
+            end--;
+        }
+        long h = hash ^ 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static final class KeyParts {
+
+        private final String configured;
+        private final boolean clientAddress;
+        private final boolean callerUri;
+        private final boolean source;
+
+        private KeyParts(String configured, boolean clientAddress, boolean callerUri, boolean source) {
+            this.configured = configured;
+            this.clientAddress = clientAddress;
+            this.callerUri = callerUri;
+            this.source = source;
+        }
+
+        private static KeyParts parse(String configured) {
+            boolean clientAddress = false;
+            boolean callerUri = false;
+            boolean source = false;
+            if (configured != null) {
+                for (String part : configured.split(",")) {
+                    String name = part.trim();
+                    if (CLIENT_ADDRESS.equals(name)) {
+                        clientAddress = true;
+                    } else if (CALLER_URI.equals(name)) {
+                        callerUri = true;
+                    } else if (SOURCE.equals(name)) {
+                        source = true;
+                    } else if (!name.isEmpty()) {
+                        LOGGER.warn("Ignoring unknown {} part: {}", LOGIN_RATE_LIMIT_KEY, name);
+                    }
+                }
+            }
+            if (!clientAddress && !callerUri && !source) {
+                clientAddress = true;
+            }
+            return new KeyParts(configured, clientAddress, callerUri, source);
+        }
+
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import app.krista.ksdk.accounts.Account;
+
+/**
+ * Guest account together with the strategy that provisioned it.
+ */
+public final class ProvisionedAccount {
+
+    private final Account account;
+    private final ProvisioningStrategy strategy;
+    private final boolean pooled;
+
+    public ProvisionedAccount(Account account, ProvisioningStrategy strategy) {
+        this(account, strategy, false);
+    }
+
+    private ProvisionedAccount(Account account, ProvisioningStrategy strategy, boolean pooled) {
+        this.account = account;
+        this.strategy = strategy;
+        this.pooled = pooled;
+    }
+
+    /**
+     * @return the same account, marked as claimed from the {@link GuestAccountPool}
+     */
+    public ProvisionedAccount asPooled() {
+        return new ProvisionedAccount(account, strategy, true);
+    }
+
+    public Account getAccount() {
+        return account;
+    }
+
+    public boolean isWorkspaceAdmin() {
+        return strategy.isWorkspaceAdmin(account);
+    }
+
+    /**
+     * @return true if the account was provisioned ahead of time and claimed from the {@link GuestAccountPool}
+     */
+    public boolean isPooled() {
+        return pooled;
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import app.krista.extension.authorization.AuthorizationException;
+import app.krista.ksdk.accounts.Account;
+
+/**
+ * How the workspace account of a guest identity is created or fetched.
+ * <p>
+ * {@link AccountProvisioner} picks the first registered strategy that supports an identity, so a strategy can skip
+ * every check that is provably redundant for the identities it accepts.
+ */
+public interface ProvisioningStrategy {
+
+    /**
+     * @return true if this strategy can provision the identity
+     */
+    boolean supports(GuestIdentity identity);
+
+    /**
+     * @return workspace account of the identity, created if needed
+     */
+    Account provision(GuestIdentity identity) throws AuthorizationException;
+
+    /**
+     * @return true if the account, provisioned by this strategy, holds workspace admin rights
+     */
+    boolean isWorkspaceAdmin(Account account);
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+import javax.inject.Inject;
+import app.krista.extension.common.AuthenticationResponse;
+import app.krista.extensions.authentication.guest_authentication.util.ExpiringCache;
+import org.jvnet.hk2.annotations.Service;
+
+/**
+ * Keeps the serialized body and ETag of the response replayed to an already authenticated widget calling /login
+ * again, which widgets do on every page navigation.
+ * <p>
+ * An entry remembers the stored response it was built from. {@link AccountManager} hands out the same shared instance
+ * until the session record is written again, so a different instance means the record changed and the body is
+ * rebuilt. Deleted sessions are dropped through {@link #invalidate(String)}.
+ */
+@Service
+public class ReplayResponseCache {
+
+    static final int MAX_ENTRIES = 20_000;
+    // Weight is measured in bytes of the serialized body.
+    static final long MAX_WEIGHT = 8L * 1024 * 1024;
+    static final long TTL_MINUTES = 10;
+    private static final int ETAG_BYTES = 16;
+
+    private final AuthenticationResponseWriter writer = new AuthenticationResponseWriter();
+    private final ExpiringCache<String, Replay> replays;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder builds = new LongAdder();
+
+    @Inject
+    public ReplayResponseCache() {
+        this.replays = new ExpiringCache<>(MAX_ENTRIES, MAX_WEIGHT, TTL_MINUTES, TimeUnit.MINUTES,
+                (sessionId, replay) -> replay.body.length);
+    }
+
+    /**
+     * @param stored response currently stored for the session
+     * @param toReplayed turns the stored response into the one replayed to the client
+     * @return cached replay of the stored response, built if missing or built from an older response
+     */
+    public Replay get(String sessionId, AuthenticationResponse stored,
+            UnaryOperator<AuthenticationResponse> toReplayed) {
+        Replay replay = replays.get(sessionId);
+        if (replay != null && replay.source == stored) {
+            hits.increment();
+            return replay;
+        }
+        builds.increment();
+        replay = new Replay(stored, serialize(toReplayed.apply(stored)));
+        replays.put(sessionId, replay);
+        return replay;
+    }
+
+    public void invalidate(String sessionId) {
+        replays.invalidate(sessionId);
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of replay bodies serialized because none was cached for the stored response
+     */
+    public long getBuildCount() {
+        return builds.sum();
+    }
+
+    private byte[] serialize(AuthenticationResponse response) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+        try {
+            writer.writeTo(response, AuthenticationResponse.class, AuthenticationResponse.class, null, null, null,
+                    body);
+        } catch (IOException cause) {
+            throw new IllegalStateException("Failed to serialize the replayed authentication response.", cause);
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * Serialized replay response and its strong ETag, derived from the body.
+     */
+    public static final class Replay {
+
+        private final AuthenticationResponse source;
+        private final byte[] body;
+        private final String eTag;
+
+        private Replay(AuthenticationResponse source, byte[] body) {
+            this.source = source;
+            this.body = body;
+            this.eTag = '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(
+                    Arrays.copyOf(sha256(body), ETAG_BYTES)) + '"';
+        }
+
+        /**
+         * @return serialized JSON body; shared, must not be modified
+         */
+        public byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * @return quoted ETag header value
+         */
+        public String getETag() {
+            return eTag;
+        }
+
+        /**
+         * Weak comparison as required for If-None-Match.
+         *
+         * @param ifNoneMatch raw If-None-Match header, may be null
+         * @return true if the client already has this body
+         */
+        public boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(eTag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static byte[] sha256(byte[] body) {
+            try {
+                return MessageDigest.getInstance("SHA-256").digest(body);
+            } catch (NoSuchAlgorithmException cause) {
+                throw new IllegalStateException(cause);
+            }
+        }
+
+    }
+
+}
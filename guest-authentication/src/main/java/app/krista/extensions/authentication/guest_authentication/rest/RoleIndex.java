@@ -0,0 +1,162 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import javax.inject.Inject;
+import app.krista.extensions.authentication.guest_authentication.util.SingleFlight;
+import app.krista.ksdk.authorization.ModifiableRole;
+import app.krista.ksdk.authorization.RoleManager;
+import org.jvnet.hk2.annotations.Service;
+
+/**
+ * In-memory index of workspace roles by name, so resolving a role during login is a hash lookup instead of an
+ * iteration over every workspace role.
+ * <p>
+ * The index is rebuilt from {@link RoleManager#getRoles()} when it is older than {@link #REFRESH_MILLIS}, and on a
+ * lookup miss at most once per {@link #MISS_REFRESH_MILLIS}. Roles created through {@link #findOrCreate(String)} are
+ * added to the index immediately.
+ * <p>
+ * Role creation is single-flight per role name: when a burst of first logins finds the role missing, one of them
+ * creates it and the others wait for and share that role instead of issuing their own create calls.
+ */
+@Service
+public final class RoleIndex {
+
+    static final long REFRESH_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    static final long MISS_REFRESH_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final RoleManager roleManager;
+    private final LongSupplier millisClock;
+    private final Object rebuildLock = new Object();
+    private final SingleFlight<String, ModifiableRole> creations = new SingleFlight<>();
+    private volatile Snapshot snapshot;
+
+    @Inject
+    public RoleIndex(RoleManager roleManager) {
+        this(roleManager, System::currentTimeMillis);
+    }
+
+    RoleIndex(RoleManager roleManager, LongSupplier millisClock) {
+        this.roleManager = roleManager;
+        this.millisClock = millisClock;
+    }
+
+    /**
+     * @return workspace role with the given name or null if there is none
+     */
+    public ModifiableRole find(String roleName) {
+        Snapshot current = current();
+        ModifiableRole role = current.roles.get(roleName);
+        if (role == null && millisClock.getAsLong() - current.builtAtMillis >= MISS_REFRESH_MILLIS) {
+            role = rebuild(current).roles.get(roleName);
+        }
+        return role;
+    }
+
+    /**
+     * @return workspace role with the given name, created first if the workspace does not have it yet
+     */
+    public ModifiableRole findOrCreate(String roleName) {
+        ModifiableRole role = find(roleName);
+        return role != null ? role : creations.run(roleName, () -> create(roleName));
+    }
+
+    /**
+     * Adds a role created by this extension to the index.
+     */
+    public void register(ModifiableRole role) {
+        synchronized (rebuildLock) {
+            Snapshot current = snapshot;
+            if (current == null) {
+                return;
+            }
+            Map<String, ModifiableRole> roles = new HashMap<>(current.roles);
+            roles.put(role.getName(), role);
+            snapshot = new Snapshot(roles, current.builtAtMillis);
+        }
+    }
+
+    /**
+     * Forces the next lookup to rebuild the index from the workspace.
+     */
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    private ModifiableRole create(String roleName) {
+        // A creation that completed between this caller's miss and the start of its flight is already indexed.
+        Snapshot current = snapshot;
+        ModifiableRole role = current == null ? null : current.roles.get(roleName);
+        if (role != null) {
+            return role;
+        }
+        try {
+            role = roleManager.createRole(roleName);
+        } catch (RuntimeException e) {
+            // Another node may have created the role first; use it if the workspace has it now.
+            role = rebuild(snapshot).roles.get(roleName);
+            if (role == null) {
+                throw e;
+            }
+            return role;
+        }
+        register(role);
+        return role;
+    }
+
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        if (current == null || millisClock.getAsLong() - current.builtAtMillis >= REFRESH_MILLIS) {
+            current = rebuild(current);
+        }
+        return current;
+    }
+
+    private Snapshot rebuild(Snapshot stale) {
+        synchronized (rebuildLock) {
+            if (snapshot != stale && snapshot != null) {
+                // Another thread rebuilt the index while this one waited.
+                return snapshot;
+            }
+            Map<String, ModifiableRole> roles = new HashMap<>();
+            for (ModifiableRole role : roleManager.getRoles()) {
+                roles.putIfAbsent(role.getName(), role);
+            }
+            Snapshot rebuilt = new Snapshot(roles, millisClock.getAsLong());
+            snapshot = rebuilt;
+            return rebuilt;
+        }
+    }
+
+    private static final class Snapshot {
+
+        private final Map<String, ModifiableRole> roles;
+        private final long builtAtMillis;
+
+        private Snapshot(Map<String, ModifiableRole> roles, long builtAtMillis) {
+            this.roles = roles;
+            this.builtAtMillis = builtAtMillis;
+        }
+    }
+
+}
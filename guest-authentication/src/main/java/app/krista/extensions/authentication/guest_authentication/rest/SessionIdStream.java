@@ -0,0 +1,105 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Reads the JSON array of client session ids of a bulk validation request one id at a time, so a batch is never held
+ * in memory.
+ * <p>
+ * Malformed input and ids beyond the limit end the iteration instead of failing it; the ids read until then are
+ * returned and {@link #getError()} tells why the rest was not.
+ */
+final class SessionIdStream implements Iterator<String> {
+
+    private final JsonReader reader;
+    private final int limit;
+    private boolean started;
+    private boolean done;
+    private int count;
+    private String next;
+    private String error;
+
+    SessionIdStream(InputStream body, int limit) {
+        this.reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        this.limit = limit;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !done) {
+            advance();
+        }
+        return next != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String clientSessionId = next;
+        next = null;
+        return clientSessionId;
+    }
+
+    /**
+     * @return why reading stopped before the end of the array, or null if every id was read
+     */
+    String getError() {
+        return error;
+    }
+
+    private void advance() {
+        try {
+            if (!started) {
+                started = true;
+                reader.beginArray();
+            }
+            if (!reader.hasNext()) {
+                reader.endArray();
+                done = true;
+            } else if (count == limit) {
+                fail("At most " + limit + " client session ids can be validated at once.");
+            } else if (reader.peek() != JsonToken.STRING) {
+                fail("Expected a JSON array of client session ids.");
+            } else {
+                next = reader.nextString();
+                count++;
+            }
+        } catch (IOException | IllegalStateException cause) {
+            fail("Expected a JSON array of client session ids.");
+        }
+    }
+
+    private void fail(String message) {
+        error = message;
+        done = true;
+    }
+
+}
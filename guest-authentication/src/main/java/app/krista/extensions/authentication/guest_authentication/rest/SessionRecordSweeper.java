@@ -0,0 +1,151 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import app.krista.extensions.util.KeyValueStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deletes expired session records of {@link AccountManagerImpl} without scanning the KeyValueStore.
+ * <p>
+ * Every stored record is registered under the {@link #BUCKET_MILLIS} bucket of its expiry, in a
+ * {@link BucketedRegistry} of newline separated session id chunks. Registrations are buffered in memory and written on
+ * every tick. Each tick then walks the buckets that have fully expired and offers at most {@link #BATCH_SIZE} session
+ * ids to the remover, which deletes a record only if it really expired; a record stored again meanwhile has a later
+ * registration. The position in the index is checkpointed after every batch, and the registry of a stopped extension
+ * is taken over by the instances still running.
+ */
+final class SessionRecordSweeper {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionRecordSweeper.class);
+
+    static final String KEY_PREFIX = "sessionRecordSweeper:";
+    static final long BUCKET_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    static final long TICK_SECONDS = 5;
+    static final int BATCH_SIZE = 100;
+    static final int MAX_BUCKETS_PER_TICK = 144;
+    static final int MAX_PENDING = 100_000;
+
+    private final BucketedRegistry<String> registry;
+    private final Predicate<String> remover;
+    private final LongSupplier millisClock;
+    private final Queue<Registration> pending = new ConcurrentLinkedQueue<>();
+    private final LongAdder pendingCount = new LongAdder();
+    private final LongAdder swept = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * @param remover deletes the record of a session id if it has expired and tells whether it did
+     */
+    SessionRecordSweeper(KeyValueStore keyValueStore, Predicate<String> remover, LongSupplier millisClock) {
+        this.registry = new BucketedRegistry<>(keyValueStore, KEY_PREFIX, BUCKET_MILLIS,
+                chunk -> String.join("\n", chunk), SessionRecordSweeper::splitChunk, millisClock);
+        this.remover = remover;
+        this.millisClock = millisClock;
+    }
+
+    void register(String sessionId, long expiresAtMillis) {
+        if (pendingCount.sum() >= MAX_PENDING) {
+            LOGGER.warn("Dropping session record registration, too many pending: {}", sessionId);
+            return;
+        }
+        pending.add(new Registration(sessionId, expiresAtMillis));
+        pendingCount.increment();
+    }
+
+    /**
+     * @return number of expired records deleted
+     */
+    long getSweptCount() {
+        return swept.sum();
+    }
+
+    long getFailureCount() {
+        return failures.sum();
+    }
+
+    synchronized void tick() {
+        try {
+            flush();
+            registry.walk(millisClock.getAsLong(), BATCH_SIZE, MAX_BUCKETS_PER_TICK, sessionId -> {
+                if (remover.test(sessionId)) {
+                    swept.increment();
+                }
+            });
+        } catch (RuntimeException cause) {
+            // Keep the schedule alive; the checkpoint makes the next tick retry the same session ids.
+            failures.increment();
+            LOGGER.warn("Session record sweeper tick failed: {}", cause.getMessage());
+        }
+    }
+
+    /**
+     * Writes buffered registrations to the buckets of their expiry.
+     */
+    synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<Long, List<String>> buckets = new TreeMap<>();
+        Registration registration;
+        while ((registration = pending.poll()) != null) {
+            pendingCount.decrement();
+            buckets.computeIfAbsent(registration.expiresAtMillis / BUCKET_MILLIS, key -> new ArrayList<>())
+                    .add(registration.sessionId);
+        }
+        buckets.forEach(registry::append);
+    }
+
+    /**
+     * Writes buffered registrations and hands the index over to the instances still running.
+     */
+    synchronized void retire() {
+        flush();
+        registry.retire();
+    }
+
+    private static List<String> splitChunk(String chunk) {
+        return chunk.isEmpty() ? List.of() : Arrays.asList(chunk.split("\n"));
+    }
+
+    private static final class Registration {
+
+        private final String sessionId;
+        private final long expiresAtMillis;
+
+        private Registration(String sessionId, long expiresAtMillis) {
+            this.sessionId = sessionId;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+package app.krista.extensions.authentication.guest_authentication.session;
+
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.inject.Inject;
+import app.krista.extensions.authentication.guest_authentication.util.ExpiringCache;
+import app.krista.ksdk.accounts.AccountProvider;
+import org.glassfish.hk2.api.PreDestroy;
+import org.jvnet.hk2.annotations.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers which accounts were recently confirmed to exist so that authenticated requests do not fetch the full
+ * account from the AccountProvider every time.
+ * <p>
+ * An entry is fresh for {@link #FRESH_MILLIS}. A stale entry is still served, but a background task checks the account
+ * again. Accounts that turn out to be deleted are evicted right away, and so are the cached sessions that resolve to
+ * them. An entry that has not been revalidated within {@link #MAX_STALE_MILLIS} is dropped, and the next request
+ * verifies the account synchronously.
+ */
+@Service
+public class AccountExistenceCache implements PreDestroy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccountExistenceCache.class);
+
+    static final long FRESH_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    static final long MAX_STALE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    static final int MAX_ENTRIES = 50_000;
+    // Weight is measured in chars of the account id plus one for the timestamp.
+    static final long MAX_WEIGHT = 4L * 1024 * 1024;
+    static final int MAX_PENDING_REFRESHES = 1_024;
+
+    private final AccountProvider accountProvider;
+    private final SessionAccountCache sessionAccountCache;
+    private final Executor refresher;
+    private final LongSupplier millisClock;
+    private final ExpiringCache<String, Long> verifiedAt;
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private final LongAdder freshHits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder verifications = new LongAdder();
+    private final LongAdder deletedEvictions = new LongAdder();
+
+    @Inject
+    public AccountExistenceCache(AccountProvider accountProvider, SessionAccountCache sessionAccountCache) {
+        this(accountProvider, sessionAccountCache, newRefresher(), System::currentTimeMillis);
+    }
+
+    AccountExistenceCache(AccountProvider accountProvider, SessionAccountCache sessionAccountCache,
+            Executor refresher, LongSupplier millisClock) {
+        this.accountProvider = accountProvider;
+        this.sessionAccountCache = sessionAccountCache;
+        this.refresher = refresher;
+        this.millisClock = millisClock;
+        this.verifiedAt = new ExpiringCache<>(MAX_ENTRIES, MAX_WEIGHT, MAX_STALE_MILLIS, TimeUnit.MILLISECONDS,
+                (accountId, verified) -> accountId.length() + 1L,
+                () -> TimeUnit.MILLISECONDS.toNanos(millisClock.getAsLong()));
+    }
+
+    /**
+     * @return true if the account exists; answered from memory when it was verified recently
+     * @throws RuntimeException any AccountProvider failure other than the account being absent
+     */
+    public boolean exists(String accountId) {
+        Long verified = verifiedAt.get(accountId);
+        if (verified == null) {
+            return verify(accountId);
+        }
+        if (millisClock.getAsLong() - verified < FRESH_MILLIS) {
+            freshHits.increment();
+        } else {
+            staleHits.increment();
+            scheduleRefresh(accountId);
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the account and every cached session that resolves to it.
+     */
+    public void evict(String accountId) {
+        verifiedAt.invalidate(accountId);
+        sessionAccountCache.invalidateAccount(accountId);
+    }
+
+    public long getFreshHitCount() {
+        return freshHits.sum();
+    }
+
+    public long getStaleHitCount() {
+        return staleHits.sum();
+    }
+
+    public long getVerificationCount() {
+        return verifications.sum();
+    }
+
+    public long getDeletedEvictionCount() {
+        return deletedEvictions.sum();
+    }
+
+    @Override
+    public void preDestroy() {
+        if (refresher instanceof ExecutorService) {
+            ((ExecutorService) refresher).shutdownNow();
+        }
+    }
+
+    private boolean verify(String accountId) {
+        verifications.increment();
+        try {
+            accountProvider.getAccount(accountId);
+        } catch (NoSuchElementException cause) {
+            LOGGER.info("Account no longer exists: {}", accountId);
+            deletedEvictions.increment();
+            evict(accountId);
+            return false;
+        }
+        verifiedAt.put(accountId, millisClock.getAsLong());
+        return true;
+    }
+
+    private void scheduleRefresh(String accountId) {
+        if (!refreshing.add(accountId)) {
+            return;
+        }
+        try {
+            refresher.execute(() -> {
+                try {
+                    verify(accountId);
+                } catch (RuntimeException cause) {
+                    // Keep serving the stale entry; it expires on its own if the provider stays unavailable.
+                    LOGGER.warn("Failed to revalidate account: {} : {}", accountId, cause.getMessage());
+                } finally {
+                    refreshing.remove(accountId);
+                }
+            });
+        } catch (RejectedExecutionException cause) {
+            refreshing.remove(accountId);
+        }
+    }
+
+    private static ExecutorService newRefresher() {
+        return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(MAX_PENDING_REFRESHES), runnable -> {
+                    Thread thread = new Thread(runnable, "guest-auth-account-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.session;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import javax.inject.Inject;
+import app.krista.extension.executor.Invoker;
+import app.krista.extensions.authentication.guest_authentication.GuestAuthenticationExtension;
+import org.jvnet.hk2.annotations.Service;
+
+/**
+ * Checks the credential gateways present on server-to-server routes such as bulk session validation.
+ * <p>
+ * Gateways send {@value GuestAuthenticationExtension#SESSION_VALIDATION_TOKEN} in the
+ * {@value app.krista.extensions.authentication.guest_authentication.util.Constants#GATEWAY_TOKEN} header. Routes
+ * guarded by it stay closed while no token is configured. Tokens are compared in constant time.
+ */
+@Service
+public class GatewayCredentials {
+
+    private final Invoker invoker;
+
+    @Inject
+    public GatewayCredentials(Invoker invoker) {
+        this.invoker = invoker;
+    }
+
+    /**
+     * @param presentedToken token sent by the caller, may be null
+     * @return true if a token is configured and the caller presented it
+     */
+    public boolean isAuthorized(String presentedToken) {
+        Object configured = invoker.getAttributes().get(GuestAuthenticationExtension.SESSION_VALIDATION_TOKEN);
+        if (presentedToken == null || !(configured instanceof String) || ((String) configured).isBlank()) {
+            return false;
+        }
+        return MessageDigest.isEqual(((String) configured).trim().getBytes(StandardCharsets.UTF_8),
+                presentedToken.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
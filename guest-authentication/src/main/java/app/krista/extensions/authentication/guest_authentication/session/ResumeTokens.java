@@ -0,0 +1,235 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.session;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.inject.Inject;
+import app.krista.extension.executor.Invoker;
+import app.krista.extensions.authentication.guest_authentication.GuestAuthenticationExtension;
+import app.krista.extensions.util.KeyValueStore;
+import org.jvnet.hk2.annotations.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static app.krista.extensions.authentication.guest_authentication.GuestAuthenticationExtension.*;
+
+/**
+ * Issues and verifies the long-lived resume tokens that let a returning visitor log in to their previous guest account.
+ * <p>
+ * A token is {@code base64url(accountId "." expiryEpochSeconds) "." base64url(HMAC-SHA256)}. The signing secret is
+ * generated once per workspace, stored in the KeyValueStore and cached, so verification is local. Tokens are enabled
+ * by the {@value GuestAuthenticationExtension#RESUME_TOKEN_DAYS} parameter, which is also their lifetime.
+ * <p>
+ * Nodes generating the secret at the same time may each cache their own before the KeyValueStore settles on one. A
+ * signature that does not match therefore reloads the stored secret, at most once per {@link #RELOAD_INTERVAL_MILLIS},
+ * and is checked again, so every node converges on the stored secret.
+ */
+@Service
+public class ResumeTokens {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResumeTokens.class);
+
+    static final String SECRET_KEY = "guestAuthentication:resumeTokenSecret";
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int SECRET_BYTES = 32;
+    static final long RELOAD_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final KeyValueStore keyValueStore;
+    private final Invoker invoker;
+    private final LongSupplier millisClock;
+    private final ThreadLocal<Signer> signers = new ThreadLocal<>();
+    private volatile SecretKeySpec secret;
+    private long nextReloadMillis;
+
+    @Inject
+    public ResumeTokens(KeyValueStore keyValueStore, Invoker invoker) {
+        this(keyValueStore, invoker, System::currentTimeMillis);
+    }
+
+    ResumeTokens(KeyValueStore keyValueStore, Invoker invoker, LongSupplier millisClock) {
+        this.keyValueStore = keyValueStore;
+        this.invoker = invoker;
+        this.millisClock = millisClock;
+    }
+
+    public boolean isEnabled() {
+        return getLifetimeSeconds() > 0;
+    }
+
+    /**
+     * @return lifetime of new tokens in seconds, 0 when resume tokens are disabled
+     */
+    public int getLifetimeSeconds() {
+        Object value = invoker.getAttributes().get(RESUME_TOKEN_DAYS);
+        double days = 0;
+        if (value instanceof Number) {
+            days = ((Number) value).doubleValue();
+        } else if (value instanceof String && !((String) value).isBlank()) {
+            try {
+                days = Double.parseDouble(((String) value).trim());
+            } catch (NumberFormatException cause) {
+                LOGGER.warn("Ignoring invalid {}: {}", RESUME_TOKEN_DAYS, value);
+            }
+        }
+        return days > 0 ? (int) Math.min(days * TimeUnit.DAYS.toSeconds(1), Integer.MAX_VALUE) : 0;
+    }
+
+    /**
+     * @return token resuming the account for {@link #getLifetimeSeconds()} seconds
+     */
+    public String issue(String accountId) {
+        long expiry = TimeUnit.MILLISECONDS.toSeconds(millisClock.getAsLong()) + getLifetimeSeconds();
+        byte[] payload = (accountId + "." + expiry).getBytes(StandardCharsets.UTF_8);
+        return ENCODER.encodeToString(payload) + "." + ENCODER.encodeToString(sign(payload));
+    }
+
+    /**
+     * @return account id of a well-formed, authentic and unexpired token, otherwise null
+     */
+    public String verify(String token) {
+        if (token == null || !isEnabled()) {
+            return null;
+        }
+        int separator = token.indexOf('.');
+        if (separator <= 0 || separator != token.lastIndexOf('.')) {
+            return null;
+        }
+        byte[] payload;
+        byte[] signature;
+        try {
+            payload = DECODER.decode(token.substring(0, separator));
+            signature = DECODER.decode(token.substring(separator + 1));
+        } catch (IllegalArgumentException cause) {
+            return null;
+        }
+        if (!MessageDigest.isEqual(sign(payload), signature)
+                && (!reloadSecret() || !MessageDigest.isEqual(sign(payload), signature))) {
+            return null;
+        }
+        String claims = new String(payload, StandardCharsets.UTF_8);
+        int expirySeparator = claims.lastIndexOf('.');
+        if (expirySeparator <= 0) {
+            return null;
+        }
+        try {
+            long expiry = Long.parseLong(claims.substring(expirySeparator + 1));
+            if (TimeUnit.MILLISECONDS.toSeconds(millisClock.getAsLong()) >= expiry) {
+                return null;
+            }
+        } catch (NumberFormatException cause) {
+            return null;
+        }
+        return claims.substring(0, expirySeparator);
+    }
+
+    private byte[] sign(byte[] payload) {
+        SecretKeySpec current = getSecret();
+        Signer signer = signers.get();
+        if (signer == null || signer.key != current) {
+            signer = new Signer(current, newMac(current));
+            signers.set(signer);
+        }
+        return signer.mac.doFinal(payload);
+    }
+
+    private static Mac newMac(SecretKeySpec key) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException cause) {
+            throw new IllegalStateException("Failed to initialize resume token signing.", cause);
+        }
+    }
+
+    /**
+     * @return true if the stored secret differs from the cached one, which it then replaces
+     */
+    private synchronized boolean reloadSecret() {
+        long now = millisClock.getAsLong();
+        if (now < nextReloadMillis) {
+            return false;
+        }
+        nextReloadMillis = now + RELOAD_INTERVAL_MILLIS;
+        Object stored = keyValueStore.get(SECRET_KEY);
+        if (stored == null) {
+            return false;
+        }
+        byte[] reloaded = Base64.getDecoder().decode((String) stored);
+        if (Arrays.equals(reloaded, getSecret().getEncoded())) {
+            return false;
+        }
+        LOGGER.info("Resume token secret changed in the key value store, using the stored one.");
+        secret = new SecretKeySpec(reloaded, ALGORITHM);
+        return true;
+    }
+
+    private SecretKeySpec getSecret() {
+        SecretKeySpec current = secret;
+        if (current == null) {
+            synchronized (this) {
+                current = secret;
+                if (current == null) {
+                    current = new SecretKeySpec(loadOrCreateSecret(), ALGORITHM);
+                    secret = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private byte[] loadOrCreateSecret() {
+        Object stored = keyValueStore.get(SECRET_KEY);
+        if (stored == null) {
+            byte[] generated = new byte[SECRET_BYTES];
+            new SecureRandom().nextBytes(generated);
+            keyValueStore.put(SECRET_KEY, Base64.getEncoder().encodeToString(generated));
+            // Another node may have stored its own secret at the same time; every node uses whichever is kept.
+            stored = keyValueStore.get(SECRET_KEY);
+            if (stored == null) {
+                return generated;
+            }
+        }
+        return Base64.getDecoder().decode((String) stored);
+    }
+
+    private static final class Signer {
+
+        private final SecretKeySpec key;
+        private final Mac mac;
+
+        private Signer(SecretKeySpec key, Mac mac) {
+            this.key = key;
+            this.mac = mac;
+        }
+    }
+
+}
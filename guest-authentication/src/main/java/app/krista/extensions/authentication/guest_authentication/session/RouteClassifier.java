@@ -0,0 +1,105 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+package app.krista.extensions.authentication.guest_authentication.session;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import app.krista.extension.request.protos.http.HttpRequest;
+import app.krista.extensions.authentication.guest_authentication.util.Constants;
+
+/**
+ * Classifies requests by how the authenticator has to treat them, before any session is resolved.
+ * <p>
+ * Exact paths are looked up in a hash map and the few path prefixes are checked by a bounded loop, so classification
+ * costs the same whatever the number of sessions. CORS preflights are OPTIONS requests carrying an
+ * {@code Access-Control-Request-Method} header; the header alone does not make a request a preflight.
+ */
+public final class RouteClassifier {
+
+    public enum Route {
+        /** Served without an account, e.g. the widget loader script and static documentation. */
+        ANONYMOUS(false),
+        /** CORS preflight; browsers never send credentials with it. */
+        PREFLIGHT(false),
+        /** Login creates the session and runs as the appliance account when the caller has none. */
+        LOGIN(true),
+        /** Server-to-server calls, e.g. attribute updates, run as the appliance account and stream their body. */
+        APPLIANCE(false),
+        /** Gateway calls run as the appliance account only when they carry the gateway token. */
+        GATEWAY(false),
+        /** Everything else needs the account of the client session. */
+        SESSION(false);
+
+        private final boolean requiresBody;
+
+        Route(boolean requiresBody) {
+            this.requiresBody = requiresBody;
+        }
+
+        /**
+         * @return true if the resource behind the route reads the request body after authentication
+         */
+        public boolean requiresBody() {
+            return requiresBody;
+        }
+    }
+
+    public static final RouteClassifier DEFAULT = new RouteClassifier(
+            Map.of(Constants.AUTHENTICATOR_SCRIPT_PATH, Route.ANONYMOUS,
+                    Constants.AUTHENTICATION_TYPE_PATH, Route.ANONYMOUS,
+                    Constants.LOGIN_PATH, Route.LOGIN,
+                    Constants.UPSERT_PERSON_ATTRIBUTES_PATH, Route.APPLIANCE,
+                    Constants.VALIDATE_SESSIONS_PATH, Route.GATEWAY),
+            List.of(Constants.DOCS_PATH));
+
+    private final Map<String, Route> exactRoutes;
+    private final String[] anonymousPrefixes;
+
+    public RouteClassifier(Map<String, Route> exactRoutes, List<String> anonymousPrefixes) {
+        this.exactRoutes = Map.copyOf(exactRoutes);
+        this.anonymousPrefixes = anonymousPrefixes.toArray(new String[0]);
+    }
+
+    public Route classify(HttpRequest httpRequest) {
+        if ("OPTIONS".equalsIgnoreCase(httpRequest.getMethod())
+                && httpRequest.getHeader(Constants.ACCESS_CONTROL_REQUEST_METHOD) != null) {
+            return Route.PREFLIGHT;
+        }
+        URI uri = httpRequest.getUri();
+        return classify(uri == null ? null : uri.getPath());
+    }
+
+    public Route classify(String path) {
+        if (path == null) {
+            return Route.SESSION;
+        }
+        Route route = exactRoutes.get(path);
+        if (route != null) {
+            return route;
+        }
+        for (String prefix : anonymousPrefixes) {
+            if (path.startsWith(prefix) && (path.length() == prefix.length() || path.charAt(prefix.length()) == '/')) {
+                return Route.ANONYMOUS;
+            }
+        }
+        return Route.SESSION;
+    }
+
+}
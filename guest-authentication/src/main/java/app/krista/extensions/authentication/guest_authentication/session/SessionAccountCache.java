@@ -0,0 +1,177 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+package app.krista.extensions.authentication.guest_authentication.session;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.inject.Inject;
+import app.krista.extension.util.InvokerAttributeProvider;
+import app.krista.extensions.authentication.guest_authentication.util.ExpiringCache;
+import app.krista.extensions.authentication.guest_authentication.util.SessionTimeouts;
+import org.jvnet.hk2.annotations.Service;
+
+/**
+ * Caches verified clientSessionId to accountId resolutions so that repeat requests of a chat session skip the
+ * SessionManager and AccountProvider round-trips.
+ * <p>
+ * Entries never outlive the configured session timeout and are invalidated explicitly on logout. Session ids that
+ * recently resolved to nothing are remembered exactly, in a bounded set, so stale cookies are rejected without
+ * another SessionManager round-trip. An id is only ever reported missing if it was recorded as such, and caching it
+ * as resolved clears the record.
+ * <p>
+ * Dropping every session of a deleted account is lazy: each resolution carries the generation it was cached at, and
+ * the account is stamped with the generation of its invalidation. A resolution older than the stamp of its account is
+ * dropped when it is next read, so invalidating an account costs the same whatever the number of cached sessions.
+ */
+@Service
+public class SessionAccountCache {
+
+    static final int MAX_ENTRIES = 50_000;
+    // Weight is measured in chars of key and value, roughly 8 MB of string data.
+    static final long MAX_WEIGHT = 4L * 1024 * 1024;
+    static final long MAX_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    static final int MAX_MISSING_ENTRIES = 50_000;
+    // Weight is measured in chars of the session id, roughly 4 MB of string data.
+    static final long MAX_MISSING_WEIGHT = 2L * 1024 * 1024;
+    static final long MISSING_TTL_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    static final int MAX_INVALIDATED_ACCOUNTS = 10_000;
+    // Weight is measured in chars of the account id, roughly 1 MB of string data.
+    static final long MAX_INVALIDATED_WEIGHT = 512L * 1024;
+
+    private final InvokerAttributeProvider<Double> sessionTimeout;
+    private final ExpiringCache<String, Resolution> resolutions;
+    private final ExpiringCache<String, Boolean> unknownSessions;
+    // Generation of the latest invalidation of each account; kept as long as a resolution may be cached.
+    private final ExpiringCache<String, Long> invalidatedAccounts;
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder missingRecorded = new LongAdder();
+    private final LongAdder missingAbsorbed = new LongAdder();
+
+    @Inject
+    public SessionAccountCache(InvokerAttributeProvider<Double> sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+        this.resolutions = new ExpiringCache<>(MAX_ENTRIES, MAX_WEIGHT, MAX_TTL_MILLIS, TimeUnit.MILLISECONDS,
+                (sessionId, resolution) -> sessionId.length() + resolution.accountId.length());
+        this.unknownSessions = new ExpiringCache<>(MAX_MISSING_ENTRIES, MAX_MISSING_WEIGHT, MISSING_TTL_MILLIS,
+                TimeUnit.MILLISECONDS, (sessionId, missing) -> sessionId.length());
+        this.invalidatedAccounts = new ExpiringCache<>(MAX_INVALIDATED_ACCOUNTS, MAX_INVALIDATED_WEIGHT,
+                MAX_TTL_MILLIS, TimeUnit.MILLISECONDS, (accountId, invalidatedAt) -> accountId.length());
+    }
+
+    /**
+     * @return cached accountId for the session or null when unknown or expired
+     */
+    public String getAccountId(String clientSessionId) {
+        Resolution resolution = resolutions.get(clientSessionId);
+        if (resolution == null) {
+            return null;
+        }
+        Long invalidatedAt = invalidatedAccounts.get(resolution.accountId);
+        if (invalidatedAt != null && resolution.generation <= invalidatedAt) {
+            resolutions.invalidate(clientSessionId);
+            return null;
+        }
+        return resolution.accountId;
+    }
+
+    public void put(String clientSessionId, String accountId) {
+        unknownSessions.invalidate(clientSessionId);
+        resolutions.put(clientSessionId, new Resolution(accountId, generation.incrementAndGet()), getTtlMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    public void invalidate(String clientSessionId) {
+        if (clientSessionId != null) {
+            resolutions.invalidate(clientSessionId);
+        }
+    }
+
+    /**
+     * Drops every session cached so far that resolves to the account, e.g. once the account was found to be
+     * deleted. The sessions are dropped lazily on their next read; sessions cached afterwards are kept.
+     */
+    public void invalidateAccount(String accountId) {
+        if (accountId != null) {
+            invalidatedAccounts.put(accountId, generation.incrementAndGet());
+        }
+    }
+
+    /**
+     * Remembers that the session id did not resolve to a live account.
+     */
+    public void recordMissing(String clientSessionId) {
+        if (clientSessionId != null) {
+            missingRecorded.increment();
+            unknownSessions.put(clientSessionId, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * @return true if the session id recently resolved to no account and was not verified since
+     */
+    public boolean isKnownMissing(String clientSessionId) {
+        if (clientSessionId == null || unknownSessions.get(clientSessionId) == null) {
+            return false;
+        }
+        missingAbsorbed.increment();
+        return true;
+    }
+
+    public long getHitCount() {
+        return resolutions.getHitCount();
+    }
+
+    public long getMissCount() {
+        return resolutions.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return resolutions.getEvictionCount();
+    }
+
+    public long getMissingRecordedCount() {
+        return missingRecorded.sum();
+    }
+
+    public long getMissingAbsorbedCount() {
+        return missingAbsorbed.sum();
+    }
+
+    public int size() {
+        return resolutions.size();
+    }
+
+    long getTtlMillis() {
+        long sessionTimeoutMillis = TimeUnit.SECONDS.toMillis(SessionTimeouts.getMaxAgeInSeconds(sessionTimeout.get()));
+        return Math.min(MAX_TTL_MILLIS, sessionTimeoutMillis);
+    }
+
+    private static final class Resolution {
+
+        private final String accountId;
+        private final long generation;
+
+        private Resolution(String accountId, long generation) {
+            this.accountId = accountId;
+            this.generation = generation;
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+package app.krista.extensions.authentication.guest_authentication.session;
+
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import app.krista.extension.request.protos.http.HttpRequest;
+import app.krista.extensions.authentication.guest_authentication.util.Constants;
+
+/**
+ * Resolves the client session id of a request from, in order of precedence, the session cookie, the session header
+ * and the session query parameter.
+ * <p>
+ * The Cookie header and the raw query string are scanned in place with exact name matching; the only allocation is
+ * the returned value.
+ */
+public final class SessionCredentialExtractor {
+
+    public static final SessionCredentialExtractor DEFAULT = new SessionCredentialExtractor(
+            Constants.CHATBOT_SESSION_ID, Constants.CHATBOT_SESSION_ID_HEADER, Constants.CLIENT_SESSION_ID_QUERY_PARAM);
+
+    private final String cookieName;
+    private final String headerName;
+    private final String queryParameterName;
+
+    public SessionCredentialExtractor(String cookieName, String headerName, String queryParameterName) {
+        this.cookieName = cookieName;
+        this.headerName = headerName;
+        this.queryParameterName = queryParameterName;
+    }
+
+    /**
+     * @return client session id of the request or null when none is present
+     */
+    public String extract(HttpRequest httpRequest) {
+        String clientSessionId = fromCookieHeader(httpRequest.getHeader(Constants.COOKIE));
+        if (clientSessionId != null) {
+            return clientSessionId;
+        }
+        clientSessionId = httpRequest.getHeader(headerName);
+        if (clientSessionId != null && !clientSessionId.isBlank()) {
+            return clientSessionId;
+        }
+        URI uri = httpRequest.getUri();
+        return uri == null ? null : fromQueryString(uri.getRawQuery());
+    }
+
+    /**
+     * @param cookieHeader raw Cookie header, e.g. {@code a=1; chatbotSessionId=abc}
+     * @return value of the session cookie or null when absent or empty
+     */
+    public String fromCookieHeader(String cookieHeader) {
+        if (cookieHeader == null) {
+            return null;
+        }
+        int length = cookieHeader.length();
+        int position = 0;
+        while (position < length) {
+            int nameStart = skipWhitespace(cookieHeader, position, length);
+            int separator = nameStart;
+            while (separator < length && cookieHeader.charAt(separator) != '=' && cookieHeader.charAt(separator) != ';') {
+                separator++;
+            }
+            int nameEnd = trimTrailingWhitespace(cookieHeader, nameStart, separator);
+            int pairEnd = separator;
+            while (pairEnd < length && cookieHeader.charAt(pairEnd) != ';') {
+                pairEnd++;
+            }
+            if (separator < length && cookieHeader.charAt(separator) == '='
+                    && matches(cookieHeader, nameStart, nameEnd, cookieName)) {
+                int valueStart = skipWhitespace(cookieHeader, separator + 1, pairEnd);
+                int valueEnd = trimTrailingWhitespace(cookieHeader, valueStart, pairEnd);
+                if (valueEnd - valueStart >= 2 && cookieHeader.charAt(valueStart) == '"'
+                        && cookieHeader.charAt(valueEnd - 1) == '"') {
+                    valueStart++;
+                    valueEnd--;
+                }
+                return valueStart < valueEnd ? cookieHeader.substring(valueStart, valueEnd) : null;
+            }
+            position = pairEnd + 1;
+        }
+        return null;
+    }
+
+    /**
+     * @param rawQuery raw (still percent-encoded) query string without the leading {@code ?}
+     * @return decoded value of the session query parameter or null when absent or empty
+     */
+    public String fromQueryString(String rawQuery) {
+        if (rawQuery == null) {
+            return null;
+        }
+        int length = rawQuery.length();
+        int position = 0;
+        while (position < length) {
+            int pairEnd = rawQuery.indexOf('&', position);
+            if (pairEnd < 0) {
+                pairEnd = length;
+            }
+            int separator = position;
+            while (separator < pairEnd && rawQuery.charAt(separator) != '=') {
+                separator++;
+            }
+            if (matches(rawQuery, position, separator, queryParameterName)) {
+                int valueStart = Math.min(separator + 1, pairEnd);
+                return valueStart < pairEnd ? decode(rawQuery, valueStart, pairEnd) : null;
+            }
+            position = pairEnd + 1;
+        }
+        return null;
+    }
+
+    private static String decode(String source, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (c == '%' || c == '+') {
+                return URLDecoder.decode(source.substring(start, end), StandardCharsets.UTF_8);
+            }
+        }
+        return source.substring(start, end);
+    }
+
+    private static boolean matches(String source, int start, int end, String name) {
+        return end - start == name.length() && source.regionMatches(start, name, 0, name.length());
+    }
+
+    private static int skipWhitespace(String source, int position, int end) {
+        while (position < end && Character.isWhitespace(source.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private static int trimTrailingWhitespace(String source, int start, int end) {
+        while (end > start && Character.isWhitespace(source.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.session;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.inject.Inject;
+import app.krista.extension.executor.Invoker;
+import app.krista.extensions.authentication.guest_authentication.GuestAuthenticationExtension;
+import app.krista.extensions.authentication.guest_authentication.util.AuthEventLogger;
+import org.jvnet.hk2.annotations.Service;
+
+/**
+ * Applies the {@value GuestAuthenticationExtension#DEBUG_SESSION_IDS} parameter to the {@link AuthEventLogger}.
+ * <p>
+ * {@link #refresh()} is called for every authenticated request. It only reads the parameter, and parses it again only
+ * after an administrator changed it, so a session can be traced without restarting the extension.
+ */
+@Service
+public class SessionDebugSettings {
+
+    private final Invoker invoker;
+    private volatile Object applied;
+
+    @Inject
+    public SessionDebugSettings(Invoker invoker) {
+        this.invoker = invoker;
+    }
+
+    public void refresh() {
+        Object configured = invoker.getAttributes().get(GuestAuthenticationExtension.DEBUG_SESSION_IDS);
+        if (configured == applied || configured != null && configured.equals(applied)) {
+            return;
+        }
+        AuthEventLogger.setConfiguredDebugSessions(parse(configured));
+        applied = configured;
+    }
+
+    static Set<String> parse(Object configured) {
+        if (!(configured instanceof String)) {
+            return Set.of();
+        }
+        return Arrays.stream(((String) configured).split(","))
+                .map(String::trim)
+                .filter(sessionId -> !sessionId.isEmpty())
+                .collect(Collectors.toSet());
+    }
+
+}
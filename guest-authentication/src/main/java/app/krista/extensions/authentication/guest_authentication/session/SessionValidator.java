@@ -0,0 +1,187 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+package app.krista.extensions.authentication.guest_authentication.session;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import javax.inject.Inject;
+import app.krista.ksdk.authentication.SessionManager;
+import org.glassfish.hk2.api.PreDestroy;
+import org.jvnet.hk2.annotations.Service;
+
+/**
+ * Validates client sessions in bulk for gateways that hold many guest sessions.
+ * <p>
+ * A session is valid exactly when the authenticator would accept it: it resolves through the SessionManager to an
+ * account that still exists. The session caches are consulted first. Lookups run on a small shared pool, and each
+ * batch keeps at most {@link #WINDOW} of them in flight. Results are handed to the caller in input order as soon as
+ * they complete. Batches are capped at {@link #MAX_BATCH_SIZE} ids.
+ * <p>
+ * Ids that do not resolve are not recorded as missing in the {@link SessionAccountCache}: they come from the caller,
+ * and remembering them would let a caller fill the negative cache with arbitrary ids.
+ */
+@Service
+public class SessionValidator implements PreDestroy {
+
+    static final int PARALLELISM = 8;
+    static final int WINDOW = 64;
+    public static final int MAX_BATCH_SIZE = 10_000;
+
+    private final SessionManager sessionManager;
+    private final SessionAccountCache sessionAccountCache;
+    private final AccountExistenceCache accountExistenceCache;
+    private final ExecutorService executor;
+    private final int window;
+
+    @Inject
+    public SessionValidator(SessionManager sessionManager, SessionAccountCache sessionAccountCache,
+            AccountExistenceCache accountExistenceCache) {
+        this(sessionManager, sessionAccountCache, accountExistenceCache, newExecutor(), WINDOW);
+    }
+
+    SessionValidator(SessionManager sessionManager, SessionAccountCache sessionAccountCache,
+            AccountExistenceCache accountExistenceCache, ExecutorService executor, int window) {
+        this.sessionManager = sessionManager;
+        this.sessionAccountCache = sessionAccountCache;
+        this.accountExistenceCache = accountExistenceCache;
+        this.executor = executor;
+        this.window = window;
+    }
+
+    public Validation validate(String clientSessionId) {
+        if (clientSessionId == null || clientSessionId.isBlank()) {
+            return Validation.invalid(clientSessionId, "Missing client session id.");
+        }
+        try {
+            String accountId = sessionAccountCache.getAccountId(clientSessionId);
+            if (accountId == null) {
+                if (sessionAccountCache.isKnownMissing(clientSessionId)) {
+                    return Validation.invalid(clientSessionId, null);
+                }
+                accountId = sessionManager.lookupAccountId(clientSessionId);
+                if (accountId == null) {
+                    return Validation.invalid(clientSessionId, null);
+                }
+                if (accountExistenceCache.exists(accountId)) {
+                    sessionAccountCache.put(clientSessionId, accountId);
+                    return Validation.valid(clientSessionId, accountId);
+                }
+            } else if (accountExistenceCache.exists(accountId)) {
+                return Validation.valid(clientSessionId, accountId);
+            }
+            return Validation.invalid(clientSessionId, null);
+        } catch (RuntimeException cause) {
+            return Validation.invalid(clientSessionId, cause.getMessage() == null ? "Validation failed." :
+                    cause.getMessage());
+        }
+    }
+
+    /**
+     * Validates every session id produced by the iterator and passes the results to the sink in the same order.
+     * Ids are pulled from the iterator only as lookup slots free up.
+     */
+    public void validateAll(Iterator<String> clientSessionIds, Consumer<Validation> sink) {
+        Deque<Future<Validation>> inFlight = new ArrayDeque<>(window);
+        try {
+            while (clientSessionIds.hasNext()) {
+                if (inFlight.size() == window) {
+                    sink.accept(await(inFlight.removeFirst()));
+                }
+                String clientSessionId = clientSessionIds.next();
+                inFlight.addLast(executor.submit(() -> validate(clientSessionId)));
+            }
+            while (!inFlight.isEmpty()) {
+                sink.accept(await(inFlight.removeFirst()));
+            }
+        } finally {
+            inFlight.forEach(future -> future.cancel(true));
+        }
+    }
+
+    @Override
+    public void preDestroy() {
+        executor.shutdownNow();
+    }
+
+    private static Validation await(Future<Validation> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException cause) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while validating sessions.", cause);
+        } catch (ExecutionException cause) {
+            throw new IllegalStateException("Failed to validate sessions.", cause.getCause());
+        }
+    }
+
+    private static ExecutorService newExecutor() {
+        return Executors.newFixedThreadPool(PARALLELISM, runnable -> {
+            Thread thread = new Thread(runnable, "guest-auth-session-validator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static final class Validation {
+
+        private final String clientSessionId;
+        private final String accountId;
+        private final String error;
+
+        private Validation(String clientSessionId, String accountId, String error) {
+            this.clientSessionId = clientSessionId;
+            this.accountId = accountId;
+            this.error = error;
+        }
+
+        static Validation valid(String clientSessionId, String accountId) {
+            return new Validation(clientSessionId, accountId, null);
+        }
+
+        static Validation invalid(String clientSessionId, String error) {
+            return new Validation(clientSessionId, null, error);
+        }
+
+        public String getClientSessionId() {
+            return clientSessionId;
+        }
+
+        public boolean isValid() {
+            return accountId != null;
+        }
+
+        /**
+         * @return account of a valid session, otherwise null
+         */
+        public String getAccountId() {
+            return accountId;
+        }
+
+        /**
+         * @return reason the session could not be checked, null when it was checked
+         */
+        public String getError() {
+            return error;
+        }
+    }
+
+}
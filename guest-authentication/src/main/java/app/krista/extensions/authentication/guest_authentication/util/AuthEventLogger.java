@@ -0,0 +1,242 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+package app.krista.extensions.authentication.guest_authentication.util;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logging policy for events on the authentication hot paths.
+ * <p>
+ * Each {@link Event} declares its severity, a sampling rate (only every n-th occurrence is considered) and a cap on
+ * lines per second. Occurrences dropped by either rule are counted and reported with the next line that is written.
+ * Events of sessions registered through {@link #enableSessionDebug(String)}, the {@value #DEBUG_SESSIONS_PROPERTY}
+ * system property or {@link #setConfiguredDebugSessions(Set)} bypass sampling and rate limits so a single chat can be
+ * traced under load.
+ */
+public final class AuthEventLogger {
+
+    public static final String DEBUG_SESSIONS_PROPERTY = "guest.authentication.debugSessions";
+
+    private static final Set<String> DEBUG_SESSIONS = ConcurrentHashMap.newKeySet();
+    private static volatile Set<String> configuredDebugSessions = Set.of();
+
+    static {
+        String configured = System.getProperty(DEBUG_SESSIONS_PROPERTY, "");
+        Arrays.stream(configured.split(","))
+                .map(String::trim)
+                .filter(sessionId -> !sessionId.isEmpty())
+                .forEach(DEBUG_SESSIONS::add);
+    }
+
+    public enum Severity {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    public enum Event {
+        SESSION_RESOLVED(Severity.INFO, 100, 5),
+        SESSION_UNKNOWN(Severity.INFO, 10, 5),
+        ACCOUNT_MISSING(Severity.WARN, 1, 10),
+        LOGIN_ROUTED(Severity.INFO, 50, 5),
+        LOGIN(Severity.DEBUG, 1, 20),
+        LOGIN_REPLAYED(Severity.WARN, 1, 20),
+        LOGIN_RESPONSE_MISSING(Severity.ERROR, 1, 5),
+        LOGIN_RESUMED(Severity.INFO, 10, 5),
+        LOGIN_SHED(Severity.WARN, 100, 1),
+        ATTRIBUTES_UPDATED(Severity.DEBUG, 1, 20),
+        REQUEST_FAILED(Severity.ERROR, 1, 20);
+
+        private final Severity severity;
+        private final int sampleEvery;
+        private final int maxPerSecond;
+
+        Event(Severity severity, int sampleEvery, int maxPerSecond) {
+            this.severity = severity;
+            this.sampleEvery = sampleEvery;
+            this.maxPerSecond = maxPerSecond;
+        }
+    }
+
+    private final Logger logger;
+    private final LongSupplier millisClock;
+    private final Budget[] budgets;
+
+    public AuthEventLogger(Class<?> owner) {
+        this(LoggerFactory.getLogger(owner), System::currentTimeMillis);
+    }
+
+    AuthEventLogger(Logger logger, LongSupplier millisClock) {
+        this.logger = logger;
+        this.millisClock = millisClock;
+        Event[] events = Event.values();
+        this.budgets = new Budget[events.length];
+        for (Event event : events) {
+            budgets[event.ordinal()] = new Budget(event.sampleEvery, event.maxPerSecond);
+        }
+    }
+
+    public void log(Event event, String format, Object... arguments) {
+        logSession(event, null, format, arguments);
+    }
+
+    /**
+     * Writes the event if the policy admits it. Arguments are only formatted for lines that are written.
+     *
+     * @param clientSessionId session the event belongs to, used to honour per-session debugging; may be null
+     */
+    public void logSession(Event event, String clientSessionId, String format, Object... arguments) {
+        if (isSessionDebugEnabled(clientSessionId)) {
+            write(event.severity == Severity.DEBUG ? Severity.INFO : event.severity,
+                    "[session-debug " + event + "] " + format, arguments);
+            return;
+        }
+        if (!isEnabled(event.severity)) {
+            return;
+        }
+        Budget budget = budgets[event.ordinal()];
+        if (!budget.tryAcquire(millisClock.getAsLong())) {
+            return;
+        }
+        long suppressed = budget.drainSuppressed();
+        if (suppressed > 0) {
+            write(event.severity, format + " ({} similar suppressed)", withSuppressedCount(arguments, suppressed));
+        } else {
+            write(event.severity, format, arguments);
+        }
+    }
+
+    public long getSuppressedCount(Event event) {
+        return budgets[event.ordinal()].suppressedTotal.sum();
+    }
+
+    public static void enableSessionDebug(String clientSessionId) {
+        DEBUG_SESSIONS.add(clientSessionId);
+    }
+
+    public static void disableSessionDebug(String clientSessionId) {
+        DEBUG_SESSIONS.remove(clientSessionId);
+    }
+
+    /**
+     * Replaces the sessions traced because of the extension configuration; sessions enabled through
+     * {@link #enableSessionDebug(String)} or the system property are kept.
+     */
+    public static void setConfiguredDebugSessions(Set<String> clientSessionIds) {
+        configuredDebugSessions = Set.copyOf(clientSessionIds);
+    }
+
+    public static boolean isSessionDebugEnabled(String clientSessionId) {
+        if (clientSessionId == null) {
+            return false;
+        }
+        Set<String> configured = configuredDebugSessions;
+        return !configured.isEmpty() && configured.contains(clientSessionId)
+                || !DEBUG_SESSIONS.isEmpty() && DEBUG_SESSIONS.contains(clientSessionId);
+    }
+
+    // A trailing throwable must stay last for the logger to print its stack trace.
+    private static Object[] withSuppressedCount(Object[] arguments, long suppressed) {
+        int length = arguments.length;
+        int insertAt = length > 0 && arguments[length - 1] instanceof Throwable ? length - 1 : length;
+        Object[] extended = new Object[length + 1];
+        System.arraycopy(arguments, 0, extended, 0, insertAt);
+        extended[insertAt] = suppressed;
+        System.arraycopy(arguments, insertAt, extended, insertAt + 1, length - insertAt);
+        return extended;
+    }
+
+    private boolean isEnabled(Severity severity) {
+        switch (severity) {
+            case DEBUG:
+                return logger.isDebugEnabled();
+            case INFO:
+                return logger.isInfoEnabled();
+            case WARN:
+                return logger.isWarnEnabled();
+            default:
+                return logger.isErrorEnabled();
+        }
+    }
+
+    private void write(Severity severity, String format, Object[] arguments) {
+        switch (severity) {
+            case DEBUG:
+                logger.debug(format, arguments);
+                break;
+            case INFO:
+                logger.info(format, arguments);
+                break;
+            case WARN:
+                logger.warn(format, arguments);
+                break;
+            default:
+                logger.error(format, arguments);
+                break;
+        }
+    }
+
+    private static final class Budget {
+
+        private final int sampleEvery;
+        private final int maxPerSecond;
+        private final AtomicLong occurrences = new AtomicLong();
+        private final AtomicLong windowSecond = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicInteger writtenInWindow = new AtomicInteger();
+        private final AtomicLong suppressedSinceWrite = new AtomicLong();
+        private final LongAdder suppressedTotal = new LongAdder();
+
+        private Budget(int sampleEvery, int maxPerSecond) {
+            this.sampleEvery = sampleEvery;
+            this.maxPerSecond = maxPerSecond;
+        }
+
+        boolean tryAcquire(long nowMillis) {
+            if (sampleEvery > 1 && occurrences.getAndIncrement() % sampleEvery != 0) {
+                return suppress();
+            }
+            long second = nowMillis / 1000;
+            long window = windowSecond.get();
+            if (window != second && windowSecond.compareAndSet(window, second)) {
+                writtenInWindow.set(0);
+            }
+            if (writtenInWindow.incrementAndGet() > maxPerSecond) {
+                return suppress();
+            }
+            return true;
+        }
+
+        long drainSuppressed() {
+            return suppressedSinceWrite.getAndSet(0);
+        }
+
+        private boolean suppress() {
+            suppressedSinceWrite.incrementAndGet();
+            suppressedTotal.increment();
+            return false;
+        }
+    }
+
+}
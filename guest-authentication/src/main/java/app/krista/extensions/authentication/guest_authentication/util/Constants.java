@@ -29,9 +29,21 @@ public final class Constants {
     public static final String SOURCE = "source";
     public static final String CHATBOT_SESSION_ID = "chatbotSessionId";
     public static final String X_KRISTA_CONTEXT = "X-Krista-Context";
+    public static final String GUEST_RESUME_TOKEN = "guestResumeToken";
     public static final String COMMENT = "comment";
     public static final String COOKIE = "Cookie";
     public static final String EQUAL_TO = "=";
     public static final String CALLER_URI = "caller_uri";
+    public static final String X_FORWARDED_FOR = "X-Forwarded-For";
+    public static final String RETRY_AFTER = "Retry-After";
+    public static final String CLIENT_SESSION_ID_QUERY_PARAM = "clientSessionId";
+    public static final String LOGIN_PATH = "/login";
+    public static final String UPSERT_PERSON_ATTRIBUTES_PATH = "/upsertPersonAttributes";
+    public static final String VALIDATE_SESSIONS_PATH = "/sessions/validate";
+    public static final String AUTHENTICATOR_SCRIPT_PATH = "/authenticator.js";
+    public static final String AUTHENTICATION_TYPE_PATH = "/type";
+    public static final String DOCS_PATH = "/static/docs";
+    public static final String ACCESS_CONTROL_REQUEST_METHOD = "Access-Control-Request-Method";
+    public static final String GATEWAY_TOKEN = "X-Krista-Gateway-Token";
 
 }
@@ -0,0 +1,244 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+package app.krista.extensions.authentication.guest_authentication.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * Bounded in-memory cache with per-entry time-to-live.
+ * <p>
+ * Entries are spread over independently locked LRU segments so concurrent readers of different keys do not contend.
+ * Each segment is bounded both by entry count and by total weight; the least recently used entries are evicted
+ * first once either bound is exceeded. Expired entries are dropped lazily on access.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public final class ExpiringCache<K, V> {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final Segment<K, V>[] segments;
+    private final long defaultTtlNanos;
+    private final ToLongBiFunction<K, V> weigher;
+    private final LongSupplier nanoClock;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ExpiringCache(int maxEntries, long maxWeight, long defaultTtl, TimeUnit unit,
+            ToLongBiFunction<K, V> weigher) {
+        this(maxEntries, maxWeight, defaultTtl, unit, weigher, System::nanoTime);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ExpiringCache(int maxEntries, long maxWeight, long defaultTtl, TimeUnit unit,
+            ToLongBiFunction<K, V> weigher, LongSupplier nanoClock) {
+        if (maxEntries <= 0 || maxWeight <= 0) {
+            throw new IllegalArgumentException("Cache bounds must be positive.");
+        }
+        this.defaultTtlNanos = unit.toNanos(defaultTtl);
+        this.weigher = Objects.requireNonNull(weigher);
+        this.nanoClock = Objects.requireNonNull(nanoClock);
+        this.segments = new Segment[SEGMENT_COUNT];
+        int entriesPerSegment = Math.max(1, maxEntries / SEGMENT_COUNT);
+        long weightPerSegment = Math.max(1, maxWeight / SEGMENT_COUNT);
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment<>(entriesPerSegment, weightPerSegment);
+        }
+    }
+
+    /**
+     * Returns the cached value or {@code null} when the key is absent or expired.
+     */
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        long now = nanoClock.getAsLong();
+        synchronized (segment) {
+            Entry<V> entry = segment.map.get(key);
+            if (entry != null) {
+                if (entry.expiresAtNanos - now > 0) {
+                    hits.increment();
+                    return entry.value;
+                }
+                segment.remove(key);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(K key, V value) {
+        put(key, value, defaultTtlNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stores a value with an explicit time-to-live. A non-positive ttl removes any existing mapping.
+     */
+    public void put(K key, V value, long ttl, TimeUnit unit) {
+        Objects.requireNonNull(value);
+        long ttlNanos = unit.toNanos(ttl);
+        if (ttlNanos <= 0) {
+            invalidate(key);
+            return;
+        }
+        Segment<K, V> segment = segmentFor(key);
+        long weight = Math.max(1, weigher.applyAsLong(key, value));
+        Entry<V> entry = new Entry<>(value, weight, nanoClock.getAsLong() + ttlNanos);
+        synchronized (segment) {
+            segment.remove(key);
+            segment.map.put(key, entry);
+            segment.weight += weight;
+            evictions.add(segment.evictOverflow(nanoClock.getAsLong()));
+        }
+    }
+
+    public V invalidate(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            Entry<V> removed = segment.remove(key);
+            return removed == null ? null : removed.value;
+        }
+    }
+
+    /**
+     * Removes every entry matching the predicate. This walks the whole cache and is meant for rare administrative
+     * invalidations, not for the request path.
+     */
+    public void invalidateIf(BiPredicate<K, V> predicate) {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                Iterator<Map.Entry<K, Entry<V>>> iterator = segment.map.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<K, Entry<V>> next = iterator.next();
+                    if (predicate.test(next.getKey(), next.getValue().value)) {
+                        segment.weight -= next.getValue().weight;
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.map.clear();
+                segment.weight = 0;
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    public long weight() {
+        long weight = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[hash & (SEGMENT_COUNT - 1)];
+    }
+
+    private static final class Entry<V> {
+
+        private final V value;
+        private final long weight;
+        private final long expiresAtNanos;
+
+        private Entry(V value, long weight, long expiresAtNanos) {
+            this.value = value;
+            this.weight = weight;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+    }
+
+    private static final class Segment<K, V> {
+
+        private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+        private final int maxEntries;
+        private final long maxWeight;
+        private long weight;
+
+        private Segment(int maxEntries, long maxWeight) {
+            this.maxEntries = maxEntries;
+            this.maxWeight = maxWeight;
+        }
+
+        private Entry<V> remove(K key) {
+            Entry<V> removed = map.remove(key);
+            if (removed != null) {
+                weight -= removed.weight;
+            }
+            return removed;
+        }
+
+        private int evictOverflow(long now) {
+            int evicted = 0;
+            Iterator<Entry<V>> iterator = map.values().iterator();
+            while (iterator.hasNext() && (map.size() > maxEntries || weight > maxWeight)) {
+                Entry<V> eldest = iterator.next();
+                if (eldest.expiresAtNanos - now > 0) {
+                    evicted++;
+                }
+                weight -= eldest.weight;
+                iterator.remove();
+            }
+            return evicted;
+        }
+
+    }
+
+}
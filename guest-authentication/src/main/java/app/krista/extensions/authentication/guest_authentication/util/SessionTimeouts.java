@@ -0,0 +1,45 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+package app.krista.extensions.authentication.guest_authentication.util;
+
+import java.util.concurrent.TimeUnit;
+
+public final class SessionTimeouts {
+
+    public static final int DEFAULT_MAX_AGE_IN_SECONDS = 24 * 60 * 60; // 1 day
+
+    private SessionTimeouts() {
+        throw new IllegalStateException("Invalid access to utility class");
+    }
+
+    /**
+     * Converts the configured session timeout (in minutes) into the cookie max-age in seconds.
+     *
+     * @param sessionTimeOut configured session timeout in minutes, may be null
+     * @return max-age in seconds
+     */
+    public static int getMaxAgeInSeconds(Double sessionTimeOut) {
+        if (sessionTimeOut == null) {
+            return DEFAULT_MAX_AGE_IN_SECONDS;
+        }
+        long timeout = (long) sessionTimeOut.doubleValue();
+        return (int) TimeUnit.MINUTES.toSeconds(timeout);
+    }
+
+}
@@ -19,6 +19,11 @@
 package app.krista.extensions.authentication.guest_authentication;
 
 import app.krista.extension.authorization.RequestAuthenticator;
+import app.krista.extension.executor.Invoker;
+import app.krista.extensions.authentication.guest_authentication.session.AccountExistenceCache;
+import app.krista.extensions.authentication.guest_authentication.session.GatewayCredentials;
+import app.krista.extensions.authentication.guest_authentication.session.SessionAccountCache;
+import app.krista.extensions.authentication.guest_authentication.session.SessionDebugSettings;
 import app.krista.ksdk.accounts.AccountProvider;
 import app.krista.ksdk.accounts.AttributeManager;
 import app.krista.ksdk.accounts.ModifiableAttribute;
@@ -40,7 +45,7 @@ import static org.mockito.Mockito.*;
  * Unit tests for GuestAuthenticationExtension.
  * 
  * Tests cover:
- * - Authenticator creation
+ * - Authenticator creation and reuse
  * - Attribute validation
  * - Custom tab configuration
  * - Error handling
@@ -63,18 +68,24 @@ class GuestAuthenticationExtensionTest {
     @Mock
     private AttributeManager attributeManager;
 
+    private GuestAuthenticationRequestAuthenticator requestAuthenticator;
+
     private GuestAuthenticationExtension extension;
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        extension = new GuestAuthenticationExtension(
+        SessionAccountCache sessionAccountCache = new SessionAccountCache(() -> null);
+        requestAuthenticator = new GuestAuthenticationRequestAuthenticator(
             authorizationContext,
             sessionManager,
             authenticationSettings,
-            accountProvider,
-            attributeManager
+            new AccountExistenceCache(accountProvider, sessionAccountCache),
+            sessionAccountCache,
+            new GatewayCredentials(mock(Invoker.class)),
+            new SessionDebugSettings(mock(Invoker.class))
         );
+        extension = new GuestAuthenticationExtension(requestAuthenticator, attributeManager);
     }
 
     @Test
@@ -89,6 +100,18 @@ class GuestAuthenticationExtensionTest {
             "Should return GuestAuthenticationRequestAuthenticator instance");
     }
 
+    @Test
+    @DisplayName("Should hand out the same long-lived RequestAuthenticator every time")
+    void testGetAuthenticatedAccountId_ReturnsSharedInstance() {
+        // Act
+        RequestAuthenticator first = extension.getAuthenticatedAccountId();
+        RequestAuthenticator second = extension.getAuthenticatedAccountId();
+
+        // Assert
+        assertSame(requestAuthenticator, first, "Should return the injected authenticator");
+        assertSame(first, second, "Should not construct a new authenticator per call");
+    }
+
     @Test
     @DisplayName("Should return custom tab with documentation link")
     void testCustomTab() {
@@ -0,0 +1,403 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+package app.krista.extensions.authentication.guest_authentication;
+
+import app.krista.extension.request.protos.http.HttpRequest;
+import app.krista.extensions.authentication.guest_authentication.session.AccountExistenceCache;
+import app.krista.extensions.authentication.guest_authentication.session.GatewayCredentials;
+import app.krista.extensions.authentication.guest_authentication.session.SessionAccountCache;
+import app.krista.extensions.authentication.guest_authentication.session.SessionDebugSettings;
+import app.krista.extensions.authentication.guest_authentication.util.AuthEventLogger;
+import app.krista.extension.executor.Invoker;
+import app.krista.ksdk.accounts.Account;
+import app.krista.ksdk.accounts.AccountProvider;
+import app.krista.ksdk.authentication.AuthenticationSettings;
+import app.krista.ksdk.authentication.SessionManager;
+import app.krista.ksdk.context.AuthorizationContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for GuestAuthenticationRequestAuthenticator.
+ *
+ * Tests cover:
+ * - Session resolution from cookies
+ * - Request body buffering in streaming-safe and legacy mode
+ * - Coalescing of concurrent lookups of the same session
+ * - Lifecycle and request metrics
+ * - Anonymous routes and CORS preflights
+ * - Gateway token on the session validation route
+ * - Session debugging configured through the debug_session_ids parameter
+ */
+@DisplayName("Guest Authentication Request Authenticator Tests")
+class GuestAuthenticationRequestAuthenticatorTest {
+
+    private static final long LARGE_BODY_SIZE = 64L * 1024 * 1024;
+    private static final String SESSION_ID = "session-123";
+    private static final String ACCOUNT_ID = "account-456";
+    private static final String APPLIANCE_ACCOUNT_ID = "appliance-account";
+    private static final String GATEWAY_TOKEN = "gateway-secret";
+
+    @Mock
+    private AuthorizationContext authorizationContext;
+
+    @Mock
+    private SessionManager sessionManager;
+
+    @Mock
+    private AuthenticationSettings authenticationSettings;
+
+    @Mock
+    private AccountProvider accountProvider;
+
+    @Mock
+    private HttpRequest httpRequest;
+
+    @Mock
+    private Invoker invoker;
+
+    private AtomicLong copiedBodyBytes;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        Account applianceAccount = mock(Account.class);
+        when(applianceAccount.getAccountId()).thenReturn(APPLIANCE_ACCOUNT_ID);
+        when(authorizationContext.getAuthorizedAccount()).thenReturn(applianceAccount);
+        when(invoker.getAttributes()).thenReturn(
+            Map.of(GuestAuthenticationExtension.SESSION_VALIDATION_TOKEN, GATEWAY_TOKEN));
+        when(sessionManager.lookupAccountId(SESSION_ID)).thenReturn(ACCOUNT_ID);
+        when(accountProvider.getAccount(ACCOUNT_ID)).thenReturn(mock(Account.class));
+
+        // Buffering a body means copying all of it onto the heap; record how much would be copied.
+        copiedBodyBytes = new AtomicLong();
+        doAnswer(invocation -> {
+            copiedBodyBytes.addAndGet(LARGE_BODY_SIZE);
+            return null;
+        }).when(httpRequest).bufferBody();
+    }
+
+    private GuestAuthenticationRequestAuthenticator createAuthenticator(boolean streamingSafe) {
+        SessionAccountCache sessionAccountCache = new SessionAccountCache(() -> 30.0);
+        return new GuestAuthenticationRequestAuthenticator(authorizationContext, sessionManager,
+            authenticationSettings, new AccountExistenceCache(accountProvider, sessionAccountCache),
+            sessionAccountCache, new GatewayCredentials(invoker), new SessionDebugSettings(invoker), streamingSafe);
+    }
+
+    private void givenRequest(String path, String cookie) {
+        when(httpRequest.getUri()).thenReturn(URI.create("https://appliance.example.com" + path));
+        when(httpRequest.getHeader("Cookie")).thenReturn(cookie);
+    }
+
+    @Test
+    @DisplayName("Should never copy a large body on ordinary authenticated requests")
+    void testStreamingSafe_DoesNotBufferOrdinaryRequests() {
+        // Arrange
+        givenRequest("/chat/message", "lang=en; chatbotSessionId=" + SESSION_ID);
+        GuestAuthenticationRequestAuthenticator authenticator = createAuthenticator(true);
+
+        // Act
+        for (int i = 0; i < 10; i++) {
+            assertEquals(ACCOUNT_ID, authenticator.getAuthenticatedAccountId(httpRequest),
+                "Session should resolve to its account");
+        }
+
+        // Assert
+        verify(httpRequest, never()).bufferBody();
+        assertEquals(0, copiedBodyBytes.get(), "No body bytes should be copied");
+        verify(sessionManager, times(1)).lookupAccountId(SESSION_ID);
+        verify(accountProvider, times(1)).getAccount(ACCOUNT_ID);
+    }
+
+    @Test
+    @DisplayName("Should not copy the body of unauthenticated ordinary requests")
+    void testStreamingSafe_DoesNotBufferUnauthenticatedRequests() {
+        // Arrange
+        givenRequest("/chat/upload", null);
+        GuestAuthenticationRequestAuthenticator authenticator = createAuthenticator(true);
+
+        // Act
+        String accountId = authenticator.getAuthenticatedAccountId(httpRequest);
+
+        // Assert
+        assertNull(accountId, "Request without session should not be authenticated");
+        verify(httpRequest, never()).bufferBody();
+    }
+
+    @Test
+    @DisplayName("Should trace the sessions listed in the debug session ids parameter")
+    void testSessionDebug_FollowsParameter() {
+        // Arrange
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put(GuestAuthenticationExtension.DEBUG_SESSION_IDS, "other-session, " + SESSION_ID);
+        when(invoker.getAttributes()).thenReturn(attributes);
+        givenRequest("/chat/message", "chatbotSessionId=" + SESSION_ID);
+        GuestAuthenticationRequestAuthenticator authenticator = createAuthenticator(true);
+
+        try {
+            // Act
+            authenticator.getAuthenticatedAccountId(httpRequest);
+
+            // Assert
+            assertTrue(AuthEventLogger.isSessionDebugEnabled(SESSION_ID), "Listed session should be traced");
+            assertTrue(AuthEventLogger.isSessionDebugEnabled("other-session"), "Listed session should be traced");
+
+            // Act
+            attributes.remove(GuestAuthenticationExtension.DEBUG_SESSION_IDS);
+            authenticator.getAuthenticatedAccountId(httpRequest);
+
+            // Assert
+            assertFalse(AuthEventLogger.isSessionDebugEnabled(SESSION_ID), "Cleared session should not be traced");
+        } finally {
+            AuthEventLogger.setConfiguredDebugSessions(Set.of());
+        }
+    }
+
+    @Test
+    @DisplayName("Should run session validation as the appliance account only with the gateway token")
+    void testGatewayRoute_RequiresGatewayToken() {
+        // Arrange
+        givenRequest("/sessions/validate", null);
+        GuestAuthenticationRequestAuthenticator authenticator = createAuthenticator(true);
+
+        // Act
+        String withoutToken = authenticator.getAuthenticatedAccountId(httpRequest);
+        when(httpRequest.getHeader("X-Krista-Gateway-Token")).thenReturn("wrong-secret");
+        String withWrongToken = authenticator.getAuthenticatedAccountId(httpRequest);
+        when(httpRequest.getHeader("X-Krista-Gateway-Token")).thenReturn(GATEWAY_TOKEN);
+        String withToken = authenticator.getAuthenticatedAccountId(httpRequest);
+
+        // Assert
+        assertNull(withoutToken, "Callers without a token should not be authenticated");
+        assertNull(withWrongToken, "Callers with a wrong token should not be authenticated");
+        assertEquals(APPLIANCE_ACCOUNT_ID, withToken, "Gateways should run as the appliance account");
+        assertEquals(2, authenticator.getUnauthenticatedCount(), "Unauthenticated count should match");
+        verify(sessionManager, never()).lookupAccountId(anyString());
+    }
+
+    @Test
+    @DisplayName("Should buffer the body for login requests")
+    void testStreamingSafe_BuffersLogin() {
+        // Arrange
+        givenRequest("/login", null);
+        GuestAuthenticationRequestAuthenticator authenticator = createAuthenticator(true);
+
+        // Act
+        String accountId = authenticator.getAuthenticatedAccountId(httpRequest);
+
+        // Assert
+        assertEquals(APPLIANCE_ACCOUNT_ID, accountId, "Login should run as the appliance account");
+        verify(httpRequest, times(1)).bufferBody();
+    }
+
+    @Test
+    @DisplayName("Should buffer every body when streaming-safe mode is disabled")
+    void testLegacyMode_BuffersEveryRequest() {
+        // Arrange
+        givenRequest("/chat/message", "chatbotSessionId=" + SESSION_ID);
+        GuestAuthenticationRequestAuthenticator authenticator = createAuthenticator(false);
+
+        // Act
+        authenticator.getAuthenticatedAccountId(httpRequest);
+
+        // Assert
+        verify(httpRequest, times(1)).bufferBody();
+    }
+
+    @Test
+    @DisplayName("Should resolve a session once for many parallel requests")
+    void testConcurrentRequests_SingleLookup() throws Exception {
+        // Arrange
+        int parallelRequests = 12;
+        givenRequest("/chat/history", "chatbotSessionId=" + SESSION_ID);
+        GuestAuthenticationRequestAuthenticator authenticator = createAuthenticator(true);
+        CountDownLatch releaseLookup = new CountDownLatch(1);
+        when(sessionManager.lookupAccountId(SESSION_ID)).thenAnswer(invocation -> {
+            releaseLookup.await(5, TimeUnit.SECONDS);
+            return ACCOUNT_ID;
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(parallelRequests);
+        List<Thread> workers = new CopyOnWriteArrayList<>();
+
+        try {
+            // Act
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < parallelRequests; i++) {
+                results.add(executor.submit(() -> {
+                    workers.add(Thread.currentThread());
+                    return authenticator.getAuthenticatedAccountId(httpRequest);
+                }));
+            }
+            awaitAllBlocked(workers, parallelRequests);
+            releaseLookup.countDown();
+
+            // Assert
+            for (Future<String> result : results) {
+                assertEquals(ACCOUNT_ID, result.get(5, TimeUnit.SECONDS), "Every request should be authenticated");
+            }
+            verify(sessionManager, times(1)).lookupAccountId(SESSION_ID);
+            verify(accountProvider, times(1)).getAccount(ACCOUNT_ID);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Should fail every parallel request when the shared lookup fails")
+    void testConcurrentRequests_FailurePropagates() throws Exception {
+        // Arrange
+        int parallelRequests = 8;
+        givenRequest("/chat/history", "chatbotSessionId=" + SESSION_ID);
+        GuestAuthenticationRequestAuthenticator authenticator = createAuthenticator(true);
+        CountDownLatch releaseLookup = new CountDownLatch(1);
+        when(sessionManager.lookupAccountId(SESSION_ID)).thenAnswer(invocation -> {
+            releaseLookup.await(5, TimeUnit.SECONDS);
+            throw new IllegalStateException("session store unavailable");
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(parallelRequests);
+        List<Thread> workers = new CopyOnWriteArrayList<>();
+
+        try {
+            // Act
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < parallelRequests; i++) {
+                results.add(executor.submit(() -> {
+                    workers.add(Thread.currentThread());
+                    return authenticator.getAuthenticatedAccountId(httpRequest);
+                }));
+            }
+            awaitAllBlocked(workers, parallelRequests);
+            releaseLookup.countDown();
+
+            // Assert
+            for (Future<String> result : results) {
+                ExecutionException failure = assertThrows(ExecutionException.class,
+                    () -> result.get(5, TimeUnit.SECONDS), "Every request should fail");
+                assertInstanceOf(IllegalStateException.class, failure.getCause(),
+                    "Failure should surface as authentication failure");
+                assertTrue(failure.getCause().getMessage().contains("session store unavailable"),
+                    "Original reason should be reported to every waiter");
+            }
+            verify(sessionManager, times(1)).lookupAccountId(SESSION_ID);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Every worker is either the one running the lookup or waiting for its result.
+    private static void awaitAllBlocked(List<Thread> workers, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            if (workers.size() == expected && workers.stream().allMatch(
+                    worker -> worker.getState() == Thread.State.WAITING
+                            || worker.getState() == Thread.State.TIMED_WAITING)) {
+                return;
+            }
+            Thread.sleep(5);
+        }
+        fail("Parallel requests did not reach the session lookup in time");
+    }
+
+    @Test
+    @DisplayName("Should keep its metrics across requests and lifecycle hooks")
+    void testLifecycle_MetricsSurviveRequests() {
+        // Arrange
+        givenRequest("/chat/message", "chatbotSessionId=" + SESSION_ID);
+        GuestAuthenticationRequestAuthenticator authenticator = createAuthenticator(true);
+
+        // Act
+        authenticator.postConstruct();
+        for (int i = 0; i < 5; i++) {
+            authenticator.getAuthenticatedAccountId(httpRequest);
+        }
+        authenticator.preDestroy();
+
+        // Assert
+        assertEquals(5, authenticator.getRequestCount(), "Every request should be counted");
+        assertEquals(1, authenticator.getSessionLookupCount(), "Only the first request should look the session up");
+        assertEquals(4, authenticator.getSessionCacheHitCount(), "Later requests should hit the session cache");
+    }
+
+    @Test
+    @DisplayName("Should let anonymous routes bypass session resolution")
+    void testAnonymousRoutes_NeverTouchSessionStore() {
+        // Arrange
+        GuestAuthenticationRequestAuthenticator authenticator = createAuthenticator(false);
+
+        // Act & Assert
+        for (String path : new String[]{"/authenticator.js", "/type", "/static/docs/index.html"}) {
+            givenRequest(path, "chatbotSessionId=" + SESSION_ID);
+            assertNull(authenticator.getAuthenticatedAccountId(httpRequest), path + " should not need an account");
+        }
+        verifyNoInteractions(sessionManager, accountProvider);
+        verify(httpRequest, never()).bufferBody();
+        assertEquals(3, authenticator.getAnonymousRouteCount(), "Every anonymous request should be counted");
+    }
+
+    @Test
+    @DisplayName("Should let CORS preflights bypass session resolution")
+    void testPreflight_NeverTouchesSessionStore() {
+        // Arrange
+        givenRequest("/login", null);
+        when(httpRequest.getMethod()).thenReturn("OPTIONS");
+        when(httpRequest.getHeader("Access-Control-Request-Method")).thenReturn("POST");
+        GuestAuthenticationRequestAuthenticator authenticator = createAuthenticator(true);
+
+        // Act
+        String accountId = authenticator.getAuthenticatedAccountId(httpRequest);
+
+        // Assert
+        assertNull(accountId, "Preflight should not be authenticated");
+        verify(httpRequest, never()).bufferBody();
+        verifyNoInteractions(sessionManager, authorizationContext);
+    }
+
+    @Test
+    @DisplayName("Should resolve the session of a non-OPTIONS request carrying the preflight header")
+    void testPreflightHeaderOnPost_StillResolvesSession() {
+        // Arrange
+        givenRequest("/chat/message", "chatbotSessionId=" + SESSION_ID);
+        when(httpRequest.getMethod()).thenReturn("POST");
+        when(httpRequest.getHeader("Access-Control-Request-Method")).thenReturn("POST");
+        GuestAuthenticationRequestAuthenticator authenticator = createAuthenticator(true);
+
+        // Act
+        String accountId = authenticator.getAuthenticatedAccountId(httpRequest);
+
+        // Assert
+        assertEquals(ACCOUNT_ID, accountId, "A POST should not be classified as a preflight");
+        assertEquals(0, authenticator.getAnonymousRouteCount(), "No anonymous route should be counted");
+        verify(sessionManager).lookupAccountId(SESSION_ID);
+    }
+}
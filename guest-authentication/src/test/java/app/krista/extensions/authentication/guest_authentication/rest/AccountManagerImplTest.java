@@ -28,8 +28,16 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -41,7 +49,12 @@ import static org.mockito.Mockito.*;
  * - Storing authentication responses
  * - Retrieving authentication responses
  * - Deleting authentication responses
- * - JSON serialization/deserialization
+ * - Encoding, and reading entries stored as JSON
+ * - Read-your-writes for deferred stores, and deletes racing their background write
+ * - Near cache population, invalidation and expiry with the session timeout
+ * - Expiring records and the sweeper deleting them
+ * - Account id lookups from the account id record and from older records
+ * - Batch reads, writes and deletes with per-session failures and null session ids
  */
 @DisplayName("Account Manager Implementation Tests")
 class AccountManagerImplTest {
@@ -49,13 +62,16 @@ class AccountManagerImplTest {
     @Mock
     private KeyValueStore keyValueStore;
 
+    @Mock
+    private DeferredTasks deferredTasks;
+
     private AccountManagerImpl accountManager;
     private Gson gson;
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        accountManager = new AccountManagerImpl(keyValueStore);
+        accountManager = new AccountManagerImpl(keyValueStore, deferredTasks, () -> null);
         gson = new Gson();
     }
 
@@ -71,20 +87,23 @@ class AccountManagerImplTest {
             Map.of("email", "test@example.com"), Map.of()
         );
 
-        ArgumentCaptor<String> keyCaptor = ArgumentCaptor.forClass(String.class);
         ArgumentCaptor<String> valueCaptor = ArgumentCaptor.forClass(String.class);
 
         // Act
         accountManager.put(sessionId, authResponse);
 
         // Assert
-        verify(keyValueStore, times(1)).put(keyCaptor.capture(), valueCaptor.capture());
-        assertEquals(sessionId, keyCaptor.getValue(), "Session ID should match");
-
-        // Verify JSON serialization
-        String storedJson = valueCaptor.getValue();
-        assertNotNull(storedJson, "Stored JSON should not be null");
-        assertTrue(storedJson.contains("account-456"), "JSON should contain account ID");
+        verify(keyValueStore, times(1)).put(eq(sessionId), valueCaptor.capture());
+        verify(keyValueStore, times(1)).put(AccountManagerImpl.ACCOUNT_ID_KEY_PREFIX + sessionId, "account-456");
+
+        // Verify encoding
+        String storedValue = valueCaptor.getValue();
+        assertNotNull(storedValue, "Stored value should not be null");
+        assertTrue(storedValue.startsWith(AccountManagerImpl.EXPIRING_RECORD), "Value should carry its expiry");
+        String encoded = storedValue.substring(
+            storedValue.indexOf(':', AccountManagerImpl.EXPIRING_RECORD.length()) + 1);
+        assertEquals("account-456", AuthenticationResponseCodec.decode(encoded).getAccountId(),
+            "Stored value should contain account ID");
     }
 
     @Test
@@ -168,7 +187,7 @@ class AccountManagerImplTest {
         accountManager.put(sessionId2, response2);
 
         // Assert
-        verify(keyValueStore, times(2)).put(anyString(), anyString());
+        verify(keyValueStore, times(4)).put(anyString(), anyString());
     }
 
     @Test
@@ -184,13 +203,9 @@ class AccountManagerImplTest {
             Map.of("loginTime", "2024-01-01", "source", "web")
         );
 
-        String jsonResponse = gson.toJson(originalResponse);
-
-        // Mock the put operation
-        doNothing().when(keyValueStore).put(anyString(), anyString());
-
-        // Mock the get operation to return the JSON
-        when(keyValueStore.get(sessionId)).thenReturn(jsonResponse);
+        ArgumentCaptor<String> valueCaptor = ArgumentCaptor.forClass(String.class);
+        doNothing().when(keyValueStore).put(eq(sessionId), valueCaptor.capture());
+        when(keyValueStore.get(sessionId)).thenAnswer(invocation -> valueCaptor.getValue());
 
         // Act
         accountManager.put(sessionId, originalResponse);
@@ -222,5 +237,282 @@ class AccountManagerImplTest {
         // Assert
         verify(keyValueStore, times(1)).put(eq(emptySessionId), anyString());
     }
-}
 
+    @Test
+    @DisplayName("Should return a deferred response before it reaches the key value store")
+    void testPutDeferred_ReadYourWrites() {
+        // Arrange
+        AuthenticationResponse response = response("deferred-session", "account-321");
+        ArgumentCaptor<Runnable> write = ArgumentCaptor.forClass(Runnable.class);
+
+        // Act
+        accountManager.putDeferred("deferred-session", response);
+        AuthenticationResponse pending = accountManager.get("deferred-session");
+
+        // Assert
+        assertEquals("account-321", pending.getAccountId(), "Pending response should be returned");
+        verify(keyValueStore, never()).put(anyString(), any());
+        verify(keyValueStore, never()).get(anyString());
+
+        // Act
+        verify(deferredTasks).run(anyString(), write.capture(), any());
+        write.getValue().run();
+
+        // Assert
+        verify(keyValueStore, times(1)).put(eq("deferred-session"), anyString());
+        assertSame(pending, accountManager.get("deferred-session"), "Near cache should answer after the write");
+        verify(keyValueStore, never()).get(anyString());
+    }
+
+    @Test
+    @DisplayName("Should not store a deferred response after the session was deleted")
+    void testPutDeferred_DeletedBeforeWrite() {
+        // Arrange
+        ArgumentCaptor<Runnable> write = ArgumentCaptor.forClass(Runnable.class);
+        accountManager.putDeferred("deleted-session", response("deleted-session", "account-654"));
+        verify(deferredTasks).run(anyString(), write.capture(), any());
+
+        // Act
+        accountManager.delete("deleted-session");
+        write.getValue().run();
+
+        // Assert
+        verify(keyValueStore, never()).put(anyString(), any());
+        assertNull(accountManager.get("deleted-session"), "Deleted session should not be returned");
+    }
+
+    @Test
+    @DisplayName("Should not keep a deferred response that lands after the session was deleted")
+    void testPutDeferred_DeletedDuringWrite() {
+        // Arrange
+        Map<String, Object> store = new HashMap<>();
+        doAnswer(invocation -> store.remove(invocation.getArgument(0))).when(keyValueStore).remove(anyString());
+        doAnswer(invocation -> {
+            // The delete runs while the background write is in flight and completes before it.
+            if (invocation.getArgument(0).equals("racing-session")) {
+                accountManager.delete("racing-session");
+            }
+            return store.put(invocation.getArgument(0), invocation.getArgument(1));
+        }).when(keyValueStore).put(anyString(), any());
+        ArgumentCaptor<Runnable> write = ArgumentCaptor.forClass(Runnable.class);
+        accountManager.putDeferred("racing-session", response("racing-session", "account-246"));
+        verify(deferredTasks).run(anyString(), write.capture(), any());
+
+        // Act
+        write.getValue().run();
+
+        // Assert
+        assertTrue(store.isEmpty(), "Late write should be undone: " + store.keySet());
+        assertNull(accountManager.get("racing-session"), "Deleted session should not be returned");
+    }
+
+    @Test
+    @DisplayName("Should forget a deferred response once its write was given up")
+    void testPutDeferred_GivenUp() {
+        // Arrange
+        ArgumentCaptor<Runnable> onFailure = ArgumentCaptor.forClass(Runnable.class);
+        accountManager.putDeferred("failed-session", response("failed-session", "account-987"));
+        verify(deferredTasks).run(anyString(), any(), onFailure.capture());
+
+        // Act
+        onFailure.getValue().run();
+
+        // Assert
+        assertNull(accountManager.get("failed-session"), "Given up response should not be returned");
+    }
+
+    @Test
+    @DisplayName("Should answer repeated reads from the near cache until the session is deleted")
+    void testGet_NearCache() {
+        // Arrange
+        when(keyValueStore.get("cached-session")).thenReturn(
+            AuthenticationResponseCodec.encode(response("cached-session", "account-111")));
+
+        // Act
+        AuthenticationResponse first = accountManager.get("cached-session");
+        AuthenticationResponse second = accountManager.get("cached-session");
+
+        // Assert
+        assertSame(first, second, "Second read should return the cached response");
+        verify(keyValueStore, times(1)).get("cached-session");
+        assertEquals(1, accountManager.getNearCacheHitCount(), "Hit count should match");
+
+        // Act
+        accountManager.delete("cached-session");
+        when(keyValueStore.get("cached-session")).thenReturn(null);
+
+        // Assert
+        assertNull(accountManager.get("cached-session"), "Deleted session should not be served from the cache");
+    }
+
+    @Test
+    @DisplayName("Should serve a stored response without reading it back")
+    void testPut_PopulatesNearCache() {
+        // Arrange
+        AuthenticationResponse response = response("stored-session", "account-222");
+
+        // Act
+        accountManager.put("stored-session", response);
+
+        // Assert
+        assertSame(response, accountManager.get("stored-session"), "Stored response should be cached");
+        verify(keyValueStore, never()).get(anyString());
+    }
+
+    @Test
+    @DisplayName("Should not cache responses while the session timeout is zero")
+    void testPut_ZeroSessionTimeout() {
+        // Arrange
+        AccountManagerImpl uncached = new AccountManagerImpl(keyValueStore, deferredTasks, () -> 0.0);
+        ArgumentCaptor<String> valueCaptor = ArgumentCaptor.forClass(String.class);
+        doNothing().when(keyValueStore).put(eq("uncached-session"), valueCaptor.capture());
+        when(keyValueStore.get("uncached-session")).thenAnswer(invocation -> valueCaptor.getValue());
+
+        // Act
+        uncached.put("uncached-session", response("uncached-session", "account-333"));
+        uncached.get("uncached-session");
+
+        // Assert
+        verify(keyValueStore, times(1)).get("uncached-session");
+    }
+
+    @Test
+    @DisplayName("Should stop returning a record once it has expired and let the sweeper delete it")
+    void testGet_ExpiredRecord() {
+        // Arrange: 2 minute session timeout
+        Map<String, Object> store = new HashMap<>();
+        doAnswer(invocation -> store.put(invocation.getArgument(0), invocation.getArgument(1)))
+            .when(keyValueStore).put(anyString(), any());
+        when(keyValueStore.get(anyString())).thenAnswer(invocation -> store.get(invocation.getArgument(0)));
+        doAnswer(invocation -> store.remove(invocation.getArgument(0))).when(keyValueStore).remove(anyString());
+        AtomicLong clock = new AtomicLong(TimeUnit.DAYS.toMillis(20_000));
+        AccountManagerImpl expiring = new AccountManagerImpl(keyValueStore, deferredTasks, () -> 2.0,
+            mock(ScheduledExecutorService.class), mock(ExecutorService.class), clock::get);
+        expiring.put("expiring-session", response("expiring-session", "account-444"));
+        expiring.put("replaced-session", response("replaced-session", "account-555"));
+        expiring.getSweeper().tick();
+
+        // Act: the second session is stored again shortly before the first bucket ends
+        clock.addAndGet(SessionRecordSweeper.BUCKET_MILLIS - TimeUnit.MINUTES.toMillis(1));
+        expiring.put("replaced-session", response("replaced-session", "account-555"));
+        clock.addAndGet(TimeUnit.SECONDS.toMillis(90));
+        AccountManagerImpl restarted = new AccountManagerImpl(keyValueStore, deferredTasks, () -> 2.0,
+            mock(ScheduledExecutorService.class), mock(ExecutorService.class), clock::get);
+
+        // Assert
+        assertNull(restarted.get("expiring-session"), "Expired record should not be returned");
+
+        // Act
+        expiring.getSweeper().tick();
+
+        // Assert
+        assertFalse(store.containsKey("expiring-session"), "Expired record should be deleted");
+        assertFalse(store.containsKey(AccountManagerImpl.ACCOUNT_ID_KEY_PREFIX + "expiring-session"),
+            "Account id record should be deleted with it");
+        assertTrue(store.containsKey("replaced-session"), "Record stored again should be kept");
+        assertEquals(1, expiring.getExpiredRecordCount(), "Expired record count should match");
+    }
+
+    @Test
+    @DisplayName("Should read the account id from its own record without decoding the response")
+    void testGetAccountId_FromAccountIdRecord() {
+        // Arrange
+        when(keyValueStore.get(AccountManagerImpl.ACCOUNT_ID_KEY_PREFIX + "lookup-session")).thenReturn("account-321");
+
+        // Act
+        String accountId = accountManager.getAccountId("lookup-session");
+
+        // Assert
+        assertEquals("account-321", accountId, "Account ID should match");
+        verify(keyValueStore, never()).get("lookup-session");
+    }
+
+    @Test
+    @DisplayName("Should fall back to the stored response for records without an account id record")
+    void testGetAccountId_LegacyRecord() {
+        // Arrange
+        when(keyValueStore.get("legacy-session")).thenReturn(gson.toJson(response("legacy-session", "account-654")));
+
+        // Act
+        String accountId = accountManager.getAccountId("legacy-session");
+
+        // Assert
+        assertEquals("account-654", accountId, "Account ID should match");
+        assertNull(accountManager.getAccountId("unknown-session"), "Unknown session should yield null");
+    }
+
+    @Test
+    @DisplayName("Should report batch failures per session without failing the others")
+    void testPutAll_ReportsFailuresPerSession() {
+        // Arrange
+        doThrow(new IllegalStateException("store unavailable")).when(keyValueStore).put(eq("failing-session"), any());
+        Map<String, AuthenticationResponse> responses = new LinkedHashMap<>();
+        responses.put("first-session", response("first-session", "account-1"));
+        responses.put("failing-session", response("failing-session", "account-2"));
+        responses.put("last-session", response("last-session", "account-3"));
+
+        // Act
+        BatchResult<Void> result = accountManager.putAll(responses);
+
+        // Assert
+        assertFalse(result.isSuccessful(), "Batch should not be successful");
+        assertEquals(Set.of("failing-session"), result.getFailures().keySet(), "Only the failing session should fail");
+        verify(keyValueStore).put(eq("first-session"), anyString());
+        verify(keyValueStore).put(eq("last-session"), anyString());
+    }
+
+    @Test
+    @DisplayName("Should reject a batch with a null session id before touching any session")
+    void testDeleteAll_NullSessionId() {
+        // Arrange
+        List<String> sessionIds = Arrays.asList("first-session", null, "last-session");
+
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> accountManager.deleteAll(sessionIds),
+            "Null session id should be rejected");
+        verifyNoInteractions(keyValueStore);
+    }
+
+    @Test
+    @DisplayName("Should read and delete sessions in batches")
+    void testGetAllAndDeleteAll() {
+        // Arrange
+        Map<String, Object> store = new HashMap<>();
+        doAnswer(invocation -> store.put(invocation.getArgument(0), invocation.getArgument(1)))
+            .when(keyValueStore).put(anyString(), any());
+        when(keyValueStore.get(anyString())).thenAnswer(invocation -> store.get(invocation.getArgument(0)));
+        doAnswer(invocation -> store.remove(invocation.getArgument(0))).when(keyValueStore).remove(anyString());
+        ExecutorService batchExecutor = mock(ExecutorService.class);
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(batchExecutor).execute(any());
+        AccountManagerImpl batched = new AccountManagerImpl(keyValueStore, deferredTasks, () -> null,
+            mock(ScheduledExecutorService.class), batchExecutor, System::currentTimeMillis);
+        batched.putAll(Map.of("a-session", response("a-session", "account-a"),
+            "b-session", response("b-session", "account-b")));
+        AccountManagerImpl restarted = new AccountManagerImpl(keyValueStore, deferredTasks, () -> null,
+            mock(ScheduledExecutorService.class), batchExecutor, System::currentTimeMillis);
+
+        // Act
+        BatchResult<AuthenticationResponse> read = restarted.getAll(List.of("a-session", "b-session", "c-session"));
+        BatchResult<Void> deleted = restarted.deleteAll(List.of("a-session", "b-session"));
+
+        // Assert
+        assertTrue(read.isSuccessful(), "Read should be successful");
+        assertEquals(Set.of("a-session", "b-session"), read.getValues().keySet(), "Missing session should be absent");
+        assertEquals("account-b", read.getValues().get("b-session").getAccountId(), "Account ID should match");
+        assertTrue(deleted.isSuccessful(), "Delete should be successful");
+        assertTrue(store.isEmpty(), "Sessions and their account id records should be deleted");
+        verify(batchExecutor, atLeastOnce()).execute(any());
+    }
+
+    private static AuthenticationResponse response(String sessionId, String accountId) {
+        return new AuthenticationResponse(
+            sessionId, "Deferred User", "avatar.png", accountId,
+            "krista-123", "person-123", List.of("role1"),
+            "inbox-123", false, false,
+            Map.of("email", "deferred@example.com"), Map.of("newSession", true)
+        );
+    }
+}
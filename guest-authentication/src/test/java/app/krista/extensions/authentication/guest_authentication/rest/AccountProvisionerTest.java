@@ -0,0 +1,192 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import app.krista.extension.executor.Invoker;
+import app.krista.ksdk.accounts.AccountManager;
+import app.krista.ksdk.accounts.ModifiableAccount;
+import app.krista.ksdk.authentication.AuthenticationSettings;
+import app.krista.ksdk.authorization.ModifiableRole;
+import app.krista.ksdk.authorization.RoleManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static app.krista.extensions.authentication.guest_authentication.rest.GuestAuthenticationExtensionConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for AccountProvisioner.
+ *
+ * Tests cover:
+ * - Default role creation on a fresh workspace
+ * - Single role creation under a burst of concurrent first logins
+ * - Strategy selection for generated and returning identities
+ * - Generated guests never consulting the admin role check
+ */
+@DisplayName("Account Provisioner Tests")
+class AccountProvisionerTest {
+
+    private static final int CONCURRENT_LOGINS = 500;
+
+    @Mock
+    private AccountManager accountManager;
+
+    @Mock
+    private RoleManager roleManager;
+
+    @Mock
+    private Invoker invoker;
+
+    @Mock
+    private AuthenticationSettings authenticationSettings;
+
+    @Mock
+    private GuestAuthenticationRoleManager guestAuthenticationRoleManager;
+
+    private List<ModifiableRole> workspaceRoles;
+    private AtomicInteger createRoleCalls;
+    private AccountProvisioner accountProvisioner;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        workspaceRoles = new CopyOnWriteArrayList<>();
+        createRoleCalls = new AtomicInteger();
+        when(invoker.getAttributes()).thenReturn(Map.of());
+        when(roleManager.getRoles()).thenAnswer(invocation -> new ArrayList<>(workspaceRoles));
+        when(roleManager.createRole(anyString())).thenAnswer(invocation -> {
+            createRoleCalls.incrementAndGet();
+            // Widen the window in which other logins would see the role missing.
+            Thread.sleep(50);
+            ModifiableRole role = mock(ModifiableRole.class);
+            when(role.getName()).thenReturn(invocation.getArgument(0));
+            when(role.getRoleId()).thenReturn("guest-role-id");
+            workspaceRoles.add(role);
+            return role;
+        });
+        when(accountManager.createAccount(anyString(), anyString(), anySet(), anyMap()))
+            .thenAnswer(invocation -> mock(ModifiableAccount.class));
+        accountProvisioner = new AccountProvisioner(accountManager, new RoleIndex(roleManager), invoker,
+            authenticationSettings, guestAuthenticationRoleManager);
+    }
+
+    @Test
+    @DisplayName("Should create the default role on the first login to a fresh workspace")
+    void testProvisionAccount_CreatesDefaultRole() {
+        // Act
+        accountProvisioner.provisionAccount("guest@example.com");
+        accountProvisioner.provisionAccount("other@example.com");
+
+        // Assert
+        verify(roleManager, times(1)).createRole(DEFAULT_ROLE_FOR_NEW_ACCOUNT);
+        verify(accountManager, times(2)).createAccount(anyString(), anyString(), anySet(), anyMap());
+    }
+
+    @Test
+    @DisplayName("Should create the default role once for 500 parallel first logins")
+    void testProvisionAccount_ConcurrentFirstLogins() throws Exception {
+        // Arrange
+        ExecutorService executor = Executors.newFixedThreadPool(64);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> logins = new ArrayList<>();
+
+        try {
+            // Act
+            for (int i = 0; i < CONCURRENT_LOGINS; i++) {
+                logins.add(executor.submit(() -> {
+                    start.await();
+                    return accountProvisioner.provisionGuestAccount(false);
+                }));
+            }
+            start.countDown();
+            for (Future<?> login : logins) {
+                assertNotNull(login.get(30, TimeUnit.SECONDS), "Every login should be provisioned");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Assert
+        assertEquals(1, createRoleCalls.get(), "Default role should be created exactly once");
+        verify(accountManager, times(CONCURRENT_LOGINS))
+            .createAccount(anyString(), anyString(), anySet(), anyMap());
+    }
+
+    @Test
+    @DisplayName("Should create generated guests without lookup or repeated domain checks")
+    void testProvisionGuestAccount_SkipsRedundantChecks() {
+        // Act
+        ProvisionedAccount first = accountProvisioner.provisionGuestAccount(false);
+        accountProvisioner.provisionGuestAccount(false);
+
+        // Assert
+        assertNotNull(first.getAccount(), "Account should be created");
+        verify(accountManager, never()).lookupAccount(anyString());
+        verify(authenticationSettings, times(1)).getSupportedDomains();
+        verify(accountManager, times(2)).createAccount(startsWith("guest_"), startsWith("guest_"), anySet(), anyMap());
+    }
+
+    @Test
+    @DisplayName("Should look up and extend an existing account for a returning identity")
+    void testProvision_ReturningIdentity() {
+        // Arrange
+        ModifiableAccount existing = mock(ModifiableAccount.class);
+        when(accountManager.lookupAccount("visitor@example.com")).thenReturn(existing);
+
+        // Act
+        ProvisionedAccount provisioned = accountProvisioner.provision(GuestIdentity.of("visitor@example.com"));
+
+        // Assert
+        assertSame(existing, provisioned.getAccount(), "Existing account should be returned");
+        verify(existing).addRole("guest-role-id");
+        verify(accountManager, never()).createAccount(anyString(), anyString(), anySet(), anyMap());
+        verify(authenticationSettings, times(1)).getSupportedDomains();
+    }
+
+    @Test
+    @DisplayName("Should not check the admin role for generated guests")
+    void testIsWorkspaceAdmin_NeverForGeneratedGuests() {
+        // Arrange
+        when(guestAuthenticationRoleManager.hasAdminRole(any())).thenReturn(false);
+        ProvisionedAccount first = accountProvisioner.provisionGuestAccount(false);
+        ProvisionedAccount second = accountProvisioner.provisionGuestAccount(true);
+        ProvisionedAccount returning = accountProvisioner.provision(GuestIdentity.of("visitor@example.com"));
+
+        // Act
+        assertFalse(first.isWorkspaceAdmin(), "Generated guest should not be an admin");
+        assertFalse(second.isWorkspaceAdmin(), "Generated guest should not be an admin");
+        assertFalse(returning.isWorkspaceAdmin(), "Returning identity should not be an admin");
+        assertFalse(returning.isWorkspaceAdmin(), "Returning identity should not be an admin");
+
+        // Assert
+        verify(guestAuthenticationRoleManager, times(2)).hasAdminRole(any());
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import app.krista.extension.common.AuthenticationResponse;
+import com.google.gson.Gson;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for AuthenticationResponseCodec.
+ *
+ * Tests cover:
+ * - Round trip of every field, including non-ASCII text and null values
+ * - Extras of each value type
+ * - Reading entries stored as Gson JSON
+ * - Rejecting unknown versions and truncated values
+ */
+@DisplayName("Authentication Response Codec Tests")
+class AuthenticationResponseCodecTest {
+
+    @Test
+    @DisplayName("Should round trip every field and stay smaller than JSON")
+    void testEncodeDecode_RoundTrip() {
+        // Arrange
+        AuthenticationResponse original = new AuthenticationResponse(
+            "session-1", "G\u00e4st \u00dcn\u00efcode", "https://example.com/avatar.png", "account-1",
+            "krista-1", "person-1", List.of("Krista Guest User", "Support"),
+            "inbox-1", true, false,
+            Map.of("email", "guest@example.com"), Map.of("creationTime", "2025-01-01 10:00", "newSession", true)
+        );
+
+        // Act
+        String encoded = AuthenticationResponseCodec.encode(original);
+        AuthenticationResponse decoded = AuthenticationResponseCodec.decode(encoded);
+
+        // Assert
+        assertTrue(encoded.startsWith(AuthenticationResponseCodec.VERSION_1), "Value should carry its version");
+        assertTrue(encoded.length() < new Gson().toJson(original).length(), "Value should be smaller than JSON");
+        assertEquals(original.toString(), decoded.toString(), "Every field should be preserved");
+    }
+
+    @Test
+    @DisplayName("Should preserve null fields and flags")
+    void testEncodeDecode_NullFields() {
+        // Arrange
+        AuthenticationResponse original = new AuthenticationResponse(
+            null, null, null, "account-1", null, null, null, null, false, true, null, null);
+
+        // Act
+        AuthenticationResponse decoded = AuthenticationResponseCodec.decode(
+            AuthenticationResponseCodec.encode(original));
+
+        // Assert
+        assertEquals(original.toString(), decoded.toString(), "Null fields should be preserved");
+        assertNull(AuthenticationResponseCodec.decode(null), "Missing value should decode to null");
+    }
+
+    @Test
+    @DisplayName("Should decode extras of each type into mutable collections like Gson did")
+    void testDecode_ExtrasTypes() {
+        // Arrange
+        Map<String, Object> extras = new LinkedHashMap<>();
+        extras.put("text", "value");
+        extras.put("flag", false);
+        extras.put("count", 3);
+        extras.put("list", List.of("a", 1));
+        AuthenticationResponse original = new AuthenticationResponse(
+            "session-1", "Guest", null, "account-1", "krista-1", "person-1", List.of("role1"),
+            "inbox-1", false, false, Map.of(), extras);
+
+        // Act
+        AuthenticationResponse decoded = AuthenticationResponseCodec.decode(
+            AuthenticationResponseCodec.encode(original));
+
+        // Assert
+        assertEquals("value", decoded.getExtras().get("text"), "String should be preserved");
+        assertEquals(Boolean.FALSE, decoded.getExtras().get("flag"), "Boolean should be preserved");
+        assertEquals(3.0, decoded.getExtras().get("count"), "Number should decode as a double");
+        assertEquals(List.of("a", 1.0), decoded.getExtras().get("list"), "Other values should go through JSON");
+        assertNotNull(decoded.getExtras().remove("flag"), "Extras should be mutable");
+        assertTrue(decoded.getRoles().add("role2"), "Roles should be mutable");
+    }
+
+    @Test
+    @DisplayName("Should read entries stored as JSON before the codec existed")
+    void testDecode_LegacyJson() {
+        // Arrange
+        AuthenticationResponse original = new AuthenticationResponse(
+            "session-1", "Guest", "avatar.png", "account-1", "krista-1", "person-1", List.of("role1"),
+            "inbox-1", true, false, Map.of("email", "guest@example.com"), Map.of("newSession", true));
+
+        // Act
+        AuthenticationResponse decoded = AuthenticationResponseCodec.decode(new Gson().toJson(original));
+
+        // Assert
+        assertEquals(original.toString(), decoded.toString(), "Legacy JSON should be read");
+    }
+
+    @Test
+    @DisplayName("Should reject unknown versions and truncated values")
+    void testDecode_Malformed() {
+        // Arrange
+        String encoded = AuthenticationResponseCodec.encode(new AuthenticationResponse(
+            "session-1", "Guest", "avatar.png", "account-1", "krista-1", "person-1", List.of("role1"),
+            "inbox-1", false, false, Map.of(), Map.of()));
+
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> AuthenticationResponseCodec.decode("b9:AAAA"),
+            "Unknown version should be rejected");
+        assertThrows(IllegalArgumentException.class,
+            () -> AuthenticationResponseCodec.decode(encoded.substring(0, encoded.length() - 8)),
+            "Truncated value should be rejected");
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import javax.ws.rs.core.MediaType;
+import app.krista.extension.common.AuthenticationResponse;
+import app.krista.extension.common.KristaError;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static app.krista.extensions.authentication.guest_authentication.rest.GuestAuthenticationExtensionConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for AuthenticationResponseWriter.
+ *
+ * Tests cover:
+ * - Output identical to GSON_JSON_MAPPER for typical, sparse and large responses
+ * - String escaping of quotes, control, HTML-sensitive and non-ASCII characters
+ * - Extras values of every type
+ * - Changing kristaAccountId values
+ */
+@DisplayName("Authentication Response Writer Tests")
+class AuthenticationResponseWriterTest {
+
+    private final AuthenticationResponseWriter writer = new AuthenticationResponseWriter();
+
+    @Test
+    @DisplayName("Should write the same JSON as GSON_JSON_MAPPER for a typical login response")
+    void testWriteTo_TypicalResponse() throws IOException {
+        // Arrange
+        Map<String, Object> extras = new LinkedHashMap<>();
+        extras.put("creationTime", "2025-06-01 10:15:30");
+        extras.put("newSession", true);
+        AuthenticationResponse response = new AuthenticationResponse("session-1", "Guest User",
+            "https://cdn.example.com/guest.png", "account-1", "krista-1", "person-1", List.of("Krista Guest User"),
+            "inbox-1", false, true, Map.of("email", "guest@example.com"), extras);
+
+        // Act & Assert
+        assertEquals(mapperBody(response), write(response), "Output should match the mapper");
+    }
+
+    @Test
+    @DisplayName("Should leave out null fields and null map values like GSON_JSON_MAPPER")
+    void testWriteTo_NullFields() throws IOException {
+        // Arrange
+        Map<String, String> identificationToken = new LinkedHashMap<>();
+        identificationToken.put("email", null);
+        identificationToken.put("phone", "123");
+        Map<String, Object> extras = new LinkedHashMap<>();
+        extras.put("missing", null);
+        AuthenticationResponse sparse = new AuthenticationResponse(null, null, null, null, null, null,
+            Arrays.asList("role", null), null, true, false, identificationToken, extras);
+        AuthenticationResponse empty = new AuthenticationResponse(null, null, null, null, null, null, null, null,
+            false, false, null, null);
+
+        // Act & Assert
+        assertEquals(mapperBody(sparse), write(sparse), "Sparse output should match the mapper");
+        assertEquals(mapperBody(empty), write(empty), "Empty output should match the mapper");
+    }
+
+    @Test
+    @DisplayName("Should escape strings like GSON_JSON_MAPPER")
+    void testWriteTo_Escaping() throws IOException {
+        // Arrange
+        String name = "Quote\" back\\slash <b>&amp;='x'\t\n\r\b\f\u0001\u007f \u00e9\u4e2d\u2028\u2029"
+            + "\ud83d\ude00 lone \ud83d end";
+        AuthenticationResponse response = new AuthenticationResponse("s", name, null, "a", "k\"<", "p",
+            List.of(name), "i", false, false, Map.of(name, name), Map.of(name, name));
+
+        // Act & Assert
+        assertEquals(mapperBody(response), write(response), "Escaped output should match the mapper");
+    }
+
+    @Test
+    @DisplayName("Should write extras values of every type like GSON_JSON_MAPPER")
+    void testWriteTo_ExtrasValues() throws IOException {
+        // Arrange
+        Map<String, Object> extras = new LinkedHashMap<>();
+        extras.put("double", 1.0);
+        extras.put("integer", 42);
+        extras.put("long", 1_700_000_000_000L);
+        extras.put("float", 2.5f);
+        extras.put("flag", false);
+        extras.put("list", List.of("a", 1));
+        extras.put("nested", Map.of("key", "value"));
+        AuthenticationResponse response = new AuthenticationResponse("s", "n", "u", "a", "k", "p", List.of(),
+            "i", false, false, Map.of(), extras);
+
+        // Act & Assert
+        assertEquals(mapperBody(response), write(response), "Extras output should match the mapper");
+    }
+
+    @Test
+    @DisplayName("Should stream responses larger than the buffer and follow kristaAccountId changes")
+    void testWriteTo_LargeResponseAndKristaAccountChange() throws IOException {
+        // Arrange
+        String longName = "x".repeat(5_000) + "\u00e9".repeat(1_000);
+        AuthenticationResponse first = new AuthenticationResponse("s", longName, null, "a", "krista-1", "p",
+            null, "i", false, false, null, null);
+        AuthenticationResponse second = new AuthenticationResponse("s", "n", null, "a", "krista-2", "p",
+            null, "i", false, false, null, null);
+
+        // Act & Assert
+        assertEquals(mapperBody(first), write(first), "Large output should match the mapper");
+        assertEquals(mapperBody(second), write(second),
+            "Output after a kristaAccountId change should match the mapper");
+        assertEquals(mapperBody(first), write(first), "Output after switching back should match the mapper");
+    }
+
+    @Test
+    @DisplayName("Should only write authentication responses")
+    void testIsWriteable() {
+        assertTrue(writer.isWriteable(AuthenticationResponse.class, AuthenticationResponse.class, null,
+            MediaType.APPLICATION_JSON_TYPE), "Authentication responses should be writeable");
+        assertFalse(writer.isWriteable(KristaError.class, KristaError.class, null, MediaType.APPLICATION_JSON_TYPE),
+            "Other entities should not be writeable");
+    }
+
+    // Body previously sent: the GSON_JSON_MAPPER string encoded as UTF-8 by JAX-RS.
+    private String mapperBody(AuthenticationResponse response) {
+        return new String(GSON_JSON_MAPPER.toString(response).getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+    }
+
+    private String write(AuthenticationResponse response) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writer.writeTo(response, AuthenticationResponse.class, AuthenticationResponse.class, null,
+            MediaType.APPLICATION_JSON_TYPE, null, output);
+        return output.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import app.krista.extensions.util.KeyValueStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for BucketedRegistry.
+ *
+ * Tests cover:
+ * - Instances filing items under the same bucket without overwriting each other
+ * - Taking over the registry of a retired or silent instance, and dropping it once drained
+ * - Instances adding themselves to the shared list again after a lost update
+ */
+@DisplayName("Bucketed Registry Tests")
+class BucketedRegistryTest {
+
+    private static final String KEY_PREFIX = "registry:";
+    private static final long BUCKET_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    @Mock
+    private KeyValueStore keyValueStore;
+
+    private Map<String, Object> store;
+    private AtomicLong clock;
+    private List<String> offered;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        store = new ConcurrentHashMap<>();
+        doAnswer(invocation -> store.put(invocation.getArgument(0), invocation.getArgument(1)))
+            .when(keyValueStore).put(anyString(), any());
+        when(keyValueStore.get(anyString())).thenAnswer(invocation -> store.get(invocation.getArgument(0)));
+        doAnswer(invocation -> store.remove(invocation.getArgument(0))).when(keyValueStore).remove(anyString());
+        clock = new AtomicLong(TimeUnit.DAYS.toMillis(20_000));
+        offered = new ArrayList<>();
+    }
+
+    @Test
+    @DisplayName("Should keep the items of instances filing under the same bucket")
+    void testAppend_InstancesDoNotOverwriteEachOther() {
+        // Arrange
+        BucketedRegistry<String> first = newRegistry("first");
+        BucketedRegistry<String> second = newRegistry("second");
+        long bucket = clock.get() / BUCKET_MILLIS;
+
+        // Act
+        first.append(bucket, List.of("item-1"));
+        second.append(bucket, List.of("item-2"));
+        first.append(bucket, List.of("item-3"));
+        clock.addAndGet(BUCKET_MILLIS);
+        first.walk(clock.get(), 10, 10, offered::add);
+        second.walk(clock.get(), 10, 10, offered::add);
+
+        // Assert
+        assertEquals(List.of("item-1", "item-3", "item-2"), offered, "Every item should be offered once");
+        assertTrue(store.keySet().stream().noneMatch(key -> key.contains(":bucket:")),
+            "Consumed buckets should be removed: " + store.keySet());
+    }
+
+    @Test
+    @DisplayName("Should take over the registry of an instance once it has been silent long enough")
+    void testWalk_TakesOverSilentInstance() {
+        // Arrange
+        BucketedRegistry<String> stopped = newRegistry("stopped");
+        BucketedRegistry<String> running = newRegistry("running");
+        stopped.append(clock.get() / BUCKET_MILLIS, List.of("item-1", "item-2"));
+        clock.addAndGet(BUCKET_MILLIS);
+
+        // Act
+        running.walk(clock.get(), 10, 10, offered::add);
+
+        // Assert
+        assertTrue(offered.isEmpty(), "A recently active instance should keep its registry");
+
+        // Act
+        clock.addAndGet(BucketedRegistry.ORPHAN_MILLIS);
+        running.walk(clock.get(), 1, 10, offered::add);
+        running.walk(clock.get(), 10, 10, offered::add);
+
+        // Assert
+        assertEquals(List.of("item-1", "item-2"), offered, "Orphaned items should be offered once");
+        assertEquals("running", store.get(KEY_PREFIX + BucketedRegistry.INSTANCES_KEY),
+            "Drained instance should be dropped from the list");
+        assertTrue(store.keySet().stream().noneMatch(key -> key.startsWith(KEY_PREFIX + "stopped:")),
+            "Drained registry should be removed: " + store.keySet());
+    }
+
+    @Test
+    @DisplayName("Should take over the registry of a retired instance right away")
+    void testWalk_TakesOverRetiredInstance() {
+        // Arrange
+        BucketedRegistry<String> retired = newRegistry("retired");
+        retired.append(clock.get() / BUCKET_MILLIS, List.of("item-1"));
+        retired.retire();
+        clock.addAndGet(BUCKET_MILLIS);
+
+        // Act
+        newRegistry("running").walk(clock.get(), 10, 10, offered::add);
+
+        // Assert
+        assertEquals(List.of("item-1"), offered, "Retired items should be offered");
+    }
+
+    @Test
+    @DisplayName("Should add an instance to the shared list again after a concurrent update lost it")
+    void testKeepAlive_RestoresLostAnnouncement() {
+        // Arrange
+        BucketedRegistry<String> first = newRegistry("first");
+        first.append(clock.get() / BUCKET_MILLIS, List.of("item-1"));
+        store.put(KEY_PREFIX + BucketedRegistry.INSTANCES_KEY, "second");
+
+        // Act
+        first.keepAlive();
+
+        // Assert
+        assertEquals("second\nfirst", store.get(KEY_PREFIX + BucketedRegistry.INSTANCES_KEY),
+            "Instance should be listed again");
+    }
+
+    private BucketedRegistry<String> newRegistry(String instanceId) {
+        return new BucketedRegistry<>(keyValueStore, KEY_PREFIX, instanceId, BUCKET_MILLIS,
+            chunk -> String.join(",", chunk), chunk -> Arrays.asList(chunk.split(",")), clock::get);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for DeferredTasks.
+ *
+ * Tests cover:
+ * - Retrying failed tasks until they succeed
+ * - Giving up after the maximum number of attempts
+ * - Running on the calling thread once the executor is gone
+ * - Handing failures on the calling thread to the failure handler
+ */
+@DisplayName("Deferred Tasks Tests")
+class DeferredTasksTest {
+
+    private ScheduledThreadPoolExecutor executor;
+    private DeferredTasks deferredTasks;
+
+    @BeforeEach
+    void setUp() {
+        executor = new ScheduledThreadPoolExecutor(1);
+        deferredTasks = new DeferredTasks(executor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("Should retry a failing task until it succeeds")
+    void testRun_RetriesUntilSuccess() throws Exception {
+        // Arrange
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+
+        // Act
+        deferredTasks.run("flaky write", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IllegalStateException("Store unavailable");
+            }
+            done.countDown();
+        }, () -> fail("Task should not be given up"));
+
+        // Assert
+        assertTrue(done.await(5, TimeUnit.SECONDS), "Task should eventually succeed");
+        assertEquals(3, attempts.get(), "Task should run three times");
+        assertEquals(2, deferredTasks.getRetryCount(), "Retry count should match");
+        assertEquals(0, deferredTasks.getFailureCount(), "Failure count should match");
+    }
+
+    @Test
+    @DisplayName("Should give up after the maximum number of attempts")
+    void testRun_GivesUp() throws Exception {
+        // Arrange
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch givenUp = new CountDownLatch(1);
+
+        // Act
+        deferredTasks.run("broken write", () -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("Store unavailable");
+        }, givenUp::countDown);
+
+        // Assert
+        assertTrue(givenUp.await(10, TimeUnit.SECONDS), "Task should be given up");
+        assertEquals(DeferredTasks.MAX_ATTEMPTS, attempts.get(), "Task should run the maximum number of times");
+        assertEquals(1, deferredTasks.getFailureCount(), "Failure count should match");
+        assertEquals(0, deferredTasks.getPendingCount(), "Nothing should be pending");
+    }
+
+    @Test
+    @DisplayName("Should run the task on the calling thread when the executor rejects it")
+    void testRun_CallerRuns() {
+        // Arrange
+        executor.shutdown();
+        Thread caller = Thread.currentThread();
+        AtomicInteger callerRuns = new AtomicInteger();
+
+        // Act
+        deferredTasks.run("late write", () -> {
+            if (Thread.currentThread() == caller) {
+                callerRuns.incrementAndGet();
+            }
+        }, () -> { });
+
+        // Assert
+        assertEquals(1, callerRuns.get(), "Task should run on the calling thread");
+        assertEquals(1, deferredTasks.getCallerRunCount(), "Caller run count should match");
+        assertEquals(0, deferredTasks.getPendingCount(), "Nothing should be pending");
+    }
+
+    @Test
+    @DisplayName("Should hand a task failing on the calling thread to its failure handler")
+    void testRun_CallerRunFailure() {
+        // Arrange
+        executor.shutdown();
+        AtomicInteger givenUp = new AtomicInteger();
+
+        // Act
+        assertDoesNotThrow(() -> deferredTasks.run("late write", () -> {
+            throw new IllegalStateException("Store unavailable");
+        }, givenUp::incrementAndGet), "Failure should not reach the caller");
+
+        // Assert
+        assertEquals(1, givenUp.get(), "Failure handler should run once");
+        assertEquals(1, deferredTasks.getFailureCount(), "Failure count should match");
+        assertEquals(0, deferredTasks.getPendingCount(), "Nothing should be pending");
+    }
+}
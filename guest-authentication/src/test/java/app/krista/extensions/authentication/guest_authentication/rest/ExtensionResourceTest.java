@@ -0,0 +1,216 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.ws.rs.core.Cookie;
+import javax.ws.rs.core.Response;
+import app.krista.extension.common.AuthenticationResponse;
+import app.krista.extension.executor.Invoker;
+import app.krista.extension.util.InvokerAttributeProvider;
+import app.krista.extensions.authentication.guest_authentication.session.AccountExistenceCache;
+import app.krista.extensions.authentication.guest_authentication.session.GatewayCredentials;
+import app.krista.extensions.authentication.guest_authentication.session.ResumeTokens;
+import app.krista.extensions.authentication.guest_authentication.session.SessionAccountCache;
+import app.krista.extensions.authentication.guest_authentication.session.SessionValidator;
+import app.krista.extensions.authentication.guest_authentication.util.Constants;
+import app.krista.ksdk.accounts.Account;
+import app.krista.ksdk.accounts.Person;
+import app.krista.ksdk.authentication.SessionManager;
+import app.krista.ksdk.context.AuthorizationContext;
+import app.krista.ksdk.context.RuntimeContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for ExtensionResource login responses.
+ *
+ * Tests cover:
+ * - CORS headers of OPTIONS /login
+ * - ETag exposure and If-None-Match on replayed and not modified /login responses
+ * - Replayed logins bypassing admission control
+ * - Restoring the missing response of a live session
+ */
+@DisplayName("Extension Resource Tests")
+class ExtensionResourceTest {
+
+    private static final String SESSION_ID = "session-1";
+    private static final String KRISTA_ACCOUNT_ID = "krista-1";
+    private static final String GUEST_ACCOUNT_ID = "account-1";
+
+    @Mock
+    private SessionManager sessionManager;
+
+    @Mock
+    private AccountProvisioner accountProvisioner;
+
+    @Mock
+    private RuntimeContext runtimeContext;
+
+    @Mock
+    private Invoker invoker;
+
+    @Mock
+    private InvokerAttributeProvider<Double> sessionTimeout;
+
+    @Mock
+    private AccountManager accountManager;
+
+    @Mock
+    private AuthorizationContext authorizationContext;
+
+    @Mock
+    private SessionAccountCache sessionAccountCache;
+
+    @Mock
+    private SessionValidator sessionValidator;
+
+    @Mock
+    private GuestAccountPool guestAccountPool;
+
+    @Mock
+    private GuestAccountReaper guestAccountReaper;
+
+    @Mock
+    private ResumeTokens resumeTokens;
+
+    @Mock
+    private AccountExistenceCache accountExistenceCache;
+
+    @Mock
+    private DeferredTasks deferredTasks;
+
+    @Mock
+    private LoginAdmissionController loginAdmissionController;
+
+    @Mock
+    private GatewayCredentials gatewayCredentials;
+
+    private ExtensionResource resource;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        Account kristaAccount = mock(Account.class);
+        when(kristaAccount.getAccountId()).thenReturn(KRISTA_ACCOUNT_ID);
+        when(runtimeContext.getKristaAccount()).thenReturn(kristaAccount);
+        Account guestAccount = mock(Account.class);
+        when(guestAccount.getAccountId()).thenReturn(GUEST_ACCOUNT_ID);
+        when(authorizationContext.getAuthorizedAccount()).thenReturn(guestAccount);
+        when(accountManager.get(SESSION_ID)).thenReturn(storedResponse());
+        resource = new ExtensionResource(sessionManager, accountProvisioner, runtimeContext, invoker,
+            sessionTimeout, accountManager, authorizationContext, sessionAccountCache, sessionValidator,
+            guestAccountPool, guestAccountReaper, resumeTokens, accountExistenceCache, deferredTasks,
+            loginAdmissionController, new ReplayResponseCache(), gatewayCredentials);
+    }
+
+    @Test
+    @DisplayName("Should allow If-None-Match and expose ETag on the login preflight")
+    void testLoginOptions_AllowsConditionalReplay() {
+        // Act
+        Response response = resource.loginOptions(null, null);
+
+        // Assert
+        assertCorsHeaders(response);
+    }
+
+    @Test
+    @DisplayName("Should expose the ETag of a replayed login response without admission control")
+    void testLogin_ReplayExposesETag() throws Exception {
+        // Act
+        Response response = replayLogin(null);
+
+        // Assert
+        assertEquals(200, response.getStatus(), "Replay should carry a body");
+        assertNotNull(response.getHeaderString("ETag"), "Replay should carry an ETag");
+        assertCorsHeaders(response);
+        verifyNoInteractions(loginAdmissionController);
+    }
+
+    @Test
+    @DisplayName("Should expose the ETag of a not modified login response")
+    void testLogin_NotModifiedExposesETag() throws Exception {
+        // Arrange
+        String eTag = replayLogin(null).getHeaderString("ETag");
+
+        // Act
+        Response response = replayLogin(eTag);
+
+        // Assert
+        assertEquals(304, response.getStatus(), "Unchanged replay should not be modified");
+        assertEquals(eTag, response.getHeaderString("ETag"), "ETag should be repeated");
+        assertNull(response.getEntity(), "Not modified response should have no body");
+        assertCorsHeaders(response);
+    }
+
+    @Test
+    @DisplayName("Should restore and store the response of a live session whose deferred write was given up")
+    void testLogin_RestoresMissingResponse() throws Exception {
+        // Arrange
+        when(accountManager.get(SESSION_ID)).thenReturn(null);
+        when(sessionManager.lookupAccountId(SESSION_ID)).thenReturn(GUEST_ACCOUNT_ID);
+        Account account = mock(Account.class);
+        Person person = mock(Person.class);
+        when(account.getAccountId()).thenReturn(GUEST_ACCOUNT_ID);
+        when(account.getPerson()).thenReturn(person);
+        when(account.getRoles()).thenReturn(Set.of());
+        when(account.getPrimaryEmailAddress()).thenReturn("guest_1@kristasoft.com");
+        when(accountProvisioner.resume(GUEST_ACCOUNT_ID))
+            .thenReturn(new ProvisionedAccount(account, mock(ProvisioningStrategy.class)));
+
+        // Act
+        Response response = replayLogin(null);
+
+        // Assert
+        assertEquals(200, response.getStatus(), "Restored replay should carry a body");
+        verify(accountManager).put(eq(SESSION_ID),
+            argThat(restored -> GUEST_ACCOUNT_ID.equals(restored.getAccountId())));
+        verifyNoInteractions(loginAdmissionController, guestAccountPool);
+    }
+
+    private Response replayLogin(String ifNoneMatch) throws Exception {
+        return resource.login(null, new Cookie(Constants.CHATBOT_SESSION_ID, SESSION_ID), null, null, null,
+            ifNoneMatch, null, Map.of());
+    }
+
+    private static void assertCorsHeaders(Response response) {
+        assertEquals("*", response.getHeaderString("Access-Control-Allow-Origin"), "Any origin should be allowed");
+        assertEquals("Content-Type, If-None-Match", response.getHeaderString("Access-Control-Allow-Headers"),
+            "Conditional replays should be allowed cross origin");
+        assertEquals("ETag", response.getHeaderString("Access-Control-Expose-Headers"),
+            "ETag should be readable cross origin");
+    }
+
+    private static AuthenticationResponse storedResponse() {
+        Map<String, Object> extras = new LinkedHashMap<>();
+        extras.put("newSession", true);
+        return new AuthenticationResponse(SESSION_ID, "Guest User", "avatar.png", GUEST_ACCOUNT_ID,
+            KRISTA_ACCOUNT_ID, "person-1", List.of("Krista Guest User"), "inbox-1", false, false, Map.of(), extras);
+    }
+}
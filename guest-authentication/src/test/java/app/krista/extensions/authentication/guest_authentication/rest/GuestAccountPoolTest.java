@@ -0,0 +1,269 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import app.krista.extension.executor.Invoker;
+import app.krista.ksdk.accounts.Account;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static app.krista.extensions.authentication.guest_authentication.GuestAuthenticationExtension.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for GuestAccountPool.
+ *
+ * Tests cover:
+ * - Inline provisioning while the pool is disabled or empty
+ * - Refill between the low and high watermark
+ * - Deferred last login stamping of pooled accounts
+ * - Separate pools for Omni guests
+ * - Skipping and deleting accounts provisioned under an earlier configuration
+ * - Registering pooled accounts with the reaper and skipping those that waited too long
+ * - Leaving failed deletes to the deferred task retry
+ * - Deleting unclaimed accounts at shutdown
+ * - Backoff after a failed refill
+ */
+@DisplayName("Guest Account Pool Tests")
+class GuestAccountPoolTest {
+
+    @Mock
+    private AccountProvisioner accountProvisioner;
+
+    @Mock
+    private Invoker invoker;
+
+    @Mock
+    private DeferredTasks deferredTasks;
+
+    @Mock
+    private GuestAccountReaper guestAccountReaper;
+
+    @Mock
+    private app.krista.ksdk.accounts.AccountManager workspaceAccountManager;
+
+    private Map<String, Object> attributes;
+    private AtomicLong clock;
+    private GuestAccountPool pool;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        MockitoAnnotations.openMocks(this);
+        attributes = new HashMap<>();
+        clock = new AtomicLong(1_000_000L);
+        when(invoker.getAttributes()).thenReturn(attributes);
+        when(accountProvisioner.getProvisioningProfile()).thenReturn("profile-1");
+        when(accountProvisioner.provisionGuestAccount(anyBoolean())).thenAnswer(invocation -> provisioned());
+        when(accountProvisioner.getAccountManager()).thenReturn(workspaceAccountManager);
+        // Refills run on the claiming thread so the tests are deterministic.
+        pool = new GuestAccountPool(accountProvisioner, invoker, deferredTasks, guestAccountReaper, Runnable::run,
+            clock::get);
+    }
+
+    @Test
+    @DisplayName("Should provision inline and never refill while the pool is disabled")
+    void testClaim_Disabled() throws Exception {
+        // Act
+        ProvisionedAccount account = pool.claim(false);
+
+        // Assert
+        assertNotNull(account, "Account should be provisioned inline");
+        verify(accountProvisioner, times(1)).provisionGuestAccount(false);
+        assertEquals(0, pool.getDepth(), "Pool should stay empty");
+        assertEquals(1, pool.getMissCount(), "Claim should count as a miss");
+    }
+
+    @Test
+    @DisplayName("Should fill to the high watermark and refill once below the low watermark")
+    void testClaim_RefillsBetweenWatermarks() throws Exception {
+        // Arrange
+        attributes.put(ACCOUNT_POOL_LOW_WATERMARK, 2.0);
+        attributes.put(ACCOUNT_POOL_HIGH_WATERMARK, 4.0);
+
+        // Act: the first claim activates the pool and is served inline
+        pool.claim(false);
+
+        // Assert
+        assertEquals(4, pool.getDepth(), "Pool should be filled to the high watermark");
+        assertEquals(4, pool.getRefilledCount(), "Refilled count should match");
+
+        // Act: claims are served from the pool until it drops below the low watermark
+        pool.claim(false);
+        pool.claim(false);
+
+        // Assert
+        assertEquals(2, pool.getDepth(), "Pool should not refill at the low watermark");
+        verify(accountProvisioner, times(5)).provisionGuestAccount(false);
+        verify(deferredTasks, times(2)).run(anyString(), any(Runnable.class), any(Runnable.class));
+
+        // Act
+        pool.claim(false);
+
+        // Assert
+        assertEquals(4, pool.getDepth(), "Pool should be refilled to the high watermark");
+        assertEquals(4, pool.getClaimCount(), "Claim count should match");
+        assertEquals(1, pool.getMissCount(), "Only the first claim should miss");
+    }
+
+    @Test
+    @DisplayName("Should pool Omni guests separately")
+    void testClaim_SeparateOmniPool() throws Exception {
+        // Arrange
+        attributes.put(ACCOUNT_POOL_HIGH_WATERMARK, "3");
+        pool.claim(false);
+
+        // Act
+        pool.claim(true);
+
+        // Assert
+        assertEquals(2, pool.getMissCount(), "First Omni claim should not use the default pool");
+        verify(accountProvisioner, times(4)).provisionGuestAccount(true);
+        assertEquals(6, pool.getDepth(), "Both pools should be filled");
+    }
+
+    @Test
+    @DisplayName("Should skip and delete pooled accounts provisioned under an earlier configuration")
+    void testClaim_SkipsOutdatedAccounts() throws Exception {
+        // Arrange
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(1)).run();
+            return null;
+        }).when(deferredTasks).run(anyString(), any(Runnable.class), any(Runnable.class));
+        attributes.put(ACCOUNT_POOL_HIGH_WATERMARK, 2);
+        pool.claim(false);
+        when(accountProvisioner.getProvisioningProfile()).thenReturn("profile-2");
+
+        // Act
+        pool.claim(false);
+
+        // Assert
+        assertEquals(2, pool.getDiscardedCount(), "Outdated accounts should be discarded");
+        assertEquals(2, pool.getMissCount(), "Claim should be served inline");
+        assertEquals(2, pool.getDepth(), "Pool should be refilled with current accounts");
+        verify(workspaceAccountManager, times(2)).deleteAccount(any());
+    }
+
+    @Test
+    @DisplayName("Should register pooled accounts with the reaper and skip those pooled for half the retention")
+    void testClaim_SkipsAgedAccounts() throws Exception {
+        // Arrange
+        when(guestAccountReaper.getRetentionMillis()).thenReturn(TimeUnit.HOURS.toMillis(2));
+        attributes.put(ACCOUNT_POOL_HIGH_WATERMARK, 2);
+        pool.claim(false);
+        clock.addAndGet(TimeUnit.HOURS.toNanos(1) + 1);
+
+        // Act
+        ProvisionedAccount claimed = pool.claim(false);
+
+        // Assert
+        verify(guestAccountReaper, times(4)).register(any(), isNull(), eq(false));
+        assertFalse(claimed.isPooled(), "Claim should be served inline");
+        assertEquals(2, pool.getDiscardedCount(), "Aged accounts should be discarded");
+        assertEquals(2, pool.getDepth(), "Pool should be refilled with fresh accounts");
+    }
+
+    @Test
+    @DisplayName("Should let a failed delete of an outdated account fail its deferred task")
+    void testClaim_FailedDeleteIsRetried() throws Exception {
+        // Arrange
+        List<Runnable> tasks = new ArrayList<>();
+        doAnswer(invocation -> tasks.add(invocation.getArgument(1)))
+            .when(deferredTasks).run(startsWith("delete"), any(Runnable.class), any(Runnable.class));
+        doThrow(new IllegalStateException("Account service unavailable"))
+            .doThrow(new NoSuchElementException("Account not found"))
+            .when(workspaceAccountManager).deleteAccount(any());
+        attributes.put(ACCOUNT_POOL_HIGH_WATERMARK, 2);
+        pool.claim(false);
+        when(accountProvisioner.getProvisioningProfile()).thenReturn("profile-2");
+
+        // Act
+        pool.claim(false);
+
+        // Assert
+        assertEquals(2, tasks.size(), "Outdated accounts should be deleted in the background");
+        assertThrows(IllegalStateException.class, tasks.get(0)::run, "Failure should reach the retry");
+        assertDoesNotThrow(tasks.get(0)::run, "An account already gone should count as deleted");
+    }
+
+    @Test
+    @DisplayName("Should delete the accounts still pooled at shutdown")
+    void testPreDestroy_DeletesUnclaimedAccounts() throws Exception {
+        // Arrange
+        attributes.put(ACCOUNT_POOL_HIGH_WATERMARK, 3);
+        pool.claim(true);
+
+        // Act
+        pool.preDestroy();
+
+        // Assert
+        assertEquals(0, pool.getDepth(), "Pool should be empty");
+        verify(workspaceAccountManager, times(3)).deleteAccount(any());
+        verify(guestAccountReaper, times(3)).register(any(), isNull(), eq(false));
+    }
+
+    @Test
+    @DisplayName("Should back off after a failed refill")
+    void testClaim_BacksOffAfterFailure() throws Exception {
+        // Arrange
+        attributes.put(ACCOUNT_POOL_HIGH_WATERMARK, 2);
+        ProvisionedAccount inline = provisioned();
+        when(accountProvisioner.provisionGuestAccount(false))
+            .thenThrow(new IllegalStateException("Account service unavailable"))
+            .thenReturn(inline);
+
+        // Act
+        ProvisionedAccount claimed = pool.claim(false);
+        pool.claim(false);
+
+        // Assert
+        assertSame(inline, claimed, "Claim should still be served inline");
+        assertEquals(1, pool.getRefillFailureCount(), "Failure count should match");
+        assertEquals(0, pool.getDepth(), "Pool should not refill during the backoff");
+
+        // Act
+        clock.addAndGet(GuestAccountPool.RETRY_BACKOFF_NANOS);
+        pool.claim(false);
+
+        // Assert
+        assertEquals(2, pool.getDepth(), "Pool should refill after the backoff");
+    }
+
+    private static ProvisionedAccount provisioned() {
+        return new ProvisionedAccount(mock(Account.class), mock(ProvisioningStrategy.class));
+    }
+}
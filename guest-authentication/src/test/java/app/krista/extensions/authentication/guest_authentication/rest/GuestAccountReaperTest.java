@@ -0,0 +1,288 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import app.krista.extension.executor.Invoker;
+import app.krista.extensions.authentication.guest_authentication.session.AccountExistenceCache;
+import app.krista.extensions.util.KeyValueStore;
+import app.krista.ksdk.authentication.SessionManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static app.krista.extensions.authentication.guest_authentication.GuestAuthenticationExtension.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for GuestAccountReaper.
+ *
+ * Tests cover:
+ * - No registrations while the reaper is disabled
+ * - Deleting expired accounts without a live session
+ * - Keeping accounts whose session is still live or whose last login is within the retention
+ * - Ignoring registrations superseded by a resumed login
+ * - Deleting unclaimed pooled accounts, which have no session
+ * - Batch throttling, backing off during login bursts and taking over the registry of a stopped extension
+ */
+@DisplayName("Guest Account Reaper Tests")
+class GuestAccountReaperTest {
+
+    private static final long RETENTION_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    @Mock
+    private KeyValueStore keyValueStore;
+
+    @Mock
+    private SessionManager sessionManager;
+
+    @Mock
+    private AccountProvisioner accountProvisioner;
+
+    @Mock
+    private app.krista.ksdk.accounts.AccountManager workspaceAccountManager;
+
+    @Mock
+    private AccountManager accountManager;
+
+    @Mock
+    private AccountExistenceCache accountExistenceCache;
+
+    @Mock
+    private Invoker invoker;
+
+    @Mock
+    private ScheduledExecutorService scheduler;
+
+    private Map<String, Object> attributes;
+    private Map<String, Object> store;
+    private AtomicLong clock;
+    private GuestAccountReaper reaper;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        attributes = new HashMap<>();
+        attributes.put(ACCOUNT_RETENTION_DAYS, 1.0);
+        store = new ConcurrentHashMap<>();
+        doAnswer(invocation -> store.put(invocation.getArgument(0), invocation.getArgument(1)))
+            .when(keyValueStore).put(anyString(), any());
+        when(keyValueStore.get(anyString())).thenAnswer(invocation -> store.get(invocation.getArgument(0)));
+        doAnswer(invocation -> store.remove(invocation.getArgument(0))).when(keyValueStore).remove(anyString());
+        clock = new AtomicLong(TimeUnit.DAYS.toMillis(20_000) + 1_000L);
+        when(invoker.getAttributes()).thenReturn(attributes);
+        when(accountProvisioner.getAccountManager()).thenReturn(workspaceAccountManager);
+        reaper = newReaper();
+    }
+
+    @Test
+    @DisplayName("Should not register logins while the reaper is disabled")
+    void testRegister_Disabled() {
+        // Arrange
+        attributes.remove(ACCOUNT_RETENTION_DAYS);
+
+        // Act
+        reaper.register("account-1", "session-1", false);
+        reaper.tick();
+
+        // Assert
+        assertTrue(store.isEmpty(), "Nothing should be written to the key value store");
+    }
+
+    @Test
+    @DisplayName("Should delete an expired account that has no live session")
+    void testTick_ReapsExpiredAccount() {
+        // Arrange
+        reaper.register("account-1", "session-1", false);
+        reaper.tick();
+
+        // Act
+        clock.addAndGet(RETENTION_MILLIS + GuestAccountReaper.BUCKET_MILLIS);
+        reaper.tick();
+
+        // Assert
+        verify(workspaceAccountManager).deleteAccount("account-1");
+        verify(accountManager).delete("session-1");
+        verify(accountExistenceCache).evict("account-1");
+        assertEquals(1, reaper.getReapedCount(), "Reaped count should match");
+        assertTrue(store.keySet().stream().noneMatch(key -> key.contains(":bucket:")),
+            "Consumed registry should be removed: " + store.keySet());
+    }
+
+    @Test
+    @DisplayName("Should not delete accounts inside the retention window")
+    void testTick_KeepsRecentAccount() {
+        // Arrange
+        reaper.register("account-1", "session-1", false);
+        reaper.tick();
+
+        // Act
+        clock.addAndGet(RETENTION_MILLIS - GuestAccountReaper.BUCKET_MILLIS);
+        reaper.tick();
+
+        // Assert
+        verify(workspaceAccountManager, never()).deleteAccount(anyString());
+        verify(sessionManager, never()).lookupAccountId(anyString());
+    }
+
+    @Test
+    @DisplayName("Should keep an account whose session is still live and check it again later")
+    void testTick_KeepsAccountWithLiveSession() {
+        // Arrange
+        when(sessionManager.lookupAccountId("session-1")).thenReturn("account-1");
+        reaper.register("account-1", "session-1", false);
+        reaper.tick();
+        clock.addAndGet(RETENTION_MILLIS + GuestAccountReaper.BUCKET_MILLIS);
+
+        // Act
+        reaper.tick();
+        reaper.tick();
+
+        // Assert
+        verify(workspaceAccountManager, never()).deleteAccount(anyString());
+        assertEquals(1, reaper.getRetainedCount(), "Retained count should match");
+
+        // Act: the session ends and the re-registration expires
+        when(sessionManager.lookupAccountId("session-1")).thenReturn(null);
+        clock.addAndGet(RETENTION_MILLIS + GuestAccountReaper.BUCKET_MILLIS);
+        reaper.tick();
+
+        // Assert
+        verify(workspaceAccountManager).deleteAccount("account-1");
+    }
+
+    @Test
+    @DisplayName("Should keep an expired registration whose account logged in again within the retention")
+    void testTick_KeepsAccountWithRecentLastLogin() {
+        // Arrange
+        reaper.register("account-1", "session-1", false);
+        reaper.tick();
+        clock.addAndGet(RETENTION_MILLIS + GuestAccountReaper.BUCKET_MILLIS);
+        when(accountProvisioner.getLastLoginMillis("account-1")).thenReturn(clock.get() - 1_000L);
+
+        // Act
+        reaper.tick();
+        reaper.tick();
+
+        // Assert
+        verify(workspaceAccountManager, never()).deleteAccount(anyString());
+        verify(accountManager, never()).delete(anyString());
+        assertEquals(1, reaper.getRetainedCount(), "Retained count should match");
+
+        // Act: no further login within the retention
+        clock.addAndGet(RETENTION_MILLIS + GuestAccountReaper.BUCKET_MILLIS);
+        reaper.tick();
+
+        // Assert
+        verify(workspaceAccountManager).deleteAccount("account-1");
+    }
+
+    @Test
+    @DisplayName("Should only let the latest resumed login delete a resumed account")
+    void testTick_SupersededByResumedLogin() {
+        // Arrange
+        reaper.register("account-1", "session-1", false);
+        reaper.tick();
+        clock.addAndGet(GuestAccountReaper.BUCKET_MILLIS);
+        reaper.register("account-1", "session-2", true);
+        reaper.tick();
+
+        // Act: only the first registration has expired
+        clock.addAndGet(RETENTION_MILLIS);
+        reaper.tick();
+
+        // Assert
+        verify(workspaceAccountManager, never()).deleteAccount(anyString());
+        verify(sessionManager, never()).lookupAccountId("session-1");
+
+        // Act: the resumed login expires as well
+        clock.addAndGet(GuestAccountReaper.BUCKET_MILLIS);
+        reaper.tick();
+
+        // Assert
+        verify(workspaceAccountManager).deleteAccount("account-1");
+        verify(accountManager).delete("session-2");
+        assertTrue(store.keySet().stream()
+                .noneMatch(key -> key.contains(":bucket:") || key.contains(":latestSession:")),
+            "Consumed registry should be removed: " + store.keySet());
+    }
+
+    @Test
+    @DisplayName("Should delete an expired pooled account without looking up a session")
+    void testTick_ReapsUnclaimedPooledAccount() {
+        // Arrange
+        reaper.register("account-1", null, false);
+        reaper.tick();
+
+        // Act
+        clock.addAndGet(RETENTION_MILLIS + GuestAccountReaper.BUCKET_MILLIS);
+        reaper.tick();
+
+        // Assert
+        verify(workspaceAccountManager).deleteAccount("account-1");
+        verify(sessionManager, never()).lookupAccountId(any());
+        verify(accountManager, never()).delete(any());
+        assertEquals(1, reaper.getReapedCount(), "Reaped count should match");
+    }
+
+    @Test
+    @DisplayName("Should reap one batch per tick, skip busy ticks and resume from the checkpoint after a restart")
+    void testTick_ThrottlesAndResumes() {
+        // Arrange: a login burst; this tick only writes the registrations
+        for (int i = 0; i < 120; i++) {
+            reaper.register("account-" + i, "session-" + i, false);
+        }
+        reaper.tick();
+        clock.addAndGet(RETENTION_MILLIS + GuestAccountReaper.BUCKET_MILLIS);
+
+        // Act
+        reaper.tick();
+
+        // Assert
+        verify(workspaceAccountManager, times(GuestAccountReaper.BATCH_SIZE)).deleteAccount(anyString());
+
+        // Act: a restarted extension continues from the checkpoint of the stopped one
+        reaper.preDestroy();
+        GuestAccountReaper restarted = newReaper();
+        restarted.tick();
+        restarted.tick();
+
+        // Assert
+        verify(workspaceAccountManager, times(120)).deleteAccount(anyString());
+        verify(workspaceAccountManager, times(1)).deleteAccount("account-0");
+        verify(workspaceAccountManager, times(1)).deleteAccount("account-119");
+    }
+
+    private GuestAccountReaper newReaper() {
+        return new GuestAccountReaper(keyValueStore, sessionManager, accountProvisioner, accountManager,
+            accountExistenceCache, invoker, scheduler, clock::get);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import app.krista.extension.executor.Invoker;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static app.krista.extensions.authentication.guest_authentication.GuestAuthenticationExtension.*;
+import static app.krista.extensions.authentication.guest_authentication.rest.LoginAdmissionController.Decision.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for LoginAdmissionController.
+ *
+ * Tests cover:
+ * - Admitting every login while admission control is not configured
+ * - Token bucket exhaustion and refill per client key
+ * - Client key composition from the configured parts
+ * - Client address taken from the entry of the outermost trusted proxy
+ * - Remote address fallback and no per-client limit without any client address
+ * - Concurrency cap and release
+ */
+@DisplayName("Login Admission Controller Tests")
+class LoginAdmissionControllerTest {
+
+    private static final String CLIENT_A = "203.0.113.7, 10.0.0.1";
+    private static final String CLIENT_B = "203.0.113.7, 10.0.0.2";
+    private static final String PROXY_ADDRESS = "10.0.0.254";
+
+    @Mock
+    private Invoker invoker;
+
+    private Map<String, Object> attributes;
+    private AtomicLong clock;
+    private LoginAdmissionController controller;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        attributes = new HashMap<>();
+        when(invoker.getAttributes()).thenReturn(attributes);
+        clock = new AtomicLong(1_000_000L);
+        controller = new LoginAdmissionController(invoker, clock::get, 42L);
+    }
+
+    @Test
+    @DisplayName("Should admit every login while admission control is not configured")
+    void testTryAdmit_Disabled() {
+        // Act & Assert
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals(ADMITTED, controller.tryAdmit(CLIENT_A, PROXY_ADDRESS, null, null),
+                "Login should be admitted");
+        }
+        assertEquals(1_000, controller.getInFlightCount(), "Unreleased logins should be in flight");
+    }
+
+    @Test
+    @DisplayName("Should reject a client key once its bucket is empty and admit it again after refill")
+    void testTryAdmit_RateLimitAndRefill() {
+        // Arrange
+        attributes.put(LOGIN_RATE_PER_MINUTE, 3);
+
+        // Act
+        for (int i = 0; i < 3; i++) {
+            assertEquals(ADMITTED, admitAndRelease(CLIENT_A), "Burst should be admitted");
+        }
+
+        // Assert
+        assertEquals(RATE_LIMITED, admitAndRelease(CLIENT_A), "Login beyond the burst should be rejected");
+        assertEquals(ADMITTED, admitAndRelease(CLIENT_B), "Another client should have its own bucket");
+        assertEquals(20, controller.getRetryAfterSeconds(RATE_LIMITED), "Retry after should match the rate");
+
+        // Act: one token is earned every 20 seconds
+        clock.addAndGet(19_999);
+        assertEquals(RATE_LIMITED, admitAndRelease(CLIENT_A), "Token should not be earned yet");
+        clock.addAndGet(1);
+
+        // Assert
+        assertEquals(ADMITTED, admitAndRelease(CLIENT_A), "Refilled token should be admitted");
+        assertEquals(RATE_LIMITED, admitAndRelease(CLIENT_A), "Only one token should be refilled");
+        assertEquals(3, controller.getRateLimitedCount(), "Rate limited count should match");
+        assertEquals(0, controller.getInFlightCount(), "Rejected logins should not stay in flight");
+    }
+
+    @Test
+    @DisplayName("Should build the client key from the configured parts")
+    void testTryAdmit_KeyParts() {
+        // Arrange
+        attributes.put(LOGIN_RATE_PER_MINUTE, "1");
+        attributes.put(LOGIN_RATE_LIMIT_KEY, "client_address, source");
+
+        // Act & Assert
+        assertEquals(ADMITTED, controller.tryAdmit(CLIENT_A, PROXY_ADDRESS, "https://a.example", "omni"),
+            "First login");
+        controller.release();
+        assertEquals(RATE_LIMITED, controller.tryAdmit(CLIENT_A, PROXY_ADDRESS, "https://b.example", "omni"),
+            "Caller uri should not be part of the key");
+        assertEquals(ADMITTED, controller.tryAdmit(CLIENT_A, PROXY_ADDRESS, "https://a.example", null),
+            "Source should be part of the key");
+        controller.release();
+    }
+
+    @Test
+    @DisplayName("Should take the client address from the entry of the outermost trusted proxy")
+    void testTryAdmit_TrustedProxyHops() {
+        // Arrange
+        attributes.put(LOGIN_RATE_PER_MINUTE, 1);
+
+        // Act & Assert: entries left of the trusted proxy are forged by the client
+        assertEquals(ADMITTED, admitAndRelease("198.51.100.1, 203.0.113.7"), "First login");
+        assertEquals(RATE_LIMITED, admitAndRelease("198.51.100.2, 203.0.113.7"),
+            "Forged entries should not give a client a new budget");
+
+        // Act & Assert: with two trusted proxies the second entry from the right is the client
+        attributes.put(TRUSTED_PROXY_HOPS, "2");
+        assertEquals(ADMITTED, admitAndRelease("198.51.100.1, 203.0.113.8, 10.0.0.1"), "First login");
+        assertEquals(RATE_LIMITED, admitAndRelease("198.51.100.2, 203.0.113.8, 10.0.0.2"),
+            "Client should be keyed on the entry of the outermost trusted proxy");
+        assertEquals(ADMITTED, admitAndRelease("203.0.113.9"), "Shorter header should use its leftmost entry");
+
+        // Act & Assert: without a trusted proxy the header is ignored
+        attributes.put(TRUSTED_PROXY_HOPS, 0);
+        assertEquals(ADMITTED, admitAndRelease("203.0.113.10"), "First login");
+        assertEquals(RATE_LIMITED, admitAndRelease("203.0.113.11"), "Header should not identify the client");
+    }
+
+    @Test
+    @DisplayName("Should key clients without the header on their remote address, and not limit unknown clients")
+    void testTryAdmit_RemoteAddressFallback() {
+        // Arrange
+        attributes.put(LOGIN_RATE_PER_MINUTE, 1);
+
+        // Act & Assert
+        assertEquals(ADMITTED, admitAndRelease(null, "198.51.100.1"), "First login");
+        assertEquals(RATE_LIMITED, admitAndRelease(null, "198.51.100.1"), "Remote address should identify the client");
+        assertEquals(ADMITTED, admitAndRelease(null, "198.51.100.2"), "Another address should have its own bucket");
+
+        // Act & Assert: no client key can be derived, so only the global cap applies
+        for (int i = 0; i < 5; i++) {
+            assertEquals(ADMITTED, admitAndRelease(null, null), "Unknown clients should not share one budget");
+        }
+        assertEquals(1, controller.getRateLimitedCount(), "Rate limited count should match");
+    }
+
+    @Test
+    @DisplayName("Should shed logins beyond the concurrency cap until one is released")
+    void testTryAdmit_ConcurrencyCap() {
+        // Arrange
+        attributes.put(MAX_CONCURRENT_LOGINS, 2.0);
+
+        // Act
+        assertEquals(ADMITTED, controller.tryAdmit(CLIENT_A, PROXY_ADDRESS, null, null), "First login");
+        assertEquals(ADMITTED, controller.tryAdmit(CLIENT_B, PROXY_ADDRESS, null, null), "Second login");
+        LoginAdmissionController.Decision shed = controller.tryAdmit(CLIENT_A, PROXY_ADDRESS, null, null);
+        controller.release();
+
+        // Assert
+        assertEquals(OVERLOADED, shed, "Third concurrent login should be shed");
+        assertEquals(ADMITTED, controller.tryAdmit(CLIENT_A, PROXY_ADDRESS, null, null),
+            "Released slot should be reused");
+        assertEquals(1, controller.getOverloadedCount(), "Overloaded count should match");
+        assertEquals(3, controller.getAdmittedCount(), "Admitted count should match");
+        assertEquals(1, controller.getRetryAfterSeconds(OVERLOADED), "Overloaded clients should retry soon");
+    }
+
+    private LoginAdmissionController.Decision admitAndRelease(String forwardedFor) {
+        return admitAndRelease(forwardedFor, PROXY_ADDRESS);
+    }
+
+    private LoginAdmissionController.Decision admitAndRelease(String forwardedFor, String remoteAddress) {
+        LoginAdmissionController.Decision decision = controller.tryAdmit(forwardedFor, remoteAddress, null, null);
+        if (decision == ADMITTED) {
+            controller.release();
+        }
+        return decision;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import app.krista.extension.common.AuthenticationResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static app.krista.extensions.authentication.guest_authentication.rest.GuestAuthenticationExtensionConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ReplayResponseCache.
+ *
+ * Tests cover:
+ * - Reusing the serialized body for the same stored response
+ * - Rebuilding once the stored response changes or the session is invalidated
+ * - ETag matching of If-None-Match headers
+ */
+@DisplayName("Replay Response Cache Tests")
+class ReplayResponseCacheTest {
+
+    private final ReplayResponseCache cache = new ReplayResponseCache();
+
+    @Test
+    @DisplayName("Should serialize the replayed response once per stored response")
+    void testGet_ReusesBody() {
+        // Arrange
+        AuthenticationResponse stored = response("account-1");
+
+        // Act
+        ReplayResponseCache.Replay first = cache.get("session-1", stored, ReplayResponseCacheTest::withoutExtras);
+        ReplayResponseCache.Replay second = cache.get("session-1", stored, ReplayResponseCacheTest::withoutExtras);
+
+        // Assert
+        assertSame(first, second, "Replay should be reused");
+        assertEquals(GSON_JSON_MAPPER.toString(withoutExtras(stored)),
+            new String(first.getBody(), StandardCharsets.UTF_8),
+            "Body should be the replayed response");
+        assertEquals(1, cache.getHitCount(), "Hit count should match");
+        assertEquals(1, cache.getBuildCount(), "Build count should match");
+    }
+
+    @Test
+    @DisplayName("Should rebuild the body once the stored response changes or the session is invalidated")
+    void testGet_RebuildsOnChange() {
+        // Arrange
+        ReplayResponseCache.Replay original = cache.get("session-1", response("account-1"),
+            ReplayResponseCacheTest::withoutExtras);
+
+        // Act
+        ReplayResponseCache.Replay rewritten = cache.get("session-1", response("account-1"),
+            ReplayResponseCacheTest::withoutExtras);
+        ReplayResponseCache.Replay changed = cache.get("session-1", response("account-2"),
+            ReplayResponseCacheTest::withoutExtras);
+        AuthenticationResponse stored = response("account-2");
+        cache.get("session-1", stored, ReplayResponseCacheTest::withoutExtras);
+        cache.invalidate("session-1");
+        ReplayResponseCache.Replay afterInvalidate = cache.get("session-1", stored,
+            ReplayResponseCacheTest::withoutExtras);
+
+        // Assert
+        assertNotSame(original, rewritten, "A new stored instance should be rebuilt");
+        assertEquals(original.getETag(), rewritten.getETag(), "Same content should keep the ETag");
+        assertNotEquals(original.getETag(), changed.getETag(), "Changed content should change the ETag");
+        assertEquals(changed.getETag(), afterInvalidate.getETag(), "Rebuilt body should have the same ETag");
+        assertEquals(0, cache.getHitCount(), "Nothing should have been served from the cache");
+    }
+
+    @Test
+    @DisplayName("Should match If-None-Match headers by weak comparison")
+    void testMatches() {
+        // Arrange
+        ReplayResponseCache.Replay replay = cache.get("session-1", response("account-1"),
+            ReplayResponseCacheTest::withoutExtras);
+        String eTag = replay.getETag();
+
+        // Act & Assert
+        assertTrue(eTag.startsWith("\"") && eTag.endsWith("\""), "ETag should be quoted");
+        assertTrue(replay.matches(eTag), "Same ETag should match");
+        assertTrue(replay.matches("W/" + eTag), "Weak ETag should match");
+        assertTrue(replay.matches("\"other\", " + eTag), "ETag in a list should match");
+        assertTrue(replay.matches("*"), "Wildcard should match");
+        assertFalse(replay.matches("\"other\""), "Other ETag should not match");
+        assertFalse(replay.matches(null), "Missing header should not match");
+    }
+
+    private static AuthenticationResponse response(String accountId) {
+        Map<String, Object> extras = new LinkedHashMap<>();
+        extras.put("newSession", true);
+        return new AuthenticationResponse("session-1", "Guest User", "avatar.png", accountId, "krista-1",
+            "person-1", List.of("Krista Guest User"), "inbox-1", false, false, Map.of(), extras);
+    }
+
+    private static AuthenticationResponse withoutExtras(AuthenticationResponse stored) {
+        return new AuthenticationResponse(stored.getClientSessionId(), stored.getName(), stored.getAvatarUrl(),
+            stored.getAccountId(), stored.getKristaAccountId(), stored.getPersonId(), stored.getRoles(),
+            stored.getInboxId(), stored.isWorkspaceAdmin(), stored.isApplianceManager(),
+            stored.getIdentificationToken(), Map.of());
+    }
+}
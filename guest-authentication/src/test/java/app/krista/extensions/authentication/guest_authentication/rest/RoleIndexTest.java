@@ -0,0 +1,167 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import app.krista.ksdk.authorization.ModifiableRole;
+import app.krista.ksdk.authorization.RoleManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for RoleIndex.
+ *
+ * Tests cover:
+ * - Hash lookups without iterating workspace roles
+ * - Scheduled and miss-triggered refreshes
+ * - Registration of roles created by the extension
+ * - Recovery when another node created the role first
+ */
+@DisplayName("Role Index Tests")
+class RoleIndexTest {
+
+    @Mock
+    private RoleManager roleManager;
+
+    private AtomicLong clock;
+    private List<ModifiableRole> workspaceRoles;
+    private RoleIndex roleIndex;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        clock = new AtomicLong(1_000_000L);
+        workspaceRoles = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            workspaceRoles.add(role("role-" + i, "id-" + i));
+        }
+        when(roleManager.getRoles()).thenAnswer(invocation -> new ArrayList<>(workspaceRoles));
+        roleIndex = new RoleIndex(roleManager, clock::get);
+    }
+
+    @Test
+    @DisplayName("Should list workspace roles once for repeated lookups")
+    void testFind_BuildsIndexOnce() {
+        // Act
+        for (int i = 0; i < 100; i++) {
+            assertEquals("id-" + (i * 2), roleIndex.find("role-" + (i * 2)).getRoleId(), "Role should be found");
+        }
+
+        // Assert
+        verify(roleManager, times(1)).getRoles();
+    }
+
+    @Test
+    @DisplayName("Should rebuild the index once it is older than the refresh interval")
+    void testFind_RefreshesOnSchedule() {
+        // Arrange
+        roleIndex.find("role-1");
+        workspaceRoles.set(1, role("role-1", "renamed-id"));
+
+        // Act
+        clock.addAndGet(RoleIndex.REFRESH_MILLIS);
+        ModifiableRole role = roleIndex.find("role-1");
+
+        // Assert
+        assertEquals("renamed-id", role.getRoleId(), "Refreshed index should reflect the workspace");
+        verify(roleManager, times(2)).getRoles();
+    }
+
+    @Test
+    @DisplayName("Should refresh on a miss, but not more than once per miss interval")
+    void testFind_RefreshesOnMiss() {
+        // Arrange
+        roleIndex.find("role-1");
+        workspaceRoles.add(role("added-elsewhere", "id-new"));
+
+        // Act
+        ModifiableRole tooEarly = roleIndex.find("added-elsewhere");
+        clock.addAndGet(RoleIndex.MISS_REFRESH_MILLIS);
+        ModifiableRole found = roleIndex.find("added-elsewhere");
+
+        // Assert
+        assertNull(tooEarly, "Misses right after a rebuild should not rebuild again");
+        assertEquals("id-new", found.getRoleId(), "Miss after the interval should rebuild the index");
+        verify(roleManager, times(2)).getRoles();
+    }
+
+    @Test
+    @DisplayName("Should create a missing role once and serve it from the index afterwards")
+    void testFindOrCreate_RegistersCreatedRole() {
+        // Arrange
+        ModifiableRole created = role("Krista Guest User", "guest-id");
+        when(roleManager.createRole("Krista Guest User")).thenReturn(created);
+
+        // Act
+        ModifiableRole first = roleIndex.findOrCreate("Krista Guest User");
+        ModifiableRole second = roleIndex.findOrCreate("Krista Guest User");
+
+        // Assert
+        assertSame(created, first, "Created role should be returned");
+        assertSame(created, second, "Created role should be served from the index");
+        verify(roleManager, times(1)).createRole("Krista Guest User");
+        verify(roleManager, times(1)).getRoles();
+    }
+
+    @Test
+    @DisplayName("Should use the workspace role when creation fails because it already exists")
+    void testFindOrCreate_RoleCreatedElsewhere() {
+        // Arrange
+        roleIndex.find("role-0");
+        ModifiableRole guest = role("guest", "guest-id");
+        when(roleManager.createRole("guest")).thenAnswer(invocation -> {
+            workspaceRoles.add(guest);
+            throw new IllegalStateException("Role already exists");
+        });
+
+        // Act
+        ModifiableRole found = roleIndex.findOrCreate("guest");
+
+        // Assert
+        assertSame(guest, found, "Role created elsewhere should be returned");
+        verify(roleManager, times(1)).createRole("guest");
+    }
+
+    @Test
+    @DisplayName("Should propagate the creation failure when the role is still missing")
+    void testFindOrCreate_CreationFails() {
+        // Arrange
+        when(roleManager.createRole("guest")).thenThrow(new IllegalStateException("Not allowed"));
+
+        // Act & Assert
+        assertThrows(IllegalStateException.class, () -> roleIndex.findOrCreate("guest"),
+            "Creation failure should be propagated");
+    }
+
+    private static ModifiableRole role(String name, String roleId) {
+        ModifiableRole role = mock(ModifiableRole.class);
+        when(role.getName()).thenReturn(name);
+        when(role.getRoleId()).thenReturn(roleId);
+        return role;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for SessionIdStream.
+ *
+ * Tests cover:
+ * - Reading every id of a JSON array
+ * - Stopping with an error at the batch limit
+ * - Stopping with an error on malformed input, keeping the ids read before it
+ */
+@DisplayName("Session Id Stream Tests")
+class SessionIdStreamTest {
+
+    @Test
+    @DisplayName("Should read every id of a JSON array")
+    void testNext_ReadsAllIds() {
+        // Arrange
+        SessionIdStream stream = new SessionIdStream(body("[\"session-1\", \"session-2\"]"), 10);
+
+        // Act
+        List<String> ids = readAll(stream);
+
+        // Assert
+        assertEquals(List.of("session-1", "session-2"), ids, "Ids should match");
+        assertNull(stream.getError(), "There should be no error");
+    }
+
+    @Test
+    @DisplayName("Should stop with an error once the batch limit is exceeded")
+    void testNext_StopsAtLimit() {
+        // Arrange
+        SessionIdStream stream = new SessionIdStream(body("[\"session-1\", \"session-2\", \"session-3\"]"), 2);
+
+        // Act
+        List<String> ids = readAll(stream);
+
+        // Assert
+        assertEquals(List.of("session-1", "session-2"), ids, "Only ids within the limit should be read");
+        assertNotNull(stream.getError(), "Exceeding the limit should be reported");
+    }
+
+    @Test
+    @DisplayName("Should stop with an error on malformed input")
+    void testNext_MalformedInput() {
+        // Arrange
+        SessionIdStream truncated = new SessionIdStream(body("[\"session-1\", \"sess"), 10);
+        SessionIdStream notStrings = new SessionIdStream(body("[\"session-1\", {\"id\": 1}]"), 10);
+        SessionIdStream notAnArray = new SessionIdStream(body("{\"ids\": []}"), 10);
+
+        // Act
+        List<String> truncatedIds = readAll(truncated);
+        List<String> notStringIds = readAll(notStrings);
+        List<String> notAnArrayIds = readAll(notAnArray);
+
+        // Assert
+        assertEquals(List.of("session-1"), truncatedIds, "Ids before the truncation should be read");
+        assertNotNull(truncated.getError(), "Truncated input should be reported");
+        assertEquals(List.of("session-1"), notStringIds, "Ids before the object should be read");
+        assertNotNull(notStrings.getError(), "Non-string entries should be reported");
+        assertTrue(notAnArrayIds.isEmpty(), "Nothing should be read from an object");
+        assertNotNull(notAnArray.getError(), "An object body should be reported");
+    }
+
+    private static List<String> readAll(SessionIdStream stream) {
+        List<String> ids = new ArrayList<>();
+        stream.forEachRemaining(ids::add);
+        return ids;
+    }
+
+    private static InputStream body(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
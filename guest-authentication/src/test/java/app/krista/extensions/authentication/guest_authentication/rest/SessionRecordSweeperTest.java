@@ -0,0 +1,128 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.rest;
+
+import app.krista.extensions.util.KeyValueStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for SessionRecordSweeper.
+ *
+ * Tests cover:
+ * - Offering session ids only once their bucket has expired
+ * - Batch size per tick and taking over the index of a stopped extension
+ * - Removing the index as it is consumed
+ */
+@DisplayName("Session Record Sweeper Tests")
+class SessionRecordSweeperTest {
+
+    @Mock
+    private KeyValueStore keyValueStore;
+
+    private Map<String, Object> store;
+    private AtomicLong clock;
+    private List<String> offered;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        store = new ConcurrentHashMap<>();
+        doAnswer(invocation -> store.put(invocation.getArgument(0), invocation.getArgument(1)))
+            .when(keyValueStore).put(anyString(), any());
+        when(keyValueStore.get(anyString())).thenAnswer(invocation -> store.get(invocation.getArgument(0)));
+        doAnswer(invocation -> store.remove(invocation.getArgument(0))).when(keyValueStore).remove(anyString());
+        clock = new AtomicLong(TimeUnit.DAYS.toMillis(20_000));
+        offered = new ArrayList<>();
+    }
+
+    @Test
+    @DisplayName("Should offer a session id only once its expiry bucket has ended")
+    void testTick_WaitsForBucketEnd() {
+        // Arrange
+        SessionRecordSweeper sweeper = newSweeper();
+        sweeper.register("session-1", clock.get() + TimeUnit.MINUTES.toMillis(1));
+        sweeper.tick();
+
+        // Act
+        clock.addAndGet(SessionRecordSweeper.BUCKET_MILLIS - 1);
+        sweeper.tick();
+
+        // Assert
+        assertTrue(offered.isEmpty(), "Nothing should be offered before the bucket ends");
+
+        // Act
+        clock.addAndGet(1);
+        sweeper.tick();
+
+        // Assert
+        assertEquals(List.of("session-1"), offered, "Expired session should be offered");
+        assertEquals(1, sweeper.getSweptCount(), "Swept count should match");
+        assertTrue(store.keySet().stream().noneMatch(key -> key.contains(":bucket:")),
+            "Consumed index should be removed: " + store.keySet());
+    }
+
+    @Test
+    @DisplayName("Should offer one batch per tick and resume from the checkpoint after a restart")
+    void testTick_BatchesAndResumes() {
+        // Arrange
+        SessionRecordSweeper sweeper = newSweeper();
+        for (int i = 0; i < 250; i++) {
+            sweeper.register("session-" + i, clock.get() + TimeUnit.MINUTES.toMillis(1));
+        }
+        sweeper.tick();
+        clock.addAndGet(SessionRecordSweeper.BUCKET_MILLIS);
+
+        // Act
+        sweeper.tick();
+
+        // Assert
+        assertEquals(SessionRecordSweeper.BATCH_SIZE, offered.size(), "One batch should be offered");
+
+        // Act: a restarted extension continues from the checkpoint of the stopped one
+        sweeper.retire();
+        SessionRecordSweeper restarted = newSweeper();
+        restarted.tick();
+        restarted.tick();
+
+        // Assert
+        assertEquals(250, offered.size(), "Every session should be offered once");
+        assertEquals(250, offered.stream().distinct().count(), "No session should be offered twice");
+    }
+
+    private SessionRecordSweeper newSweeper() {
+        return new SessionRecordSweeper(keyValueStore, sessionId -> offered.add(sessionId), clock::get);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+package app.krista.extensions.authentication.guest_authentication.session;
+
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
+import app.krista.ksdk.accounts.Account;
+import app.krista.ksdk.accounts.AccountProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for AccountExistenceCache.
+ *
+ * Tests cover:
+ * - Fresh entries answered without AccountProvider calls
+ * - Stale entries served while revalidating in the background
+ * - Immediate eviction of deleted accounts and their sessions
+ */
+@DisplayName("Account Existence Cache Tests")
+class AccountExistenceCacheTest {
+
+    private static final String ACCOUNT_ID = "account-456";
+
+    @Mock
+    private AccountProvider accountProvider;
+
+    private AtomicLong clock;
+    private Queue<Runnable> pendingRefreshes;
+    private SessionAccountCache sessionAccountCache;
+    private AccountExistenceCache cache;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(accountProvider.getAccount(ACCOUNT_ID)).thenReturn(mock(Account.class));
+        clock = new AtomicLong(1_000_000L);
+        pendingRefreshes = new ArrayDeque<>();
+        sessionAccountCache = new SessionAccountCache(() -> 30.0);
+        cache = new AccountExistenceCache(accountProvider, sessionAccountCache, pendingRefreshes::add, clock::get);
+    }
+
+    @Test
+    @DisplayName("Should verify an account once and then answer from memory")
+    void testExists_FreshEntryCostsNoCalls() {
+        // Act
+        for (int i = 0; i < 100; i++) {
+            assertTrue(cache.exists(ACCOUNT_ID), "Account should exist");
+        }
+
+        // Assert
+        verify(accountProvider, times(1)).getAccount(ACCOUNT_ID);
+        assertEquals(99, cache.getFreshHitCount(), "Repeat lookups should be fresh hits");
+        assertTrue(pendingRefreshes.isEmpty(), "Fresh entries should not be revalidated");
+    }
+
+    @Test
+    @DisplayName("Should serve a stale entry and revalidate it once in the background")
+    void testExists_StaleEntryRevalidatesAsynchronously() {
+        // Arrange
+        cache.exists(ACCOUNT_ID);
+        clock.addAndGet(AccountExistenceCache.FRESH_MILLIS);
+
+        // Act
+        assertTrue(cache.exists(ACCOUNT_ID), "Stale entry should still be served");
+        assertTrue(cache.exists(ACCOUNT_ID), "Stale entry should still be served");
+
+        // Assert
+        verify(accountProvider, times(1)).getAccount(ACCOUNT_ID);
+        assertEquals(1, pendingRefreshes.size(), "Only one refresh should be scheduled per account");
+        pendingRefreshes.poll().run();
+        verify(accountProvider, times(2)).getAccount(ACCOUNT_ID);
+        assertTrue(cache.exists(ACCOUNT_ID), "Revalidated entry should be fresh again");
+        assertTrue(pendingRefreshes.isEmpty(), "Revalidated entry should not be refreshed again");
+    }
+
+    @Test
+    @DisplayName("Should evict a deleted account and its sessions when revalidation finds it gone")
+    void testExists_DeletedAccountEvicted() {
+        // Arrange
+        cache.exists(ACCOUNT_ID);
+        sessionAccountCache.put("session-1", ACCOUNT_ID);
+        sessionAccountCache.put("session-2", "other-account");
+        clock.addAndGet(AccountExistenceCache.FRESH_MILLIS);
+        cache.exists(ACCOUNT_ID);
+        when(accountProvider.getAccount(ACCOUNT_ID)).thenThrow(new NoSuchElementException());
+
+        // Act
+        pendingRefreshes.poll().run();
+
+        // Assert
+        assertNull(sessionAccountCache.getAccountId("session-1"), "Sessions of the deleted account should be dropped");
+        assertEquals("other-account", sessionAccountCache.getAccountId("session-2"),
+            "Sessions of other accounts should be kept");
+        assertFalse(cache.exists(ACCOUNT_ID), "Deleted account should be verified again and reported missing");
+        assertEquals(2, cache.getDeletedEvictionCount(), "Both failed checks should count as deletions");
+    }
+
+    @Test
+    @DisplayName("Should keep serving a stale entry when revalidation fails for other reasons")
+    void testExists_RefreshFailureKeepsEntry() {
+        // Arrange
+        cache.exists(ACCOUNT_ID);
+        clock.addAndGet(AccountExistenceCache.FRESH_MILLIS);
+        cache.exists(ACCOUNT_ID);
+        when(accountProvider.getAccount(ACCOUNT_ID)).thenThrow(new IllegalStateException("unavailable"));
+
+        // Act
+        pendingRefreshes.poll().run();
+
+        // Assert
+        assertTrue(cache.exists(ACCOUNT_ID), "Stale entry should survive a transient failure");
+        assertEquals(1, pendingRefreshes.size(), "Refresh should be retried on the next lookup");
+    }
+
+    @Test
+    @DisplayName("Should verify synchronously once an entry is older than the stale limit")
+    void testExists_ExpiredEntryVerifiedSynchronously() {
+        // Arrange
+        cache.exists(ACCOUNT_ID);
+        clock.addAndGet(AccountExistenceCache.MAX_STALE_MILLIS);
+
+        // Act
+        boolean exists = cache.exists(ACCOUNT_ID);
+
+        // Assert
+        assertTrue(exists, "Account should exist");
+        verify(accountProvider, times(2)).getAccount(ACCOUNT_ID);
+        assertTrue(pendingRefreshes.isEmpty(), "Expired entries should not be refreshed asynchronously");
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+
+package app.krista.extensions.authentication.guest_authentication.session;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import app.krista.extension.executor.Invoker;
+import app.krista.extensions.util.KeyValueStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static app.krista.extensions.authentication.guest_authentication.GuestAuthenticationExtension.RESUME_TOKEN_DAYS;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for ResumeTokens.
+ *
+ * Tests cover:
+ * - Issue and verify round trip
+ * - Tampered, malformed and expired tokens
+ * - Disabled resume tokens
+ * - Secret shared through the KeyValueStore
+ * - Converging on the stored secret after a concurrent first use
+ */
+@DisplayName("Resume Tokens Tests")
+class ResumeTokensTest {
+
+    @Mock
+    private KeyValueStore keyValueStore;
+
+    @Mock
+    private Invoker invoker;
+
+    private Map<String, Object> attributes;
+    private Map<String, Object> store;
+    private AtomicLong clock;
+    private ResumeTokens resumeTokens;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        attributes = new HashMap<>();
+        attributes.put(RESUME_TOKEN_DAYS, 30);
+        store = new HashMap<>();
+        doAnswer(invocation -> store.put(invocation.getArgument(0), invocation.getArgument(1)))
+            .when(keyValueStore).put(anyString(), any());
+        when(keyValueStore.get(anyString())).thenAnswer(invocation -> store.get(invocation.getArgument(0)));
+        when(invoker.getAttributes()).thenReturn(attributes);
+        clock = new AtomicLong(TimeUnit.DAYS.toMillis(20_000));
+        resumeTokens = new ResumeTokens(keyValueStore, invoker, clock::get);
+    }
+
+    @Test
+    @DisplayName("Should verify an issued token to its account id")
+    void testVerify_RoundTrip() {
+        // Act
+        String token = resumeTokens.issue("account-1");
+
+        // Assert
+        assertEquals("account-1", resumeTokens.verify(token), "Issued token should resume its account");
+        assertEquals(TimeUnit.DAYS.toSeconds(30), resumeTokens.getLifetimeSeconds(), "Lifetime should match");
+    }
+
+    @Test
+    @DisplayName("Should reject tampered and malformed tokens")
+    void testVerify_TamperedToken() {
+        // Arrange
+        String token = resumeTokens.issue("account-1");
+        String forged = resumeTokens.issue("account-2");
+        String forgedPayload = forged.substring(0, forged.indexOf('.'));
+        String signature = token.substring(token.indexOf('.') + 1);
+
+        // Act & Assert
+        assertNull(resumeTokens.verify(forgedPayload + "." + signature), "Swapped payload should be rejected");
+        assertNull(resumeTokens.verify(token + "x"), "Altered signature should be rejected");
+        assertNull(resumeTokens.verify("not-a-token"), "Token without signature should be rejected");
+        assertNull(resumeTokens.verify("a.b.c"), "Token with extra parts should be rejected");
+        assertNull(resumeTokens.verify("%%%.%%%"), "Token that is not base64 should be rejected");
+        assertNull(resumeTokens.verify(null), "Missing token should be rejected");
+    }
+
+    @Test
+    @DisplayName("Should reject a token once it has expired")
+    void testVerify_ExpiredToken() {
+        // Arrange
+        String token = resumeTokens.issue("account-1");
+
+        // Act
+        clock.addAndGet(TimeUnit.DAYS.toMillis(30));
+
+        // Assert
+        assertNull(resumeTokens.verify(token), "Expired token should be rejected");
+    }
+
+    @Test
+    @DisplayName("Should not resume accounts while resume tokens are disabled")
+    void testVerify_Disabled() {
+        // Arrange
+        String token = resumeTokens.issue("account-1");
+
+        // Act
+        attributes.remove(RESUME_TOKEN_DAYS);
+
+        // Assert
+        assertFalse(resumeTokens.isEnabled(), "Resume tokens should be disabled");
+        assertNull(resumeTokens.verify(token), "Token should not be accepted while disabled");
+    }
+
+    @Test
+    @DisplayName("Should store the secret once and share it with other instances")
+    void testIssue_SharesSecret() {
+        // Arrange
+        String token = resumeTokens.issue("account-1");
+
+        // Act
+        ResumeTokens otherNode = new ResumeTokens(keyValueStore, invoker, clock::get);
+
+        // Assert
+        assertEquals("account-1", otherNode.verify(token), "Another instance should accept the token");
+        verify(keyValueStore, times(1)).put(eq(ResumeTokens.SECRET_KEY), any());
+    }
+
+    @Test
+    @DisplayName("Should reload a secret replaced by another node, at most once per reload interval")
+    void testVerify_ConvergesOnStoredSecret() {
+        // Arrange: this node cached its own secret before another node's secret was kept
+        resumeTokens.issue("account-1");
+        store.remove(ResumeTokens.SECRET_KEY);
+        ResumeTokens otherNode = new ResumeTokens(keyValueStore, invoker, clock::get);
+        String token = otherNode.issue("account-2");
+
+        // Act & Assert
+        assertEquals("account-2", resumeTokens.verify(token), "Stored secret should be reloaded");
+        assertEquals("account-2", otherNode.verify(resumeTokens.issue("account-2")),
+            "Tokens issued after the reload should be accepted everywhere");
+
+        // Arrange: the stored secret changes again
+        store.remove(ResumeTokens.SECRET_KEY);
+        String laterToken = new ResumeTokens(keyValueStore, invoker, clock::get).issue("account-3");
+
+        // Act & Assert
+        assertNull(resumeTokens.verify(laterToken), "Secret should not be reloaded again within the interval");
+        clock.addAndGet(ResumeTokens.RELOAD_INTERVAL_MILLIS);
+        assertEquals("account-3", resumeTokens.verify(laterToken), "Secret should be reloaded after the interval");
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+package app.krista.extensions.authentication.guest_authentication.session;
+
+import app.krista.extensions.authentication.guest_authentication.session.RouteClassifier.Route;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for RouteClassifier.
+ *
+ * Tests cover:
+ * - Anonymous routes and the documentation prefix
+ * - Login and appliance routes
+ * - Fallback to session routes
+ */
+@DisplayName("Route Classifier Tests")
+class RouteClassifierTest {
+
+    private final RouteClassifier classifier = RouteClassifier.DEFAULT;
+
+    @Test
+    @DisplayName("Should recognise anonymous routes")
+    void testClassify_AnonymousRoutes() {
+        assertEquals(Route.ANONYMOUS, classifier.classify("/authenticator.js"), "Loader script should be anonymous");
+        assertEquals(Route.ANONYMOUS, classifier.classify("/type"), "Authentication type should be anonymous");
+        assertEquals(Route.ANONYMOUS, classifier.classify("/static/docs"), "Docs tab should be anonymous");
+        assertEquals(Route.ANONYMOUS, classifier.classify("/static/docs/pages/Authentication.md"),
+            "Docs content should be anonymous");
+    }
+
+    @Test
+    @DisplayName("Should not treat paths that merely share a prefix as anonymous")
+    void testClassify_PrefixBoundary() {
+        assertEquals(Route.SESSION, classifier.classify("/static/docsExtra"), "Prefix must end at a segment");
+        assertEquals(Route.SESSION, classifier.classify("/type/extra"), "Exact routes must match exactly");
+    }
+
+    @Test
+    @DisplayName("Should recognise login and server-to-server routes")
+    void testClassify_LoginAndApplianceRoutes() {
+        assertEquals(Route.LOGIN, classifier.classify("/login"), "Login route should be recognised");
+        assertTrue(Route.LOGIN.requiresBody(), "Login should read its body");
+        assertEquals(Route.APPLIANCE, classifier.classify("/upsertPersonAttributes"),
+            "Attribute updates should run as the appliance");
+        assertEquals(Route.GATEWAY, classifier.classify("/sessions/validate"),
+            "Bulk session validation should require the gateway token");
+        assertFalse(Route.APPLIANCE.requiresBody(), "Server-to-server routes should stream their body");
+    }
+
+    @Test
+    @DisplayName("Should require a session for every other route")
+    void testClassify_SessionRoutes() {
+        assertEquals(Route.SESSION, classifier.classify("/chat/message"), "Other routes should need a session");
+        assertEquals(Route.SESSION, classifier.classify((String) null), "Missing path should need a session");
+        assertFalse(Route.SESSION.requiresBody(), "Session routes should not force buffering");
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+package app.krista.extensions.authentication.guest_authentication.session;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for SessionAccountCache.
+ */
+@DisplayName("Session Account Cache Tests")
+class SessionAccountCacheTest {
+
+    @Test
+    @DisplayName("Ttl should be capped by the configured session timeout")
+    void testTtl_NeverExceedsSessionTimeout() {
+        // Arrange: 2 minute session timeout
+        SessionAccountCache cache = new SessionAccountCache(() -> 2.0);
+
+        // Act & Assert
+        assertEquals(TimeUnit.MINUTES.toMillis(2), cache.getTtlMillis(),
+            "Ttl should not exceed the session timeout");
+    }
+
+    @Test
+    @DisplayName("Ttl should use the cache maximum when session timeout is longer")
+    void testTtl_UsesCacheMaximum() {
+        // Arrange: default 1 day session timeout
+        SessionAccountCache cache = new SessionAccountCache(() -> null);
+
+        // Act & Assert
+        assertEquals(SessionAccountCache.MAX_TTL_MILLIS, cache.getTtlMillis(),
+            "Ttl should be capped by the cache maximum");
+    }
+
+    @Test
+    @DisplayName("Should not cache when the session timeout is zero")
+    void testPut_ZeroSessionTimeout() {
+        // Arrange
+        SessionAccountCache cache = new SessionAccountCache(() -> 0.0);
+
+        // Act
+        cache.put("session", "account");
+
+        // Assert
+        assertNull(cache.getAccountId("session"), "Nothing should be cached without a session lifetime");
+    }
+
+    @Test
+    @DisplayName("Should serve cached account until invalidated")
+    void testInvalidate() {
+        // Arrange
+        SessionAccountCache cache = new SessionAccountCache(() -> 30.0);
+        cache.put("session", "account");
+
+        // Act & Assert
+        assertEquals("account", cache.getAccountId("session"), "Cached account should be returned");
+        cache.invalidate("session");
+        assertNull(cache.getAccountId("session"), "Invalidated session should not be served");
+        assertEquals(1, cache.getHitCount(), "Hit count should match");
+        assertEquals(1, cache.getMissCount(), "Miss count should match");
+    }
+
+    @Test
+    @DisplayName("Should report only recorded session ids as missing")
+    void testIsKnownMissing_Exact() {
+        // Arrange
+        SessionAccountCache cache = new SessionAccountCache(() -> 30.0);
+        for (int i = 0; i < 100_000; i++) {
+            cache.recordMissing("unknown-" + i);
+        }
+
+        // Act & Assert
+        for (int i = 0; i < 10_000; i++) {
+            assertFalse(cache.isKnownMissing("valid-" + i), "Ids never recorded should not be reported missing");
+        }
+        assertTrue(cache.isKnownMissing("unknown-99999"), "Recently recorded id should be reported missing");
+        assertEquals(100_000, cache.getMissingRecordedCount(), "Recorded count should match");
+        assertEquals(1, cache.getMissingAbsorbedCount(), "Absorbed count should match");
+    }
+
+    @Test
+    @DisplayName("Should forget a missing session id once it resolves")
+    void testPut_ClearsMissing() {
+        // Arrange
+        SessionAccountCache cache = new SessionAccountCache(() -> 30.0);
+        cache.recordMissing("session");
+
+        // Act
+        cache.put("session", "account");
+
+        // Assert
+        assertFalse(cache.isKnownMissing("session"), "Resolved session should not be reported missing");
+    }
+
+    @Test
+    @DisplayName("Should drop sessions of an invalidated account on their next read")
+    void testInvalidateAccount_Lazy() {
+        // Arrange
+        SessionAccountCache cache = new SessionAccountCache(() -> 30.0);
+        cache.put("session-1", "account");
+        cache.put("session-2", "account");
+        cache.put("session-3", "other-account");
+
+        // Act
+        cache.invalidateAccount("account");
+        cache.put("session-4", "account");
+
+        // Assert
+        assertNull(cache.getAccountId("session-1"), "Session cached before invalidation should be dropped");
+        assertNull(cache.getAccountId("session-2"), "Session cached before invalidation should be dropped");
+        assertEquals("other-account", cache.getAccountId("session-3"), "Other accounts should be kept");
+        assertEquals("account", cache.getAccountId("session-4"), "Session cached afterwards should be kept");
+        assertEquals(2, cache.size(), "Dropped sessions should be removed");
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+package app.krista.extensions.authentication.guest_authentication.session;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for SessionCredentialExtractor.
+ *
+ * Tests cover:
+ * - Exact cookie name matching
+ * - Whitespace, quoting and empty values in the Cookie header
+ * - Query string lookup and decoding
+ */
+@DisplayName("Session Credential Extractor Tests")
+class SessionCredentialExtractorTest {
+
+    private final SessionCredentialExtractor extractor = SessionCredentialExtractor.DEFAULT;
+
+    @Test
+    @DisplayName("Should find the session cookie among other cookies")
+    void testFromCookieHeader_FindsSessionCookie() {
+        assertEquals("abc-123", extractor.fromCookieHeader("_ga=GA1.1.1; chatbotSessionId=abc-123; lang=en"),
+            "Session cookie value should be extracted");
+        assertEquals("abc-123", extractor.fromCookieHeader("chatbotSessionId=abc-123"),
+            "Single cookie should be extracted");
+        assertEquals("abc-123", extractor.fromCookieHeader("lang=en;chatbotSessionId = abc-123 ;x=1"),
+            "Whitespace around name and value should be ignored");
+    }
+
+    @Test
+    @DisplayName("Should match the cookie name exactly")
+    void testFromCookieHeader_ExactNameMatch() {
+        assertNull(extractor.fromCookieHeader("chatbotSessionIdX=wrong; xchatbotSessionId=wrong"),
+            "Cookies sharing a prefix or suffix should not match");
+        assertEquals("right", extractor.fromCookieHeader("chatbotSessionIdX=wrong; chatbotSessionId=right"),
+            "Exact match should be found after a prefixed cookie");
+    }
+
+    @Test
+    @DisplayName("Should handle empty, quoted and malformed cookies")
+    void testFromCookieHeader_EdgeCases() {
+        assertNull(extractor.fromCookieHeader(null), "Missing header should yield null");
+        assertNull(extractor.fromCookieHeader(""), "Empty header should yield null");
+        assertNull(extractor.fromCookieHeader("chatbotSessionId="), "Empty value should yield null");
+        assertNull(extractor.fromCookieHeader("chatbotSessionId; other=1"), "Cookie without value should yield null");
+        assertEquals("abc", extractor.fromCookieHeader("chatbotSessionId=\"abc\""), "Quotes should be stripped");
+        assertEquals("a=b", extractor.fromCookieHeader("chatbotSessionId=a=b"), "Value may contain '='");
+    }
+
+    @Test
+    @DisplayName("Should find and decode the session query parameter")
+    void testFromQueryString() {
+        assertEquals("abc", extractor.fromQueryString("utm=1&clientSessionId=abc&x=2"),
+            "Query parameter should be extracted");
+        assertEquals("a b/c", extractor.fromQueryString("clientSessionId=a+b%2Fc"),
+            "Query parameter should be decoded");
+        assertNull(extractor.fromQueryString("clientSessionIdX=abc&xclientSessionId=abc"),
+            "Parameters sharing a prefix or suffix should not match");
+        assertNull(extractor.fromQueryString("clientSessionId=&x=1"), "Empty value should yield null");
+        assertNull(extractor.fromQueryString("clientSessionId"), "Parameter without value should yield null");
+        assertNull(extractor.fromQueryString(null), "Missing query should yield null");
+    }
+}
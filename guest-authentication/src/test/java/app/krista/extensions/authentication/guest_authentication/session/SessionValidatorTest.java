@@ -0,0 +1,187 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+package app.krista.extensions.authentication.guest_authentication.session;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import app.krista.extensions.authentication.guest_authentication.session.SessionValidator.Validation;
+import app.krista.ksdk.accounts.Account;
+import app.krista.ksdk.accounts.AccountProvider;
+import app.krista.ksdk.authentication.SessionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for SessionValidator.
+ *
+ * Tests cover:
+ * - Validity and account ids of a batch, in input order
+ * - Bounded number of lookups in flight
+ * - Per-session failures
+ * - Use of the session cache
+ */
+@DisplayName("Session Validator Tests")
+class SessionValidatorTest {
+
+    private static final int WINDOW = 4;
+
+    @Mock
+    private SessionManager sessionManager;
+
+    @Mock
+    private AccountProvider accountProvider;
+
+    private ExecutorService executor;
+    private SessionAccountCache sessionAccountCache;
+    private SessionValidator validator;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(accountProvider.getAccount(anyString())).thenReturn(mock(Account.class));
+        // Even sessions belong to an account, odd ones are unknown.
+        when(sessionManager.lookupAccountId(anyString())).thenAnswer(invocation -> {
+            int index = Integer.parseInt(invocation.<String>getArgument(0).substring(2));
+            return index % 2 == 0 ? "account-" + index : null;
+        });
+        executor = Executors.newFixedThreadPool(8);
+        sessionAccountCache = new SessionAccountCache(() -> 30.0);
+        validator = new SessionValidator(sessionManager, sessionAccountCache,
+            new AccountExistenceCache(accountProvider, sessionAccountCache), executor, WINDOW);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("Should report validity and account of every session in input order")
+    void testValidateAll_PreservesOrder() {
+        // Arrange
+        List<Validation> results = new ArrayList<>();
+
+        // Act
+        validator.validateAll(sessionIds(1_000), results::add);
+
+        // Assert
+        assertEquals(1_000, results.size(), "Every session should get a result");
+        for (int i = 0; i < results.size(); i++) {
+            Validation validation = results.get(i);
+            assertEquals("s-" + i, validation.getClientSessionId(), "Results should keep the input order");
+            assertEquals(i % 2 == 0, validation.isValid(), "Validity should match the session store");
+            assertEquals(i % 2 == 0 ? "account-" + i : null, validation.getAccountId(), "Account id should match");
+        }
+    }
+
+    @Test
+    @DisplayName("Should never keep more lookups in flight than the window")
+    void testValidateAll_BoundedParallelism() {
+        // Arrange
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        when(sessionManager.lookupAccountId(anyString())).thenAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(2);
+            running.decrementAndGet();
+            return "account";
+        });
+        AtomicInteger pulled = new AtomicInteger();
+        AtomicInteger emitted = new AtomicInteger();
+        AtomicInteger maxPending = new AtomicInteger();
+        Iterator<String> ids = sessionIds(200);
+        Iterator<String> countingIds = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return ids.hasNext();
+            }
+
+            @Override
+            public String next() {
+                maxPending.accumulateAndGet(pulled.incrementAndGet() - emitted.get(), Math::max);
+                return ids.next();
+            }
+        };
+
+        // Act
+        validator.validateAll(countingIds, validation -> emitted.incrementAndGet());
+
+        // Assert
+        assertEquals(200, emitted.get(), "Every session should get a result");
+        assertTrue(maxRunning.get() <= WINDOW, "Lookups in flight should not exceed the window: " + maxRunning);
+        assertTrue(maxPending.get() <= WINDOW, "Ids should be pulled only as slots free up: " + maxPending);
+    }
+
+    @Test
+    @DisplayName("Should report a failing lookup without failing the batch or marking the session missing")
+    void testValidateAll_FailureIsPerSession() {
+        // Arrange
+        when(sessionManager.lookupAccountId("s-1")).thenThrow(new IllegalStateException("store unavailable"));
+        List<Validation> results = new ArrayList<>();
+
+        // Act
+        validator.validateAll(sessionIds(3), results::add);
+
+        // Assert
+        assertTrue(results.get(0).isValid(), "Other sessions should still be validated");
+        assertFalse(results.get(1).isValid(), "Failed session should not be reported valid");
+        assertEquals("store unavailable", results.get(1).getError(), "Failure reason should be reported");
+        assertFalse(sessionAccountCache.isKnownMissing("s-1"), "Failed lookups should not be remembered as missing");
+        assertTrue(results.get(2).isValid(), "Sessions after the failure should still be validated");
+    }
+
+    @Test
+    @DisplayName("Should answer cached sessions without the session store")
+    void testValidate_UsesSessionCache() {
+        // Arrange
+        validator.validate("s-2");
+        clearInvocations(sessionManager);
+
+        // Act
+        Validation validation = validator.validate("s-2");
+        Validation unknown = validator.validate("s-3");
+        Validation unknownAgain = validator.validate("s-3");
+
+        // Assert
+        assertTrue(validation.isValid(), "Cached session should be valid");
+        assertFalse(unknown.isValid(), "Unknown session should be invalid");
+        assertFalse(unknownAgain.isValid(), "Unknown session should stay invalid");
+        verify(sessionManager, times(1)).lookupAccountId(anyString());
+    }
+
+    private static Iterator<String> sessionIds(int count) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ids.add("s-" + i);
+        }
+        return ids.iterator();
+    }
+}
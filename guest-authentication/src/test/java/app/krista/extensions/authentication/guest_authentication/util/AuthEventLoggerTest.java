@@ -0,0 +1,159 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+package app.krista.extensions.authentication.guest_authentication.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+
+import static app.krista.extensions.authentication.guest_authentication.util.AuthEventLogger.Event.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for AuthEventLogger.
+ *
+ * Tests cover:
+ * - Per-event sampling
+ * - Per-second rate limits and suppressed counts
+ * - Per-session debugging
+ * - Disabled levels
+ */
+@DisplayName("Auth Event Logger Tests")
+class AuthEventLoggerTest {
+
+    private AtomicLong clock;
+    private List<Object[]> lines;
+    private boolean debugEnabled;
+    private AuthEventLogger events;
+
+    @BeforeEach
+    void setUp() {
+        clock = new AtomicLong(1_000_000L);
+        lines = new ArrayList<>();
+        debugEnabled = false;
+        // Records "level, format, arguments" for every line written; every level except debug is enabled.
+        Logger logger = mock(Logger.class, invocation -> {
+            String method = invocation.getMethod().getName();
+            if (method.startsWith("is")) {
+                return !"isDebugEnabled".equals(method) || debugEnabled;
+            }
+            Object[] raw = invocation.getRawArguments();
+            lines.add(new Object[]{method, raw[0], raw.length > 1 ? raw[1] : new Object[0]});
+            return null;
+        });
+        events = new AuthEventLogger(logger, clock::get);
+    }
+
+    @Test
+    @DisplayName("Should write only every n-th occurrence of a sampled event")
+    void testLog_SamplesFrequentEvents() {
+        // Act: one occurrence per second so that only sampling applies
+        for (int i = 0; i < 1_000; i++) {
+            events.log(SESSION_RESOLVED, "Got Authenticated AccountId: {}", "account-" + i);
+            clock.addAndGet(1_000);
+        }
+
+        // Assert
+        assertEquals(10, lines.size(), "Only every 100th occurrence should be written");
+        assertEquals(990, events.getSuppressedCount(SESSION_RESOLVED), "Skipped occurrences should be counted");
+    }
+
+    @Test
+    @DisplayName("Should cap lines per second and report the suppressed count afterwards")
+    void testLog_RateLimitsBursts() {
+        // Act
+        for (int i = 0; i < 50; i++) {
+            events.log(ACCOUNT_MISSING, "No such account Id exist: {}", "account-" + i);
+        }
+        clock.addAndGet(1_000);
+        events.log(ACCOUNT_MISSING, "No such account Id exist: {}", "account-50");
+
+        // Assert
+        assertEquals(11, lines.size(), "Ten lines per second plus one in the next second");
+        Object[] last = lines.get(10);
+        assertEquals("warn", last[0], "Event should be written at its severity");
+        assertEquals("No such account Id exist: {} ({} similar suppressed)", last[1],
+            "Suppressed count should be appended");
+        assertArrayEquals(new Object[]{"account-50", 40L}, (Object[]) last[2], "Suppressed count should be reported");
+    }
+
+    @Test
+    @DisplayName("Should keep a trailing exception last when appending the suppressed count")
+    void testLog_KeepsThrowableLast() {
+        // Arrange
+        IllegalStateException failure = new IllegalStateException("boom");
+        for (int i = 0; i < 21; i++) {
+            events.log(REQUEST_FAILED, "Request failed with status {}: {}", 500, "boom", failure);
+        }
+        clock.addAndGet(1_000);
+
+        // Act
+        events.log(REQUEST_FAILED, "Request failed with status {}: {}", 500, "boom", failure);
+
+        // Assert
+        Object[] arguments = (Object[]) lines.get(lines.size() - 1)[2];
+        assertArrayEquals(new Object[]{500, "boom", 1L, failure}, arguments,
+            "Throwable should remain the last argument");
+    }
+
+    @Test
+    @DisplayName("Should write every event of a session with debugging enabled")
+    void testLog_SessionDebugBypassesPolicy() {
+        // Arrange
+        AuthEventLogger.enableSessionDebug("traced-session");
+
+        try {
+            // Act
+            for (int i = 0; i < 50; i++) {
+                events.logSession(SESSION_RESOLVED, "traced-session", "Got Authenticated AccountId: {}", "account-1");
+                events.logSession(SESSION_RESOLVED, "other-session", "Got Authenticated AccountId: {}", "account-2");
+            }
+
+            // Assert
+            long traced = lines.stream().filter(line -> ((String) line[1]).startsWith("[session-debug")).count();
+            assertEquals(50, traced, "Every event of the traced session should be written");
+            assertEquals(51, lines.size(), "Other sessions should still be sampled");
+        } finally {
+            AuthEventLogger.disableSessionDebug("traced-session");
+        }
+    }
+
+    @Test
+    @DisplayName("Should neither write nor count events below the enabled level")
+    void testLog_DisabledLevelIsFree() {
+        // Act
+        events.log(LOGIN, "Login input: {}", "input");
+
+        // Assert
+        assertTrue(lines.isEmpty(), "Debug events should not be written when debug is disabled");
+        assertEquals(0, events.getSuppressedCount(LOGIN), "Disabled events should not count as suppressed");
+
+        // Act
+        debugEnabled = true;
+        events.log(LOGIN, "Login input: {}", "input");
+
+        // Assert
+        assertEquals(1, lines.size(), "Debug events should be written once debug is enabled");
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+package app.krista.extensions.authentication.guest_authentication.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ExpiringCache.
+ *
+ * Tests cover:
+ * - Time-to-live expiry
+ * - Entry count and weight bounds
+ * - Hit, miss and eviction counters
+ */
+@DisplayName("Expiring Cache Tests")
+class ExpiringCacheTest {
+
+    private AtomicLong clock;
+
+    @BeforeEach
+    void setUp() {
+        clock = new AtomicLong();
+    }
+
+    @Test
+    @DisplayName("Should return value until its ttl elapses")
+    void testGet_ExpiresAfterTtl() {
+        // Arrange
+        ExpiringCache<String, String> cache = new ExpiringCache<>(100, 10_000, 10, TimeUnit.SECONDS,
+            (key, value) -> 1, clock::get);
+        cache.put("session", "account");
+
+        // Act & Assert
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(9));
+        assertEquals("account", cache.get("session"), "Entry should be served before ttl elapses");
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertNull(cache.get("session"), "Entry should expire once ttl elapses");
+        assertEquals(0, cache.size(), "Expired entry should be dropped on access");
+    }
+
+    @Test
+    @DisplayName("Should honour explicit ttl per entry")
+    void testPut_ExplicitTtl() {
+        // Arrange
+        ExpiringCache<String, String> cache = new ExpiringCache<>(100, 10_000, 10, TimeUnit.MINUTES,
+            (key, value) -> 1, clock::get);
+        cache.put("short", "value", 1, TimeUnit.SECONDS);
+        cache.put("none", "value", 0, TimeUnit.SECONDS);
+
+        // Act
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(2));
+
+        // Assert
+        assertNull(cache.get("short"), "Entry should use its own ttl");
+        assertNull(cache.get("none"), "Non-positive ttl should not store the entry");
+    }
+
+    @Test
+    @DisplayName("Should evict least recently used entries when the entry bound is exceeded")
+    void testPut_EvictsOnEntryBound() {
+        // Arrange: 16 segments with one entry each
+        ExpiringCache<Integer, String> cache = new ExpiringCache<>(16, 10_000, 1, TimeUnit.MINUTES,
+            (key, value) -> 1, clock::get);
+
+        // Act
+        for (int i = 0; i < 1_000; i++) {
+            cache.put(i, "value-" + i);
+        }
+
+        // Assert
+        assertTrue(cache.size() <= 16, "Cache should never hold more than its entry bound");
+        assertEquals(1_000 - cache.size(), cache.getEvictionCount(), "Every dropped live entry counts as eviction");
+        assertEquals("value-999", cache.get(999), "Most recent entry should survive");
+    }
+
+    @Test
+    @DisplayName("Should evict entries when the weight bound is exceeded")
+    void testPut_EvictsOnWeightBound() {
+        // Arrange: 16 segments with a weight budget of 10 each
+        ExpiringCache<Integer, String> cache = new ExpiringCache<>(10_000, 160, 1, TimeUnit.MINUTES,
+            (key, value) -> value.length(), clock::get);
+
+        // Act
+        for (int i = 0; i < 1_000; i++) {
+            cache.put(i, "0123456789");
+        }
+
+        // Assert
+        assertTrue(cache.weight() <= 160, "Cache should never exceed its weight bound");
+    }
+
+    @Test
+    @DisplayName("Should count hits and misses")
+    void testCounters() {
+        // Arrange
+        ExpiringCache<String, String> cache = new ExpiringCache<>(100, 10_000, 1, TimeUnit.MINUTES,
+            (key, value) -> 1, clock::get);
+        cache.put("present", "value");
+
+        // Act
+        cache.get("present");
+        cache.get("present");
+        cache.get("absent");
+
+        // Assert
+        assertEquals(2, cache.getHitCount(), "Hit count should match");
+        assertEquals(1, cache.getMissCount(), "Miss count should match");
+    }
+
+    @Test
+    @DisplayName("Should invalidate single entries and entries matching a predicate")
+    void testInvalidate() {
+        // Arrange
+        ExpiringCache<String, String> cache = new ExpiringCache<>(100, 10_000, 1, TimeUnit.MINUTES,
+            (key, value) -> 1, clock::get);
+        cache.put("a", "account-1");
+        cache.put("b", "account-1");
+        cache.put("c", "account-2");
+
+        // Act
+        cache.invalidate("c");
+        cache.invalidateIf((key, value) -> value.equals("account-1"));
+
+        // Assert
+        assertEquals(0, cache.size(), "All entries should be invalidated");
+        assertEquals(0, cache.weight(), "Weight should be released with the entries");
+    }
+}
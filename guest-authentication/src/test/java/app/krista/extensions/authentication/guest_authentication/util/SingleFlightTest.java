@@ -0,0 +1,135 @@
+/*
+ * Guest Authentication Extension for Krista
+ * Copyright (C) 2025 Krista Software
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>. 
+ */
+
+package app.krista.extensions.authentication.guest_authentication.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for SingleFlight.
+ *
+ * Tests cover:
+ * - Coalescing of concurrent loads of the same key
+ * - Propagation of failures to every waiter
+ * - Independence of keys and of consecutive loads
+ */
+@DisplayName("Single Flight Tests")
+class SingleFlightTest {
+
+    private static final int CALLERS = 16;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("Should run the loader once for concurrent callers of the same key")
+    void testRun_CoalescesConcurrentCallers() throws Exception {
+        // Arrange
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        AtomicInteger loaderCalls = new AtomicInteger();
+        Supplier<String> loader = () -> {
+            loaderCalls.incrementAndGet();
+            awaitCoalesced(singleFlight, CALLERS - 1);
+            return "account-1";
+        };
+
+        // Act
+        List<Future<String>> results = submitAll(() -> singleFlight.run("session-1", loader));
+
+        // Assert
+        for (Future<String> result : results) {
+            assertEquals("account-1", result.get(5, TimeUnit.SECONDS), "Every caller should see the loaded value");
+        }
+        assertEquals(1, loaderCalls.get(), "Loader should run exactly once");
+        assertEquals(CALLERS - 1, singleFlight.getCoalescedCount(), "Other callers should be coalesced");
+        assertEquals(0, singleFlight.inFlightCount(), "Completed load should not stay in flight");
+    }
+
+    @Test
+    @DisplayName("Should propagate a failure to every waiting caller")
+    void testRun_PropagatesFailureToAllWaiters() throws Exception {
+        // Arrange
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        Supplier<String> loader = () -> {
+            awaitCoalesced(singleFlight, CALLERS - 1);
+            throw new IllegalStateException("lookup failed");
+        };
+
+        // Act
+        List<Future<String>> results = submitAll(() -> singleFlight.run("session-1", loader));
+
+        // Assert
+        for (Future<String> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail("Every caller should see the failure");
+            } catch (ExecutionException expected) {
+                assertTrue(expected.getCause() instanceof IllegalStateException, "Original exception should propagate");
+                assertEquals("lookup failed", expected.getCause().getMessage(), "Message should be preserved");
+            }
+        }
+        assertEquals(1, singleFlight.getLoadCount(), "Loader should run exactly once");
+    }
+
+    @Test
+    @DisplayName("Should load again once the previous load completed")
+    void testRun_DoesNotCacheResults() {
+        // Arrange
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        AtomicInteger counter = new AtomicInteger();
+
+        // Act
+        int first = singleFlight.run("key", counter::incrementAndGet);
+        int second = singleFlight.run("key", counter::incrementAndGet);
+        int other = singleFlight.run("other", counter::incrementAndGet);
+
+        // Assert
+        assertEquals(1, first, "First load should run");
+        assertEquals(2, second, "Sequential load should run again");
+        assertEquals(3, other, "Different key should load independently");
+        assertEquals(0, singleFlight.getCoalescedCount(), "Sequential calls should not be coalesced");
+    }
+
+    private List<Future<String>> submitAll(Callable<String> call) {
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(executor.submit(call));
+        }
+        return results;
+    }
+
+    private static void awaitCoalesced(SingleFlight<?, ?> singleFlight, int waiters) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (singleFlight.getCoalescedCount() < waiters && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+    }
+}